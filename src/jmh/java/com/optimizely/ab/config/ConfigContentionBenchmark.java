@@ -0,0 +1,96 @@
+package com.optimizely.ab.config;
+
+import com.optimizely.ab.config.parser.ConfigParseException;
+import eu.phaf.optimizelybug.DatafileGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code getConfig()} throughput of 15 reader threads while one writer keeps switching between two config
+ * revisions, for {@link BugFixHttpProjectConfigManager} and the stock {@link HttpProjectConfigManager}.
+ * The writer publishes the way a poll does, so readers contend with real config updates.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConfigContentionBenchmark {
+
+    private static final String UNREACHABLE_URL = "http://localhost:1/datafile.json";
+
+    @Param({"bugfix", "stock"})
+    public String manager;
+
+    private PollingProjectConfigManager configManager;
+    private final ProjectConfig[] configs = new ProjectConfig[2];
+    private final byte[][] datafiles = new byte[2][];
+    private int writes;
+
+    @Setup(Level.Trial)
+    public void setUp() throws ConfigParseException {
+        String[] generated = {DatafileGenerator.generate(100, 1), DatafileGenerator.generate(100, 2, 0)};
+        for (int i = 0; i < generated.length; i++) {
+            configs[i] = BugFixHttpProjectConfigManager.parseProjectConfig(generated[i]);
+            datafiles[i] = generated[i].getBytes(StandardCharsets.UTF_8);
+        }
+        String datafile = DatafileGenerator.generate(100, 1);
+        if ("bugfix".equals(manager)) {
+            configManager = BugFixHttpProjectConfigManager.builder()
+                    .withDatafile(datafile)
+                    .withUrl(UNREACHABLE_URL)
+                    .withPollingInterval(1L, TimeUnit.HOURS)
+                    .build(true);
+        } else {
+            configManager = HttpProjectConfigManager.builder()
+                    .withDatafile(datafile)
+                    .withUrl(UNREACHABLE_URL)
+                    .withPollingInterval(1L, TimeUnit.HOURS)
+                    .build(true);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        configManager.close();
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(15)
+    public ProjectConfig getConfig() {
+        return configManager.getConfig();
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public void publish() {
+        int index = writes++ & 1;
+        ProjectConfig next = configs[index];
+        if (configManager instanceof BugFixHttpProjectConfigManager) {
+            ((BugFixHttpProjectConfigManager) configManager).publish(next, datafiles[index]);
+        }
+        configManager.setConfig(next);
+        // a poll does a lot more work than a publish, don't let the writer saturate the config
+        Blackhole.consumeCPU(10_000);
+    }
+}
@@ -0,0 +1,94 @@
+package com.optimizely.ab.config;
+
+import com.optimizely.ab.config.parser.ConfigParseException;
+import eu.phaf.optimizelybug.DatafileGenerator;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.message.BasicHttpResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cost of turning a datafile response into a {@link ProjectConfig}, for generated datafiles of several sizes:
+ * reading the response body, plain and gzip encoded, and parsing the datafile.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DatafileParseBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    public int flagCount;
+
+    private String datafile;
+    private byte[] body;
+    private byte[] gzipBody;
+    private BugFixHttpProjectConfigManager configManager;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        datafile = DatafileGenerator.generate(flagCount, 1);
+        body = datafile.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(body);
+        }
+        gzipBody = compressed.toByteArray();
+        configManager = BugFixHttpProjectConfigManager.builder()
+                .withDatafile(DatafileGenerator.generate(1, 1))
+                .withUrl("http://localhost:1/datafile.json")
+                .withPollingInterval(1L, TimeUnit.HOURS)
+                .build(true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        configManager.close();
+    }
+
+    @Benchmark
+    public ProjectConfig parseProjectConfig() throws ConfigParseException {
+        return BugFixHttpProjectConfigManager.parseProjectConfig(datafile);
+    }
+
+    @Benchmark
+    public String getDatafileFromResponse() throws IOException {
+        return configManager.getDatafileFromResponse(response(body, false));
+    }
+
+    @Benchmark
+    public String getDatafileFromGzipResponse() throws IOException {
+        return configManager.getDatafileFromResponse(response(gzipBody, true));
+    }
+
+    private static HttpResponse response(byte[] body, boolean gzip) {
+        BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        response.setEntity(new ByteArrayEntity(body, ContentType.APPLICATION_JSON));
+        if (gzip) {
+            response.setHeader("Content-Encoding", "gzip");
+        }
+        return response;
+    }
+}
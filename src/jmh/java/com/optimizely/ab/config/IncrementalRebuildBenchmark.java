@@ -0,0 +1,74 @@
+package com.optimizely.ab.config;
+
+import com.optimizely.ab.config.parser.ConfigParseException;
+import eu.phaf.optimizelybug.DatafileGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Config rebuild cost for a 2,000 flag datafile in which a single flag flips on every new revision:
+ * a full {@link DatafileProjectConfig} parse versus an {@link IncrementalProjectConfigBuilder} rebuild.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IncrementalRebuildBenchmark {
+
+    private static final int FLAG_COUNT = 2_000;
+    private static final int CHANGING_FLAG = FLAG_COUNT / 2;
+
+    private final byte[][] datafiles = new byte[2][];
+    private IncrementalProjectConfigBuilder incrementalBuilder;
+    private ProjectConfig current;
+    private int revision;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, ConfigParseException {
+        incrementalBuilder = new IncrementalProjectConfigBuilder();
+        revision = 1;
+        current = incrementalBuilder.build(read(DatafileGenerator.generate(FLAG_COUNT, revision)), null);
+    }
+
+    @Setup(Level.Invocation)
+    public void nextRevision() {
+        revision++;
+        // alternate the one changing flag between off and on, every revision differs by a single flag
+        int disabledFlag = revision % 2 == 0 ? CHANGING_FLAG : -1;
+        datafiles[revision % 2] = DatafileGenerator.generate(FLAG_COUNT, revision, disabledFlag)
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public ProjectConfig fullParse() throws ConfigParseException {
+        return BugFixHttpProjectConfigManager.parseProjectConfig(new String(datafiles[revision % 2], StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public ProjectConfig incrementalRebuild() throws IOException, ConfigParseException {
+        byte[] datafile = datafiles[revision % 2];
+        current = incrementalBuilder.build(DatafileReader.pooled().read(new ByteArrayInputStream(datafile), datafile.length), current);
+        return current;
+    }
+
+    private static DatafileReader read(String datafile) throws IOException {
+        byte[] bytes = datafile.getBytes(StandardCharsets.UTF_8);
+        return DatafileReader.pooled().read(new ByteArrayInputStream(bytes), bytes.length);
+    }
+}
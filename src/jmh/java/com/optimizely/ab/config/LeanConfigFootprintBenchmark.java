@@ -0,0 +1,104 @@
+package com.optimizely.ab.config;
+
+import eu.phaf.optimizelybug.DatafileGenerator;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.ref.Reference;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retained heap and build time of a {@link BugFixHttpProjectConfigManager} publishing a {@link LeanProjectConfig}
+ * against one publishing a {@link DatafileProjectConfig}, for a generated datafile of 10k entities (5000 flags and
+ * their rollouts) of which a handful of flags are used. The configs go through the manager's publish path, so
+ * whatever the SDK builds from a published config counts too.
+ * <p>
+ * The retained heap per manager is reported as the {@code retainedBytes} counter, measured as the used heap
+ * after a full gc with {@link #MANAGERS} managers alive, minus the used heap before building them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+public class LeanConfigFootprintBenchmark {
+
+    private static final int FLAG_COUNT = 5000;
+    private static final int MANAGERS = 10;
+    private static final int USED_FLAGS = 8;
+
+    @Param({"false", "true"})
+    public boolean lean;
+
+    private String datafile;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Footprint {
+        public long retainedBytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        datafile = DatafileGenerator.generate(FLAG_COUNT, 1);
+    }
+
+    @Benchmark
+    public int publishAndUseFlags(Footprint footprint) {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long before = usedHeapAfterGc(memory);
+
+        BugFixHttpProjectConfigManager[] managers = new BugFixHttpProjectConfigManager[MANAGERS];
+        int enabled = 0;
+        try {
+            for (int i = 0; i < MANAGERS; i++) {
+                // nothing listens on the discard port, the manager keeps the datafile it was built with
+                managers[i] = BugFixHttpProjectConfigManager.builder()
+                        .withUrl("http://localhost:9/datafile.json")
+                        .withDatafile(datafile)
+                        .withLeanConfig(lean)
+                        .withPollingInterval(1L, TimeUnit.HOURS)
+                        .build(true);
+                ProjectConfig config = managers[i].getConfig();
+                for (int flag = 0; flag < USED_FLAGS; flag++) {
+                    FeatureFlag featureFlag = config.getFeatureKeyMapping().get("flag_" + flag * (FLAG_COUNT / USED_FLAGS));
+                    Rollout rollout = config.getRolloutIdMapping().get(featureFlag.getRolloutId());
+                    if (rollout.getExperiments().get(0).getVariations().get(0).getFeatureEnabled()) {
+                        enabled++;
+                    }
+                }
+            }
+
+            footprint.retainedBytes = (usedHeapAfterGc(memory) - before) / MANAGERS;
+            Reference.reachabilityFence(managers);
+        } finally {
+            for (BugFixHttpProjectConfigManager manager : managers) {
+                if (manager != null) {
+                    manager.close();
+                }
+            }
+        }
+        return enabled;
+    }
+
+    private static long usedHeapAfterGc(MemoryMXBean memory) {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,122 @@
+package eu.phaf.optimizelybug;
+
+import com.optimizely.ab.Optimizely;
+import com.optimizely.ab.OptimizelyUserContext;
+import com.optimizely.ab.config.BugFixHttpProjectConfigManager;
+import com.optimizely.ab.config.HttpProjectConfigManager;
+import com.optimizely.ab.config.PollingProjectConfigManager;
+import com.optimizely.ab.optimizelydecision.OptimizelyDecideOption;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@code decide()} throughput on top of {@link BugFixHttpProjectConfigManager} and the stock
+ * {@link HttpProjectConfigManager}. Both managers are seeded with a local datafile and point at an
+ * unreachable url, so no network traffic is involved.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConfigPublicationBenchmark {
+
+    private static final String FLAG_KEY = "targetfilereceiver";
+    private static final String UNREACHABLE_URL = "http://localhost:1/datafile.json";
+    private static final List<OptimizelyDecideOption> NO_EVENTS = List.of(OptimizelyDecideOption.DISABLE_DECISION_EVENT);
+
+    @Param({"bugfix", "stock"})
+    public String manager;
+
+    private PollingProjectConfigManager configManager;
+    private Optimizely optimizely;
+    private OptimizelyUserContext userContext;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String datafile = readDatafile("/datafiles/datafile.json");
+        if ("bugfix".equals(manager)) {
+            configManager = BugFixHttpProjectConfigManager.builder()
+                    .withDatafile(datafile)
+                    .withUrl(UNREACHABLE_URL)
+                    .withPollingInterval(1L, TimeUnit.HOURS)
+                    .build(true);
+        } else {
+            configManager = HttpProjectConfigManager.builder()
+                    .withDatafile(datafile)
+                    .withUrl(UNREACHABLE_URL)
+                    .withPollingInterval(1L, TimeUnit.HOURS)
+                    .build(true);
+        }
+        optimizely = Optimizely.builder()
+                .withConfigManager(configManager)
+                .withEventHandler(logEvent -> { })
+                .build();
+        userContext = optimizely.createUserContext("benchmark-user", Map.of());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        optimizely.close();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean decide1Thread() {
+        return decide();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean decide4Threads() {
+        return decide();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public boolean decide16Threads() {
+        return decide();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public boolean decide64Threads() {
+        return decide();
+    }
+
+    private boolean decide() {
+        return userContext.decide(FLAG_KEY, NO_EVENTS).getEnabled();
+    }
+
+    static String readDatafile(String resource) {
+        try (InputStream inputStream = ConfigPublicationBenchmark.class.getResourceAsStream(resource)) {
+            if (inputStream == null) {
+                throw new IllegalStateException("Missing datafile resource " + resource);
+            }
+            return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
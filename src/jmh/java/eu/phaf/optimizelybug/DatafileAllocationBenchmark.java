@@ -0,0 +1,69 @@
+package eu.phaf.optimizelybug;
+
+import com.optimizely.ab.config.BugFixHttpProjectConfigManager;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bytes allocated per poll for reading a 5 MB datafile body. Run with the GC profiler and compare
+ * {@code gc.alloc.rate.norm} of both benchmarks:
+ * <pre>./gradlew jmh -Pjmh.includes=DatafileAllocationBenchmark -Pjmh.profilers=gc</pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+public class DatafileAllocationBenchmark {
+
+    private static final int DATAFILE_SIZE = 5 * 1024 * 1024;
+
+    private byte[] body;
+    private BugFixHttpProjectConfigManager configManager;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        body = DatafileGenerator.generateOfSize(DATAFILE_SIZE).getBytes(StandardCharsets.UTF_8);
+        configManager = BugFixHttpProjectConfigManager.builder()
+                .withDatafile(DatafileGenerator.generate(1, 1))
+                .withUrl("http://localhost:1/datafile.json")
+                .withPollingInterval(1L, TimeUnit.HOURS)
+                .build(true);
+    }
+
+    @Benchmark
+    public String entityUtilsToString() throws IOException {
+        return EntityUtils.toString(response().getEntity(), "UTF-8");
+    }
+
+    @Benchmark
+    public String pooledStreamingRead() throws IOException {
+        return configManager.getDatafileFromResponse(response());
+    }
+
+    private HttpResponse response() {
+        BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        response.setEntity(new ByteArrayEntity(body, ContentType.APPLICATION_JSON));
+        return response;
+    }
+}
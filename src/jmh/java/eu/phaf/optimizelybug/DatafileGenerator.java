@@ -0,0 +1,75 @@
+package eu.phaf.optimizelybug;
+
+/**
+ * Generates synthetic v4 datafiles shaped like the ones served by the CDN: every flag has a rollout
+ * with a single everyone-rule and one variable, so size grows linearly with the number of flags.
+ */
+public final class DatafileGenerator {
+
+    private DatafileGenerator() {
+    }
+
+    /**
+     * @param flagCount number of feature flags (and rollouts) in the datafile
+     * @param revision the datafile revision
+     * @return the datafile json
+     */
+    public static String generate(int flagCount, int revision) {
+        return generate(flagCount, revision, -1);
+    }
+
+    /**
+     * @param flagCount number of feature flags (and rollouts) in the datafile
+     * @param revision the datafile revision
+     * @param disabledFlag index of the one flag that is switched off, or -1 to enable all flags
+     * @return the datafile json
+     */
+    public static String generate(int flagCount, int revision, int disabledFlag) {
+        StringBuilder json = new StringBuilder(flagCount * 900 + 1024);
+        json.append("{\"accountId\":\"21023511730\",\"projectId\":\"23900040109\",\"revision\":\"").append(revision)
+                .append("\",\"attributes\":[],\"audiences\":[],\"version\":\"4\",\"events\":[],")
+                .append("\"anonymizeIP\":true,\"botFiltering\":false,\"typedAudiences\":[],\"variables\":[],")
+                .append("\"environmentKey\":\"development\",\"sdkKey\":\"FAKE_KEY\",\"featureFlags\":[");
+        for (int i = 0; i < flagCount; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"id\":\"").append(100000 + i).append("\",\"key\":\"flag_").append(i)
+                    .append("\",\"rolloutId\":\"rollout-").append(i).append("\",\"experimentIds\":[],")
+                    .append("\"variables\":[{\"id\":\"").append(500000 + i)
+                    .append("\",\"key\":\"limit\",\"type\":\"integer\",\"defaultValue\":\"10\"}]}");
+        }
+        json.append("],\"rollouts\":[");
+        for (int i = 0; i < flagCount; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            boolean enabled = i != disabledFlag;
+            json.append("{\"id\":\"rollout-").append(i).append("\",\"experiments\":[{")
+                    .append("\"id\":\"default-rollout-").append(i).append("\",\"key\":\"default-rollout-").append(i)
+                    .append("\",\"status\":\"Running\",\"layerId\":\"rollout-").append(i).append("\",")
+                    .append("\"variations\":[{\"id\":\"").append(300000 + i).append("\",\"key\":\"")
+                    .append(enabled ? "on" : "off").append("\",\"featureEnabled\":").append(enabled)
+                    .append(",\"variables\":[{\"id\":\"").append(500000 + i).append("\",\"value\":\"20\"}]}],")
+                    .append("\"trafficAllocation\":[{\"entityId\":\"").append(300000 + i)
+                    .append("\",\"endOfRange\":10000}],\"forcedVariations\":{},")
+                    .append("\"audienceIds\":[],\"audienceConditions\":[]}]}");
+        }
+        json.append("],\"experiments\":[],\"groups\":[]}");
+        return json.toString();
+    }
+
+    /**
+     * @param targetBytes approximate size of the generated datafile
+     * @return a datafile of at least {@code targetBytes} bytes
+     */
+    public static String generateOfSize(int targetBytes) {
+        int flagCount = Math.max(1, targetBytes / 850);
+        String datafile = generate(flagCount, 1);
+        while (datafile.length() < targetBytes) {
+            flagCount += Math.max(1, (targetBytes - datafile.length()) / 850 + 1);
+            datafile = generate(flagCount, 1);
+        }
+        return datafile;
+    }
+}
@@ -0,0 +1,99 @@
+package eu.phaf.optimizelybug;
+
+import com.optimizely.ab.Optimizely;
+import com.optimizely.ab.config.BugFixHttpProjectConfigManager;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link OptimizelyFeatureToggle#checkFeatureToggle()} throughput, with and without metrics bound to a registry,
+ * against checks of {@code partialreceiver}, a flag rolled out to half of the users that goes through
+ * {@code decide()} for a supplied user id.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FeatureToggleBenchmark {
+
+    private static final String PARTIAL_FLAG_KEY = "partialreceiver";
+
+    @Param({"false", "true"})
+    public boolean metrics;
+
+    private Optimizely optimizely;
+    private FeatureToggleService featureToggleService;
+    private OptimizelyFeatureToggle featureToggle;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BugFixHttpProjectConfigManager configManager = BugFixHttpProjectConfigManager.builder()
+                .withDatafile(ConfigPublicationBenchmark.readDatafile("/datafiles/datafile.json"))
+                .withUrl("http://localhost:1/datafile.json")
+                .withPollingInterval(1L, TimeUnit.HOURS)
+                .build(true);
+        optimizely = Optimizely.builder()
+                .withConfigManager(configManager)
+                .withEventHandler(logEvent -> { })
+                .build();
+        OptimizelyMetrics optimizelyMetrics = new OptimizelyMetrics();
+        if (metrics) {
+            optimizelyMetrics.bindTo(new SimpleMeterRegistry());
+        }
+        featureToggleService = new FeatureToggleService(
+                new StaticListableBeanFactory(Map.of("optimizely", optimizely)).getBeanProvider(Optimizely.class),
+                optimizelyMetrics,
+                true);
+        featureToggle = new OptimizelyFeatureToggle(featureToggleService);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        optimizely.close();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean checkFeatureToggle1Thread() {
+        featureToggle.checkFeatureToggle();
+        return featureToggle.getIsEnabled();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean checkFeatureToggle8Threads() {
+        featureToggle.checkFeatureToggle();
+        return featureToggle.getIsEnabled();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean checkPartialRollout1Thread() {
+        return featureToggleService.isEnabled(PARTIAL_FLAG_KEY, "user-42", Map.of());
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean checkPartialRollout8Threads() {
+        return featureToggleService.isEnabled(PARTIAL_FLAG_KEY, "user-42", Map.of());
+    }
+}
@@ -0,0 +1,94 @@
+package eu.phaf.optimizelybug;
+
+import com.optimizely.ab.Optimizely;
+import com.optimizely.ab.OptimizelyUserContext;
+import com.optimizely.ab.config.BugFixHttpProjectConfigManager;
+import com.optimizely.ab.optimizelydecision.OptimizelyDecideOption;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a toggle check with a fresh {@code UUID.randomUUID()} user per call, as the toggle used to do,
+ * against a caller supplied user id, a reused user context and the anonymous {@link FeatureToggleService} path.
+ * {@code partialreceiver} is rolled out to half of the users, so it is bucketed on every check and never served
+ * from the flag table; {@code targetfilereceiver} is on for everyone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class FeatureToggleUserIdBenchmark {
+
+    private static final List<OptimizelyDecideOption> NO_EVENTS = List.of(OptimizelyDecideOption.DISABLE_DECISION_EVENT);
+
+    @Param({"targetfilereceiver", "partialreceiver"})
+    public String flagKey;
+
+    private Optimizely optimizely;
+    private OptimizelyUserContext reusedUserContext;
+    private FeatureToggleService featureToggleService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BugFixHttpProjectConfigManager configManager = BugFixHttpProjectConfigManager.builder()
+                .withDatafile(ConfigPublicationBenchmark.readDatafile("/datafiles/datafile.json"))
+                .withUrl("http://localhost:1/datafile.json")
+                .withPollingInterval(1L, TimeUnit.HOURS)
+                .build(true);
+        optimizely = Optimizely.builder()
+                .withConfigManager(configManager)
+                .withEventHandler(logEvent -> { })
+                .build();
+        reusedUserContext = optimizely.createUserContext("user-42", Map.of());
+        featureToggleService = new FeatureToggleService(
+                new StaticListableBeanFactory(Map.of("optimizely", optimizely)).getBeanProvider(Optimizely.class),
+                new OptimizelyMetrics(),
+                true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        optimizely.close();
+    }
+
+    @Benchmark
+    public boolean randomUuidPerCall() {
+        return optimizely.createUserContext(UUID.randomUUID().toString(), Map.of()).decide(flagKey, NO_EVENTS).getEnabled();
+    }
+
+    @Benchmark
+    public boolean suppliedUserId() {
+        return optimizely.createUserContext("user-42", Map.of()).decide(flagKey, NO_EVENTS).getEnabled();
+    }
+
+    @Benchmark
+    public boolean reusedUserContext() {
+        return reusedUserContext.decide(flagKey, NO_EVENTS).getEnabled();
+    }
+
+    @Benchmark
+    public boolean featureToggleService() {
+        return featureToggleService.isEnabled(flagKey);
+    }
+}
@@ -0,0 +1,175 @@
+package com.optimizely.ab.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Schedules the polls of one manager one at a time, following an {@link AdaptivePollingPolicy}. Polls that are
+ * requested outside of the schedule, e.g. for a revision announced on the update stream, go through the same
+ * state: they are skipped while the circuit is open and replace the next scheduled poll otherwise.
+ * <p>
+ * Polls run under the lock of the scheduler, so they never run concurrently. A scheduled poll that was replaced
+ * by a requested one while it waited for the lock is recognized by its generation and does nothing.
+ */
+final class AdaptivePollScheduler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AdaptivePollScheduler.class);
+
+    enum CircuitState {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final AdaptivePollingPolicy policy;
+    private final ScheduledExecutorService scheduler;
+    private final long periodMillis;
+    private final Supplier<PollOutcome> poll;
+
+    private volatile CircuitState circuitState = CircuitState.CLOSED;
+    private volatile boolean stopped;
+    private volatile ScheduledFuture<?> next;
+    // guarded by this
+    private long generation;
+    private long phaseMillis;
+    private int consecutiveFailures;
+    private int fastPollsLeft;
+
+    /**
+     * @param poll fetches the datafile and reports how that went
+     */
+    AdaptivePollScheduler(AdaptivePollingPolicy policy, ScheduledExecutorService scheduler, long periodMillis, Supplier<PollOutcome> poll) {
+        this.policy = policy;
+        this.scheduler = scheduler;
+        this.periodMillis = periodMillis;
+        this.poll = poll;
+    }
+
+    /**
+     * @param firstDelayMillis delay of the first poll
+     * @param phaseMillis shift of all later polls, added once to the delay after the first poll
+     */
+    synchronized void start(long firstDelayMillis, long phaseMillis) {
+        this.phaseMillis = phaseMillis;
+        generation++;
+        schedule(firstDelayMillis);
+    }
+
+    /**
+     * Polls right away on the calling thread, unless the circuit is open.
+     */
+    synchronized void pollNow() {
+        if (stopped) {
+            return;
+        }
+        if (circuitState == CircuitState.OPEN) {
+            LOGGER.debug("Datafile circuit is open, not fetching until {} passed", policy.getOpenDuration());
+            return;
+        }
+        ScheduledFuture<?> scheduled = next;
+        if (scheduled != null) {
+            scheduled.cancel(false);
+        }
+        generation++;
+        pollAndReschedule();
+    }
+
+    void stop() {
+        stopped = true;
+        ScheduledFuture<?> scheduled = next;
+        if (scheduled != null) {
+            scheduled.cancel(false);
+        }
+    }
+
+    CircuitState getCircuitState() {
+        return circuitState;
+    }
+
+    /**
+     * Spreads the first poll of pods that start together over the jittered part of the polling interval. Only
+     * for managers that already have a config to serve, the others poll right away.
+     *
+     * @return a random delay between 0 and the jitter times the polling interval
+     */
+    long initialDelayMillis() {
+        long spread = (long) (policy.getJitter() * periodMillis);
+        return spread == 0 ? 0 : ThreadLocalRandom.current().nextLong(spread + 1);
+    }
+
+    private void schedule(long delayMillis) {
+        if (!stopped) {
+            long scheduledGeneration = generation;
+            next = scheduler.schedule(() -> run(scheduledGeneration), delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void run(long scheduledGeneration) {
+        if (scheduledGeneration != generation || stopped) {
+            return;
+        }
+        if (circuitState == CircuitState.OPEN) {
+            // the open duration passed, this poll is the probe
+            circuitState = CircuitState.HALF_OPEN;
+        }
+        pollAndReschedule();
+    }
+
+    private void pollAndReschedule() {
+        PollOutcome outcome;
+        try {
+            outcome = poll.get();
+        } catch (RuntimeException e) {
+            LOGGER.error("Error polling datafile", e);
+            outcome = PollOutcome.FAILED;
+        }
+        long delayMillis = nextDelayMillis(outcome) + phaseMillis;
+        phaseMillis = 0;
+        schedule(delayMillis);
+    }
+
+    synchronized long nextDelayMillis(PollOutcome outcome) {
+        if (outcome == PollOutcome.FAILED) {
+            consecutiveFailures++;
+            if (circuitState == CircuitState.HALF_OPEN || consecutiveFailures >= policy.getFailureThreshold()) {
+                if (circuitState == CircuitState.CLOSED) {
+                    LOGGER.warn("Opening datafile circuit after {} consecutive failures, not fetching for {}",
+                            consecutiveFailures, policy.getOpenDuration());
+                } else {
+                    LOGGER.debug("Datafile probe failed, keeping circuit open for {}", policy.getOpenDuration());
+                }
+                circuitState = CircuitState.OPEN;
+                return jittered(policy.getOpenDuration().toMillis());
+            }
+            long backoff = periodMillis << Math.min(consecutiveFailures, 20);
+            return jittered(Math.min(backoff, policy.getMaxBackoff().toMillis()));
+        }
+
+        if (circuitState != CircuitState.CLOSED) {
+            LOGGER.info("Closing datafile circuit, fetch succeeded");
+            circuitState = CircuitState.CLOSED;
+        }
+        consecutiveFailures = 0;
+        if (outcome == PollOutcome.UPDATED && policy.getFastInterval() != null) {
+            fastPollsLeft = policy.getFastPolls();
+        }
+        if (fastPollsLeft > 0) {
+            fastPollsLeft--;
+            return jittered(policy.getFastInterval().toMillis());
+        }
+        return jittered(periodMillis);
+    }
+
+    private long jittered(long delayMillis) {
+        double jitter = policy.getJitter();
+        if (jitter == 0) {
+            return delayMillis;
+        }
+        double factor = 1 + ThreadLocalRandom.current().nextDouble(-jitter / 2, jitter / 2);
+        return Math.max(0, (long) (delayMillis * factor));
+    }
+}
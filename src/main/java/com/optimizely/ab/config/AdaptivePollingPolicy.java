@@ -0,0 +1,137 @@
+package com.optimizely.ab.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+
+/**
+ * Settings for adaptive polling in {@link BugFixHttpProjectConfigManager}: every poll is scheduled on its own,
+ * with a delay derived from the outcome of the previous poll.
+ * <ul>
+ *     <li>Every delay is randomized by the jitter, so pods that restart together drift apart.</li>
+ *     <li>Consecutive failures back off exponentially from the polling interval, up to the max backoff.</li>
+ *     <li>After the failure threshold the circuit opens: no fetches at all for the open duration, then a single
+ *     probe decides whether it closes again.</li>
+ *     <li>After a datafile change the next few polls use the fast interval, to pick up follow-up changes.</li>
+ * </ul>
+ * Instances are immutable and can be shared; each manager keeps its own state.
+ */
+public final class AdaptivePollingPolicy {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AdaptivePollingPolicy.class);
+
+    private final double jitter;
+    private final Duration maxBackoff;
+    private final int failureThreshold;
+    private final Duration openDuration;
+    private final Duration fastInterval;
+    private final int fastPolls;
+
+    private AdaptivePollingPolicy(double jitter,
+                                  Duration maxBackoff,
+                                  int failureThreshold,
+                                  Duration openDuration,
+                                  Duration fastInterval,
+                                  int fastPolls) {
+        this.jitter = jitter;
+        this.maxBackoff = maxBackoff;
+        this.failureThreshold = failureThreshold;
+        this.openDuration = openDuration;
+        this.fastInterval = fastInterval;
+        this.fastPolls = fastPolls;
+    }
+
+    public double getJitter() {
+        return jitter;
+    }
+
+    public Duration getMaxBackoff() {
+        return maxBackoff;
+    }
+
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    public Duration getOpenDuration() {
+        return openDuration;
+    }
+
+    public Duration getFastInterval() {
+        return fastInterval;
+    }
+
+    public int getFastPolls() {
+        return fastPolls;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private double jitter = 0.2;
+        private Duration maxBackoff = Duration.ofMinutes(30);
+        private int failureThreshold = 5;
+        private Duration openDuration = Duration.ofMinutes(5);
+        private Duration fastInterval;
+        private int fastPolls = 0;
+
+        /**
+         * @param jitter total spread of each delay as a fraction of it, between 0 and 1
+         * @return An AdaptivePollingPolicy builder
+         */
+        public Builder withJitter(double jitter) {
+            if (jitter < 0 || jitter > 1) {
+                LOGGER.warn("Jitter must be between 0 and 1. Keeping {}", this.jitter);
+                return this;
+            }
+            this.jitter = jitter;
+            return this;
+        }
+
+        public Builder withMaxBackoff(Duration maxBackoff) {
+            if (maxBackoff == null || maxBackoff.isNegative() || maxBackoff.isZero()) {
+                LOGGER.warn("Max backoff must be > 0. Keeping {}", this.maxBackoff);
+                return this;
+            }
+            this.maxBackoff = maxBackoff;
+            return this;
+        }
+
+        /**
+         * @param failureThreshold consecutive failures after which the circuit opens
+         * @param openDuration time the circuit stays open before a single probe is made
+         * @return An AdaptivePollingPolicy builder
+         */
+        public Builder withCircuitBreaker(int failureThreshold, Duration openDuration) {
+            if (failureThreshold <= 0 || openDuration == null || openDuration.isNegative() || openDuration.isZero()) {
+                LOGGER.warn("Invalid circuit breaker {}, {}. Keeping {}, {}", failureThreshold, openDuration, this.failureThreshold, this.openDuration);
+                return this;
+            }
+            this.failureThreshold = failureThreshold;
+            this.openDuration = openDuration;
+            return this;
+        }
+
+        /**
+         * @param fastInterval interval used right after the datafile changed
+         * @param fastPolls number of polls that use the fast interval after a change
+         * @return An AdaptivePollingPolicy builder
+         */
+        public Builder withFastIntervalAfterChange(Duration fastInterval, int fastPolls) {
+            if (fastInterval == null || fastInterval.isNegative() || fastInterval.isZero() || fastPolls < 0) {
+                LOGGER.warn("Invalid fast interval {}, {}. Keeping {}, {}", fastInterval, fastPolls, this.fastInterval, this.fastPolls);
+                return this;
+            }
+            this.fastInterval = fastInterval;
+            this.fastPolls = fastPolls;
+            return this;
+        }
+
+        public AdaptivePollingPolicy build() {
+            return new AdaptivePollingPolicy(jitter, maxBackoff, failureThreshold, openDuration, fastInterval, fastPolls);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.optimizely.ab.config;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fetches datafiles with the non-blocking JDK {@link HttpClient}. No thread waits on the network: the
+ * polling thread only sends the request, and the response is handled on completion. Every fetch has a
+ * hard deadline covering connect, headers and body, after which the exchange is cancelled.
+ */
+final class AsyncDatafileFetcher {
+
+    private final HttpClient httpClient;
+    private final Duration requestTimeout;
+    private final Duration deadline;
+
+    AsyncDatafileFetcher(Duration connectTimeout, Duration requestTimeout, Duration deadline) {
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+        this.requestTimeout = requestTimeout;
+        this.deadline = deadline;
+    }
+
+    HttpRequest.Builder newRequest(URI uri) {
+        return HttpRequest.newBuilder(uri).timeout(requestTimeout).GET();
+    }
+
+    /**
+     * @return the response with the complete body, or a future failed with a
+     * {@link java.util.concurrent.TimeoutException} when the deadline passed first
+     */
+    CompletableFuture<HttpResponse<byte[]>> fetch(HttpRequest request) {
+        CompletableFuture<HttpResponse<byte[]>> exchange = httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray());
+        return exchange.copy()
+                .orTimeout(deadline.toMillis(), TimeUnit.MILLISECONDS)
+                .whenComplete((response, error) -> {
+                    if (error != null) {
+                        // aborts the exchange when the deadline passed, no-op when it already completed
+                        exchange.cancel(true);
+                    }
+                });
+    }
+}
@@ -5,12 +5,17 @@ import com.optimizely.ab.annotations.VisibleForTesting;
 import com.optimizely.ab.config.parser.ConfigParseException;
 import com.optimizely.ab.internal.PropertyUtils;
 import com.optimizely.ab.notification.NotificationCenter;
+import com.optimizely.ab.notification.UpdateConfigNotification;
+import com.optimizely.ab.optimizelyconfig.OptimizelyConfig;
+import com.optimizely.ab.optimizelyconfig.OptimizelyConfigService;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.StatusLine;
 import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.Configurable;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.util.EntityUtils;
@@ -18,9 +23,27 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpHeaders;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.zip.GZIPInputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
 
 
 //  Created this because there is a bug in the SDK: https://github.com/optimizely/java-sdk/issues/526
@@ -36,6 +59,15 @@ public class BugFixHttpProjectConfigManager extends PollingProjectConfigManager
     public static final String CONFIG_SDK_KEY = "http.project.config.manager.sdk.key";
     public static final String CONFIG_DATAFILE_AUTH_TOKEN = "http.project.config.manager.datafile.auth.token";
 
+    /**
+     * Response header of a datafile relay with the hex SHA-256 of the datafile it serves.
+     */
+    public static final String RELAY_CONTENT_HASH_HEADER = "X-Optimizely-Content-Hash";
+    /**
+     * Response header of a datafile relay with the epoch millis of its last successful fetch from upstream.
+     */
+    public static final String RELAY_FETCHED_AT_HEADER = "X-Optimizely-Fetched-At";
+
     public static final long DEFAULT_POLLING_DURATION = 5;
     public static final TimeUnit DEFAULT_POLLING_UNIT = TimeUnit.MINUTES;
     public static final long DEFAULT_BLOCKING_DURATION = 10;
@@ -45,34 +77,165 @@ public class BugFixHttpProjectConfigManager extends PollingProjectConfigManager
 
     private static final Logger LOGGER = LoggerFactory.getLogger(BugFixHttpProjectConfigManager.class);
 
+    /**
+     * How {@link #poll()} fetches the datafile.
+     */
+    public enum FetchMode {
+        /**
+         * Blocking fetch with the {@link OptimizelyHttpClient} on the polling thread.
+         */
+        BLOCKING,
+        /**
+         * Non-blocking fetch with the JDK http client; the polling thread only sends the request and a
+         * slow response can never delay the next poll.
+         */
+        ASYNC
+    }
+
     private final OptimizelyHttpClient httpClient;
+    private final NotificationCenter notificationCenter;
     private final URI uri;
     private final String datafileAccessToken;
-    private String datafileLastModified;
+    private final boolean etagRevalidation;
+    private final boolean compression;
+    private final IncrementalProjectConfigBuilder incrementalBuilder;
+    private final boolean leanConfig;
+    private final DatafileCache datafileCache;
+    private final Duration connectTimeout;
+    private final Duration readTimeout;
+    private final RequestConfig requestConfig;
+    private final AsyncDatafileFetcher asyncFetcher;
+    private final AtomicBoolean asyncFetchInFlight = new AtomicBoolean(false);
+    private DatafileUpdateStream updateStream;
+    private ScheduledFuture<?> sharedSchedule;
+    private final AdaptivePollingPolicy adaptivePolling;
+    private final DatafilePollListener pollListener;
+    private final ConfigWarmer configWarmer;
+    private final URI relayUri;
+    private final long relayMaxStalenessMillis;
+    private final long rollbackRetentionNanos;
+    private volatile AdaptivePollScheduler adaptiveScheduler;
+    private ScheduledExecutorService adaptiveExecutor;
+    // outcome of the last completed poll, in async mode the outcome of the previous fetch
+    private volatile PollOutcome lastPollOutcome = PollOutcome.NOT_MODIFIED;
+    private final DatafileFetchStats fetchStats = new DatafileFetchStats();
+    private final long period;
+    private final TimeUnit timeUnit;
+    private final long blockingTimeoutPeriod;
+    private final TimeUnit blockingTimeoutUnit;
+    private final CompletableFuture<ProjectConfig> firstConfig = new CompletableFuture<>();
+    // epoch millis of the last fetch that reached upstream, for a relay the upstream fetch of the relay
+    private volatile long lastFetchedAtMillis;
+    // the relay and upstream have their own validators, a relay's ETag means nothing to the CDN and vice versa
+    private final Validators upstreamValidators = new Validators();
+    private final Validators relayValidators = new Validators();
+    // only touched by the polling thread
+    private long lastParsedChecksum = -1;
+    private String lastParsedRevision;
+
+    // Latest config produced by poll(), published once per revision change and read without locking.
+    private volatile ProjectConfig publishedConfig;
+    // raw datafile of the published config, written together with it
+    private volatile PublishedDatafile publishedDatafile;
+    // last config handed to the SDK or, for lean configs, announced in its place
+    private ProjectConfig announcedConfig;
+    private volatile LeanOptimizelyConfig leanOptimizelyConfig;
+    // datafile replaced by the last publish, kept for rollback() until the retention has passed
+    private volatile PublishedDatafile previousDatafile;
+    private volatile long previousExpiresAtNanos;
 
     private BugFixHttpProjectConfigManager(long period,
                                            TimeUnit timeUnit,
                                            OptimizelyHttpClient httpClient,
                                            String url,
                                            String datafileAccessToken,
+                                           boolean etagRevalidation,
+                                           boolean compression,
+                                           boolean incrementalRebuild,
+                                           boolean leanConfig,
+                                           DatafileCache datafileCache,
+                                           FetchMode fetchMode,
+                                           Duration connectTimeout,
+                                           Duration readTimeout,
+                                           Duration pollDeadline,
+                                           AdaptivePollingPolicy adaptivePolling,
+                                           DatafilePollListener pollListener,
+                                           ConfigWarmer configWarmer,
+                                           Duration rollbackRetention,
+                                           String relayUrl,
+                                           Duration relayMaxStaleness,
                                            long blockingTimeoutPeriod,
                                            TimeUnit blockingTimeoutUnit,
                                            NotificationCenter notificationCenter) {
         super(period, timeUnit, blockingTimeoutPeriod, blockingTimeoutUnit, notificationCenter);
+        this.notificationCenter = notificationCenter;
+        this.period = period;
+        this.timeUnit = timeUnit;
         this.httpClient = httpClient;
         this.uri = URI.create(url);
         this.datafileAccessToken = datafileAccessToken;
+        this.etagRevalidation = etagRevalidation;
+        this.compression = compression;
+        this.incrementalBuilder = incrementalRebuild ? new IncrementalProjectConfigBuilder() : null;
+        this.leanConfig = leanConfig;
+        this.datafileCache = datafileCache;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.requestConfig = httpClient == null ? null : requestConfig(httpClient, connectTimeout, readTimeout);
+        this.asyncFetcher = fetchMode == FetchMode.ASYNC
+                ? new AsyncDatafileFetcher(connectTimeout, readTimeout, pollDeadline)
+                : null;
+        this.adaptivePolling = adaptivePolling;
+        this.pollListener = pollListener;
+        this.configWarmer = configWarmer;
+        this.rollbackRetentionNanos = rollbackRetention.toNanos();
+        this.relayUri = relayUrl == null ? null : URI.create(relayUrl);
+        this.relayMaxStalenessMillis = relayMaxStaleness.toMillis();
+        this.blockingTimeoutPeriod = blockingTimeoutPeriod;
+        this.blockingTimeoutUnit = blockingTimeoutUnit;
     }
 
     public URI getUri() {
         return uri;
     }
 
+    /**
+     * @return Last-Modified of the last datafile fetched from upstream
+     */
     public String getLastModified() {
-        return datafileLastModified;
+        return upstreamValidators.lastModified;
+    }
+
+    /**
+     * @return ETag of the last datafile fetched from upstream
+     */
+    public String getETag() {
+        return upstreamValidators.eTag;
+    }
+
+    public DatafileFetchStats getFetchStats() {
+        return fetchStats;
+    }
+
+    /**
+     * @return epoch millis of the last fetch from upstream that succeeded, taken over from the relay when
+     * the datafile came from a relay, or 0 when there was none yet
+     */
+    public long getLastFetchedAtMillis() {
+        return lastFetchedAtMillis;
     }
 
     public String getDatafileFromResponse(HttpResponse response) throws NullPointerException, IOException {
+        DatafileReader datafile = readDatafileFromResponse(response, upstreamValidators, System.nanoTime());
+        return datafile == null ? null : datafile.asString();
+    }
+
+    /**
+     * @param validators validators of the source the response came from, updated from its headers
+     * @param startNanos when the request was sent, for the response latency
+     * @return the pooled reader holding the raw datafile, or null when the datafile has not updated
+     */
+    private DatafileReader readDatafileFromResponse(HttpResponse response, Validators validators, long startNanos) throws IOException {
         StatusLine statusLine = response.getStatusLine();
 
         if (statusLine == null) {
@@ -83,48 +246,293 @@ public class BugFixHttpProjectConfigManager extends PollingProjectConfigManager
 
         // Datafile has not updated
         if (status == HttpStatus.SC_NOT_MODIFIED) {
-            LOGGER.debug("Not updating ProjectConfig as datafile has not updated since " + datafileLastModified);
+            LOGGER.debug("Not updating ProjectConfig as datafile has not updated since " + validators.lastModified);
+            fetchStats.recordNotModified();
+            pollListener.onResponse(status, 0, System.nanoTime() - startNanos);
             return null;
         }
 
         if (status >= 200 && status < 300) {
             // read the response, so we can close the connection
             HttpEntity entity = response.getEntity();
+            if (entity == null) {
+                throw new ClientProtocolException("unexpected response when trying to fetch datafile, entity is null");
+            }
             Header lastModifiedHeader = response.getFirstHeader(HttpHeaders.LAST_MODIFIED);
             if (lastModifiedHeader != null) {
-                datafileLastModified = lastModifiedHeader.getValue();
+                validators.lastModified = lastModifiedHeader.getValue();
+            }
+            Header etagHeader = response.getFirstHeader(HttpHeaders.ETAG);
+            if (etagHeader != null) {
+                validators.eTag = etagHeader.getValue();
+            }
+            try (CountingInputStream wire = new CountingInputStream(entity.getContent());
+                 InputStream content = isGzipEncoded(response) ? new GZIPInputStream(wire) : wire) {
+                // the announced length is only a useful size hint when the body is not compressed
+                long contentLength = content == wire ? entity.getContentLength() : -1;
+                DatafileReader datafile = DatafileReader.pooled().read(content, contentLength);
+                fetchStats.recordOk(wire.getCount());
+                pollListener.onResponse(status, wire.getCount(), System.nanoTime() - startNanos);
+                return datafile;
             }
-            return EntityUtils.toString(entity, "UTF-8");
         } else {
+            pollListener.onResponse(status, 0, System.nanoTime() - startNanos);
             throw new ClientProtocolException("unexpected response when trying to fetch datafile, status: " + status);
         }
     }
 
+    private static boolean isGzipEncoded(HttpResponse response) {
+        Header contentEncoding = response.getFirstHeader(HttpHeaders.CONTENT_ENCODING);
+        return contentEncoding != null && "gzip".equalsIgnoreCase(contentEncoding.getValue().trim());
+    }
+
+    /**
+     * A 200 for content we already parsed is common behind CDNs, so look at a checksum and the
+     * {@code revision} field before paying for a full {@link DatafileProjectConfig} build. A CRC32C is no
+     * identity, so a checksum match only counts together with the revision of the datafile it was taken of.
+     */
+    private boolean isUnchanged(DatafileReader datafile, long checksum) throws IOException {
+        String revision = datafile.revision();
+        if (checksum == lastParsedChecksum && revision != null && revision.equals(lastParsedRevision)) {
+            return true;
+        }
+        ProjectConfig current = publishedConfig;
+        if (current != null && current.getRevision().equals(revision)) {
+            lastParsedChecksum = checksum;
+            lastParsedRevision = revision;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records upstream's confirmation of the published datafile in the cache, so it counts as fresh on a restart.
+     */
+    private void confirmCachedDatafile() {
+        if (datafileCache != null) {
+            datafileCache.confirm(upstreamValidators.lastModified, upstreamValidators.eTag);
+        }
+    }
+
+    /**
+     * Publishes the cached datafile, if any, and revalidates against its Last-Modified and ETag on the first poll.
+     *
+     * @return whether a cached config was published
+     */
+    private boolean restoreFromCache() {
+        DatafileCache.Entry entry = datafileCache.load();
+        if (entry == null) {
+            return false;
+        }
+        try {
+            // the cache reads into an array of exactly the datafile's length, owned by the entry
+            byte[] content = entry.getDatafile().array();
+            ProjectConfig projectConfig = parseProjectConfig(content);
+            upstreamValidators.lastModified = entry.getLastModified();
+            upstreamValidators.eTag = entry.getETag();
+            publish(projectConfig, content);
+            setConfig(projectConfig);
+            LOGGER.info("Using cached datafile with revision {} from {}", projectConfig.getRevision(), datafileCache.getDatafilePath());
+            return true;
+        } catch (ConfigParseException e) {
+            LOGGER.warn("Error parsing cached datafile {}", datafileCache.getDatafilePath(), e);
+            return false;
+        }
+    }
+
     static ProjectConfig parseProjectConfig(String datafile) throws ConfigParseException {
         return new DatafileProjectConfig.Builder().withDatafile(datafile).build();
     }
 
+    // the lean config shares the content with the published datafile, neither modifies it
+    private ProjectConfig parseProjectConfig(byte[] content) throws ConfigParseException {
+        if (leanConfig) {
+            return LeanProjectConfig.create(content);
+        }
+        return parseProjectConfig(new String(content, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns the most recently published config with a single volatile read. Only the first call(s),
+     * made before any config has been published, block for at most the configured blocking timeout.
+     * <p>
+     * The SDK's {@link PollingProjectConfigManager#getConfig()} can keep handing out a stale config
+     * (https://github.com/optimizely/java-sdk/issues/526), so readers never go through it.
+     */
     @Override
     public ProjectConfig getConfig() {
-        var config = super.getConfig();
-        setConfig(config);
-        return config;
+        ProjectConfig config = publishedConfig;
+        if (config != null) {
+            return config;
+        }
+        return awaitFirstConfig();
+    }
+
+    /**
+     * @return the most recently published config, or null while there is none, without ever blocking
+     */
+    public ProjectConfig getPublishedConfig() {
+        return publishedConfig;
+    }
+
+    /**
+     * @return the most recently published config with the raw datafile it was built from, or null while there
+     * is none, without ever blocking
+     */
+    public PublishedDatafile getPublishedDatafile() {
+        return publishedDatafile;
+    }
+
+    private ProjectConfig awaitFirstConfig() {
+        try {
+            firstConfig.get(blockingTimeoutPeriod, blockingTimeoutUnit);
+        } catch (TimeoutException e) {
+            LOGGER.warn("Timeout exceeded waiting for ProjectConfig to be set, returning null.");
+            firstConfig.complete(null);
+        } catch (InterruptedException e) {
+            LOGGER.warn("Interrupted waiting for valid ProjectConfig, returning null.");
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            LOGGER.warn("Failed waiting for valid ProjectConfig, returning null.", e);
+        }
+        return publishedConfig;
+    }
+
+    /**
+     * Publishes a new immutable snapshot for readers of {@link #getConfig()}. Snapshots with the revision
+     * that is already published are ignored, so every revision change results in exactly one write.
+     *
+     * @param datafile the raw datafile the config was built from, kept with it and never modified
+     */
+    void publish(ProjectConfig projectConfig, byte[] datafile) {
+        if (projectConfig == null) {
+            return;
+        }
+        ProjectConfig current = publishedConfig;
+        if (current != null && current.getRevision().equals(projectConfig.getRevision())) {
+            return;
+        }
+        if (current != null && rollbackRetentionNanos > 0) {
+            previousExpiresAtNanos = System.nanoTime() + rollbackRetentionNanos;
+            previousDatafile = publishedDatafile;
+        }
+        publishedDatafile = new PublishedDatafile(projectConfig, datafile);
+        publishedConfig = projectConfig;
+        firstConfig.complete(projectConfig);
+        pollListener.onPublish(projectConfig);
+    }
+
+    /**
+     * Validates a newly parsed config and warms it with the {@link ConfigWarmer}, before it is published.
+     * Rejected datafiles are fetched unconditionally on the next poll, so a transient warm-up failure doesn't
+     * leave the manager on the old revision until the datafile changes again.
+     */
+    void prepare(ProjectConfig candidate) throws ConfigParseException {
+        String rejection = validate(candidate);
+        long warmStartNanos = System.nanoTime();
+        if (rejection == null && configWarmer != null) {
+            try {
+                configWarmer.warm(candidate);
+                LOGGER.debug("Warmed revision {} in {} ms", candidate.getRevision(),
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - warmStartNanos));
+            } catch (Exception e) {
+                rejection = "warm-up failed: " + e;
+            }
+        }
+        if (rejection != null) {
+            upstreamValidators.clear();
+            relayValidators.clear();
+            throw new ConfigParseException("Rejected datafile revision " + candidate.getRevision() + ", " + rejection);
+        }
+    }
+
+    /**
+     * @return why the config must not replace the published one, or null when it may
+     */
+    private String validate(ProjectConfig candidate) {
+        String revision = candidate.getRevision();
+        if (revision == null || revision.isEmpty()) {
+            return "it has no revision";
+        }
+        if (candidate.getFeatureKeyMapping() == null) {
+            return "it has no feature flags";
+        }
+        ProjectConfig current = publishedConfig;
+        if (current != null && isOlder(revision, current.getRevision())) {
+            return "it is older than the published revision " + current.getRevision();
+        }
+        return null;
+    }
+
+    // revisions are numeric and increase with every change, anything else is not compared
+    static boolean isOlder(String revision, String current) {
+        try {
+            return Long.parseLong(revision) < Long.parseLong(current);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Publishes the config that the last update replaced again, when it is still retained. The datafile that
+     * was rolled back is not published again; the next datafile with different content is.
+     *
+     * @return whether the previous config was restored
+     */
+    public synchronized boolean rollback() {
+        PublishedDatafile previous = previousDatafile;
+        if (previous == null || System.nanoTime() - previousExpiresAtNanos > 0) {
+            previousDatafile = null;
+            LOGGER.warn("No previous config retained to roll back to");
+            return false;
+        }
+        ProjectConfig previousConfig = previous.getConfig();
+        LOGGER.warn("Rolling back from revision {} to revision {}", publishedConfig.getRevision(), previousConfig.getRevision());
+        previousDatafile = null;
+        publishedDatafile = previous;
+        publishedConfig = previousConfig;
+        pollListener.onPublish(previousConfig);
+        setConfig(previousConfig);
+        return true;
+    }
+
+    /**
+     * @return the config that {@link #rollback()} would restore, or null when there is none
+     */
+    public ProjectConfig getPreviousConfig() {
+        PublishedDatafile previous = previousDatafile;
+        return previous == null || System.nanoTime() - previousExpiresAtNanos > 0 ? null : previous.getConfig();
     }
 
     @Override
-    protected ProjectConfig poll() {
+    protected synchronized ProjectConfig poll() {
+        if (asyncFetcher != null) {
+            pollAsync();
+            return null;
+        }
+        if (relayUri != null) {
+            try {
+                ProjectConfig projectConfig = pollRelay();
+                recordOutcome(projectConfig);
+                return projectConfig;
+            } catch (ConfigParseException | IOException e) {
+                fetchStats.recordRelayFallback();
+                LOGGER.warn("Datafile relay {} not usable, fetching from upstream: {}", relayUri, e.getMessage());
+            }
+        }
         HttpGet httpGet = createHttpRequest();
         CloseableHttpResponse response = null;
         LOGGER.debug("Fetching datafile from: {}", httpGet.getURI());
+        long startNanos = System.nanoTime();
         try {
             response = httpClient.execute(httpGet);
-            String datafile = getDatafileFromResponse(response);
-            if (datafile == null) {
-                return null;
-            }
-            return parseProjectConfig(datafile);
+            ProjectConfig projectConfig = processDatafile(readDatafileFromResponse(response, upstreamValidators, startNanos), true);
+            lastFetchedAtMillis = System.currentTimeMillis();
+            recordOutcome(projectConfig);
+            return projectConfig;
         } catch (ConfigParseException | IOException e) {
             LOGGER.error("Error fetching datafile", e);
+            recordFailure(e, startNanos);
         } finally {
             if (response != null) {
                 try {
@@ -138,19 +546,412 @@ public class BugFixHttpProjectConfigManager extends PollingProjectConfigManager
         return null;
     }
 
+    /**
+     * Fetches the datafile from the relay. The relay must have reached upstream recently, and the datafile it
+     * serves must match the content hash it announces; otherwise the poll goes to upstream.
+     */
+    private ProjectConfig pollRelay() throws ConfigParseException, IOException {
+        HttpGet httpGet = createHttpRequest(relayUri, relayValidators);
+        LOGGER.debug("Fetching datafile from relay: {}", httpGet.getURI());
+        try (CloseableHttpResponse response = httpClient.execute(httpGet)) {
+            Header fetchedAtHeader = response.getFirstHeader(RELAY_FETCHED_AT_HEADER);
+            long relayFetchedAt;
+            try {
+                relayFetchedAt = fetchedAtHeader == null ? 0 : Long.parseLong(fetchedAtHeader.getValue());
+            } catch (NumberFormatException e) {
+                relayFetchedAt = 0;
+            }
+            long staleness = System.currentTimeMillis() - relayFetchedAt;
+            if (staleness > relayMaxStalenessMillis) {
+                EntityUtils.consumeQuietly(response.getEntity());
+                throw new ClientProtocolException("relay has not reached upstream for " + staleness + " ms");
+            }
+            DatafileReader datafile = readDatafileFromResponse(response, relayValidators, System.nanoTime());
+            if (datafile != null) {
+                Header contentHash = response.getFirstHeader(RELAY_CONTENT_HASH_HEADER);
+                String actualHash = sha256(datafile.array(), datafile.length());
+                if (contentHash == null || !actualHash.equalsIgnoreCase(contentHash.getValue())) {
+                    throw new ClientProtocolException("relay datafile does not match its content hash");
+                }
+            }
+            ProjectConfig projectConfig = processDatafile(datafile, false);
+            lastFetchedAtMillis = relayFetchedAt;
+            return projectConfig;
+        }
+    }
+
+    static String sha256(byte[] content, int length) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(content, 0, length);
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private void recordOutcome(ProjectConfig projectConfig) {
+        lastPollOutcome = projectConfig == null ? PollOutcome.NOT_MODIFIED : PollOutcome.UPDATED;
+    }
+
+    private void recordFailure(Throwable error, long startNanos) {
+        fetchStats.recordFailure();
+        lastPollOutcome = PollOutcome.FAILED;
+        pollListener.onFailure(error, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Parses and publishes a fetched datafile, unless it is the one already in use.
+     *
+     * @param datafile the fetched datafile, or null when it has not updated
+     * @param fromUpstream whether the datafile came from upstream rather than from the relay
+     * @return the new config, or null when there is none
+     */
+    private ProjectConfig processDatafile(DatafileReader datafile, boolean fromUpstream) throws ConfigParseException, IOException {
+        if (datafile == null) {
+            if (fromUpstream) {
+                confirmCachedDatafile();
+            }
+            return null;
+        }
+        long checksum = datafile.checksum();
+        if (isUnchanged(datafile, checksum)) {
+            LOGGER.debug("Not parsing datafile as revision {} is already in use", publishedConfig.getRevision());
+            fetchStats.recordParseSkipped();
+            if (fromUpstream && datafileCache != null) {
+                // the validators may have changed, e.g. behind a CDN that doesn't revalidate
+                datafileCache.refresh(datafile, upstreamValidators.lastModified, upstreamValidators.eTag);
+            }
+            return null;
+        }
+        long parseStartNanos = System.nanoTime();
+        // the reader is pooled, the published datafile needs its own copy
+        byte[] content = datafile.toByteArray();
+        ProjectConfig projectConfig = incrementalBuilder == null
+                ? parseProjectConfig(content)
+                : incrementalBuilder.build(datafile, publishedConfig);
+        pollListener.onParse(System.nanoTime() - parseStartNanos);
+        prepare(projectConfig);
+        lastParsedChecksum = checksum;
+        lastParsedRevision = projectConfig.getRevision();
+        // publish before handing it to setConfig, so update notifications observe the new snapshot
+        publish(projectConfig, content);
+        if (datafileCache != null && fromUpstream) {
+            datafileCache.store(datafile, upstreamValidators.lastModified, upstreamValidators.eTag);
+        } else if (datafileCache != null) {
+            // upstream's validators belong to an older datafile when the relay served this one
+            datafileCache.storeUnvalidated(datafile);
+        }
+        return projectConfig;
+    }
+
+    /**
+     * Sends the request and returns right away. The response is handled on completion; polls that come in
+     * while a fetch is still running are skipped.
+     */
+    private void pollAsync() {
+        if (!asyncFetchInFlight.compareAndSet(false, true)) {
+            LOGGER.debug("Previous datafile fetch still running, skipping poll");
+            return;
+        }
+        HttpRequest.Builder request = asyncFetcher.newRequest(uri);
+        addRequestHeaders(request::header, upstreamValidators);
+        LOGGER.debug("Fetching datafile from: {}", uri);
+        long startNanos = System.nanoTime();
+        try {
+            asyncFetcher.fetch(request.build()).whenComplete((response, error) -> {
+                try {
+                    ProjectConfig projectConfig = null;
+                    if (error != null) {
+                        LOGGER.error("Error fetching datafile", error);
+                        recordFailure(error, startNanos);
+                    } else {
+                        projectConfig = processAsyncResponse(response, startNanos);
+                    }
+                    setConfig(projectConfig);
+                } finally {
+                    asyncFetchInFlight.set(false);
+                }
+            });
+        } catch (RuntimeException e) {
+            asyncFetchInFlight.set(false);
+            throw e;
+        }
+    }
+
+    private synchronized ProjectConfig processAsyncResponse(java.net.http.HttpResponse<byte[]> response, long startNanos) {
+        int status = response.statusCode();
+        try {
+            if (status == HttpStatus.SC_NOT_MODIFIED) {
+                LOGGER.debug("Not updating ProjectConfig as datafile has not updated since " + upstreamValidators.lastModified);
+                fetchStats.recordNotModified();
+                pollListener.onResponse(status, 0, System.nanoTime() - startNanos);
+                confirmCachedDatafile();
+                lastFetchedAtMillis = System.currentTimeMillis();
+                recordOutcome(null);
+                return null;
+            }
+            if (status < 200 || status >= 300) {
+                pollListener.onResponse(status, 0, System.nanoTime() - startNanos);
+                throw new ClientProtocolException("unexpected response when trying to fetch datafile, status: " + status);
+            }
+            response.headers().firstValue(HttpHeaders.LAST_MODIFIED).ifPresent(value -> upstreamValidators.lastModified = value);
+            response.headers().firstValue(HttpHeaders.ETAG).ifPresent(value -> upstreamValidators.eTag = value);
+            byte[] body = response.body();
+            fetchStats.recordOk(body.length);
+            pollListener.onResponse(status, body.length, System.nanoTime() - startNanos);
+            boolean gzip = response.headers().firstValue(HttpHeaders.CONTENT_ENCODING)
+                    .map(value -> "gzip".equalsIgnoreCase(value.trim()))
+                    .orElse(false);
+            // not pooled, this runs on the threads of the JDK client's executor that don't poll repeatedly
+            DatafileReader datafile = gzip
+                    ? DatafileReader.unpooled().read(new GZIPInputStream(new ByteArrayInputStream(body)), -1)
+                    : DatafileReader.wrap(body);
+            ProjectConfig projectConfig = processDatafile(datafile, true);
+            // only after success, a relay hands this on to its peers as the age of its datafile
+            lastFetchedAtMillis = System.currentTimeMillis();
+            recordOutcome(projectConfig);
+            return projectConfig;
+        } catch (ConfigParseException | IOException e) {
+            LOGGER.error("Error fetching datafile", e);
+            recordFailure(e, startNanos);
+            return null;
+        }
+    }
+
+    /**
+     * Fetches the datafile right away, outside of the polling schedule. With adaptive polling the fetch goes
+     * through the {@link AdaptivePollingPolicy}: it is skipped while the circuit is open, and its outcome counts
+     * towards backoff and the circuit breaker like a scheduled poll.
+     */
+    public void refresh() {
+        AdaptivePollScheduler scheduler = adaptiveScheduler;
+        if (scheduler != null) {
+            scheduler.pollNow();
+        } else {
+            fetch();
+        }
+    }
+
+    /**
+     * Holds the poll lock until the SDK has the result, so a fetch for the update stream and one from the
+     * scheduler can't hand it over out of order.
+     */
+    private synchronized void fetch() {
+        setConfig(poll());
+    }
+
+    /**
+     * Hands a config to the SDK only while it is the published one. The SDK's own polling thread calls this
+     * after {@link #poll()} returned, outside of the poll lock; a late call with a config that was replaced in
+     * the meantime would otherwise roll back the SDK's current config.
+     * <p>
+     * A {@link LeanProjectConfig} is not handed to the SDK at all: it builds its {@link OptimizelyConfig} from
+     * every entity right away, which would parse the whole datafile into the lean config and keep it there.
+     * The update is announced here instead and {@link #getOptimizelyConfig()} builds that view on demand.
+     */
+    @Override
+    synchronized void setConfig(ProjectConfig projectConfig) {
+        if (projectConfig == null || projectConfig != publishedConfig) {
+            return;
+        }
+        if (LeanProjectConfig.isLean(projectConfig)) {
+            if (projectConfig != announcedConfig) {
+                announcedConfig = projectConfig;
+                LOGGER.info("New lean datafile set with revision: {}", projectConfig.getRevision());
+                notificationCenter.send(new UpdateConfigNotification());
+            }
+            return;
+        }
+        announcedConfig = projectConfig;
+        super.setConfig(projectConfig);
+    }
+
+    /**
+     * @return the published config, or null while there is none, without ever blocking
+     */
+    @Override
+    public ProjectConfig getCachedConfig() {
+        return publishedConfig;
+    }
+
+    /**
+     * Builds the {@link OptimizelyConfig} of a lean config on first use, which parses its datafile fully.
+     */
+    @Override
+    public OptimizelyConfig getOptimizelyConfig() {
+        ProjectConfig config = publishedConfig;
+        if (!LeanProjectConfig.isLean(config)) {
+            return super.getOptimizelyConfig();
+        }
+        LeanOptimizelyConfig lean = leanOptimizelyConfig;
+        if (lean == null || lean.projectConfig != config) {
+            lean = new LeanOptimizelyConfig(config, new OptimizelyConfigService(config).getConfig());
+            leanOptimizelyConfig = lean;
+        }
+        return lean.optimizelyConfig;
+    }
+
+    private void startUpdateStream(String streamUrl, Duration streamIdleTimeout) {
+        updateStream = new DatafileUpdateStream(
+                URI.create(streamUrl),
+                datafileAccessToken,
+                Duration.ofSeconds(10),
+                streamIdleTimeout,
+                () -> {
+                    ProjectConfig config = publishedConfig;
+                    return config == null ? null : config.getRevision();
+                },
+                revision -> refresh());
+        updateStream.start();
+    }
+
+    /**
+     * Polls on a scheduler shared with other managers instead of the scheduler of this manager, see
+     * {@link ProjectConfigManagerRegistry}. The first poll runs right away, later polls run every period
+     * starting at the given phase.
+     */
+    private void startOn(ScheduledExecutorService scheduler, long phaseMillis) {
+        if (adaptivePolling != null) {
+            startAdaptive(scheduler, phaseMillis);
+            return;
+        }
+        Runnable poller = () -> {
+            try {
+                fetch();
+            } catch (RuntimeException e) {
+                // an escaping exception would cancel all future polls of this manager
+                LOGGER.error("Error polling datafile from {}", uri, e);
+            }
+        };
+        scheduler.execute(poller);
+        sharedSchedule = scheduler.scheduleAtFixedRate(poller, phaseMillis, timeUnit.toMillis(period), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Polls on a dedicated thread, each poll scheduled after the previous one by the {@link AdaptivePollingPolicy}.
+     */
+    private void startAdaptive() {
+        adaptiveExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "optimizely-adaptive-poller");
+            thread.setDaemon(true);
+            return thread;
+        });
+        startAdaptive(adaptiveExecutor, 0);
+    }
+
+    private void startAdaptive(ScheduledExecutorService scheduler, long phaseMillis) {
+        AdaptivePollScheduler pollScheduler = new AdaptivePollScheduler(adaptivePolling, scheduler, timeUnit.toMillis(period), () -> {
+            long startNanos = System.nanoTime();
+            try {
+                fetch();
+            } catch (RuntimeException e) {
+                LOGGER.error("Error polling datafile from {}", uri, e);
+                recordFailure(e, startNanos);
+            }
+            return lastPollOutcome;
+        });
+        adaptiveScheduler = pollScheduler;
+        // like the fixed schedule, the phase only shifts later polls. The first poll runs right away, unless a
+        // cached or fallback config can be served meanwhile, then it is spread out like the later ones
+        long firstDelayMillis = publishedConfig == null ? 0 : pollScheduler.initialDelayMillis();
+        pollScheduler.start(firstDelayMillis, phaseMillis);
+    }
+
+    /**
+     * @return whether adaptive polling stopped fetching after repeated failures, false without adaptive polling
+     */
+    public boolean isCircuitOpen() {
+        AdaptivePollScheduler scheduler = adaptiveScheduler;
+        return scheduler != null && scheduler.getCircuitState() != AdaptivePollScheduler.CircuitState.CLOSED;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (updateStream != null) {
+            updateStream.close();
+        }
+        if (sharedSchedule != null) {
+            sharedSchedule.cancel(false);
+        }
+        if (adaptiveScheduler != null) {
+            adaptiveScheduler.stop();
+        }
+        if (adaptiveExecutor != null) {
+            adaptiveExecutor.shutdownNow();
+        }
+        super.close();
+    }
+
     @VisibleForTesting
     HttpGet createHttpRequest() {
-        HttpGet httpGet = new HttpGet(uri);
+        return createHttpRequest(uri, upstreamValidators);
+    }
 
+    private HttpGet createHttpRequest(URI source, Validators validators) {
+        HttpGet httpGet = new HttpGet(source);
+        addRequestHeaders(httpGet::setHeader, validators);
+        httpGet.setConfig(requestConfig);
+        return httpGet;
+    }
+
+    /**
+     * A request config replaces the client's default config as a whole, so start from the default to keep e.g.
+     * its connection request timeout, cookie spec and redirect handling.
+     */
+    private static RequestConfig requestConfig(OptimizelyHttpClient httpClient, Duration connectTimeout, Duration readTimeout) {
+        RequestConfig defaults = httpClient.getHttpClient() instanceof Configurable
+                ? ((Configurable) httpClient.getHttpClient()).getConfig()
+                : null;
+        RequestConfig.Builder requestConfig = RequestConfig.copy(defaults == null ? RequestConfig.DEFAULT : defaults)
+                // readDatafileFromResponse decompresses, so the byte counter sees the compressed body
+                .setContentCompressionEnabled(false);
+        if (connectTimeout != null) {
+            requestConfig.setConnectTimeout((int) connectTimeout.toMillis());
+        }
+        if (readTimeout != null) {
+            requestConfig.setSocketTimeout((int) readTimeout.toMillis());
+        }
+        return requestConfig.build();
+    }
+
+    private void addRequestHeaders(BiConsumer<String, String> header, Validators validators) {
         if (datafileAccessToken != null) {
-            httpGet.setHeader(HttpHeaders.AUTHORIZATION, "Bearer " + datafileAccessToken);
+            header.accept(HttpHeaders.AUTHORIZATION, "Bearer " + datafileAccessToken);
         }
 
-        if (datafileLastModified != null) {
-            httpGet.setHeader(HttpHeaders.IF_MODIFIED_SINCE, datafileLastModified);
+        if (validators.lastModified != null) {
+            header.accept(HttpHeaders.IF_MODIFIED_SINCE, validators.lastModified);
         }
 
-        return httpGet;
+        if (etagRevalidation && validators.eTag != null) {
+            header.accept(HttpHeaders.IF_NONE_MATCH, validators.eTag);
+        }
+
+        header.accept(HttpHeaders.ACCEPT_ENCODING, compression ? "gzip" : "identity");
+    }
+
+    private static final class LeanOptimizelyConfig {
+        private final ProjectConfig projectConfig;
+        private final OptimizelyConfig optimizelyConfig;
+
+        LeanOptimizelyConfig(ProjectConfig projectConfig, OptimizelyConfig optimizelyConfig) {
+            this.projectConfig = projectConfig;
+            this.optimizelyConfig = optimizelyConfig;
+        }
+    }
+
+    /**
+     * Last-Modified and ETag of the last datafile from one source, sent back to it on the next fetch.
+     */
+    private static final class Validators {
+        private String lastModified;
+        private String eTag;
+
+        void clear() {
+            lastModified = null;
+            eTag = null;
+        }
     }
 
     public static Builder builder() {
@@ -165,6 +966,26 @@ public class BugFixHttpProjectConfigManager extends PollingProjectConfigManager
         private String authFormat = "https://config.optimizely.com/datafiles/auth/%s.json;";
         private OptimizelyHttpClient httpClient;
         private NotificationCenter notificationCenter;
+        private boolean etagRevalidation = true;
+        private boolean compression = true;
+        private boolean incrementalRebuild = false;
+        private boolean leanConfig = false;
+        private Path cacheDirectory;
+        private Duration cacheMaxAge;
+        private String streamUrl;
+        private Duration streamIdleTimeout = Duration.ofSeconds(60);
+        private ScheduledExecutorService sharedScheduler;
+        private long pollPhaseMillis;
+        private FetchMode fetchMode = FetchMode.BLOCKING;
+        private Duration connectTimeout;
+        private Duration readTimeout;
+        private Duration pollDeadline;
+        private AdaptivePollingPolicy adaptivePolling;
+        private DatafilePollListener pollListener = DatafilePollListener.NOOP;
+        private ConfigWarmer configWarmer;
+        private Duration rollbackRetention = Duration.ofMinutes(5);
+        private String relayUrl;
+        private Duration relayMaxStaleness;
 
         String sdkKey = PropertyUtils.get(CONFIG_SDK_KEY);
         long period = PropertyUtils.getLong(CONFIG_POLLING_DURATION, DEFAULT_POLLING_DURATION);
@@ -283,6 +1104,291 @@ public class BugFixHttpProjectConfigManager extends PollingProjectConfigManager
             return this;
         }
 
+        /**
+         * Revalidate the datafile with {@code If-None-Match} using the {@code ETag} of the last response,
+         * next to {@code If-Modified-Since}. Enabled by default.
+         *
+         * @param etagRevalidation whether to send the stored ETag
+         * @return A HttpProjectConfigManager builder
+         */
+        public Builder withETagRevalidation(boolean etagRevalidation) {
+            this.etagRevalidation = etagRevalidation;
+            return this;
+        }
+
+        /**
+         * Request the datafile gzip compressed. When disabled the datafile is requested with
+         * {@code Accept-Encoding: identity}. Enabled by default.
+         *
+         * @param compression whether to accept a gzip compressed datafile
+         * @return A HttpProjectConfigManager builder
+         */
+        public Builder withCompression(boolean compression) {
+            this.compression = compression;
+            return this;
+        }
+
+        /**
+         * Rebuild the config incrementally when a new datafile only changes feature flags, rollouts or
+         * experiments, reusing every unchanged entity of the current config. This keeps the json tree of
+         * the previous datafile in memory. Disabled by default.
+         *
+         * @param incrementalRebuild whether to diff new datafiles against the current config
+         * @return A HttpProjectConfigManager builder
+         * @see IncrementalProjectConfigBuilder
+         */
+        public Builder withIncrementalRebuild(boolean incrementalRebuild) {
+            this.incrementalRebuild = incrementalRebuild;
+            return this;
+        }
+
+        /**
+         * Build each config as a {@link LeanProjectConfig}, which only indexes the datafile and parses an entity
+         * the first time it is used. Saves parse time and heap for large datafiles of which a process uses a
+         * few flags. Takes precedence over {@link #withIncrementalRebuild(boolean)}. Disabled by default.
+         *
+         * @param leanConfig whether to parse entities lazily
+         * @return A HttpProjectConfigManager builder
+         */
+        public Builder withLeanConfig(boolean leanConfig) {
+            this.leanConfig = leanConfig;
+            return this;
+        }
+
+        /**
+         * Cache every successfully fetched datafile in the given directory. On start the cached datafile
+         * takes precedence over {@link #withDatafile(String)} and is used before the first poll, so
+         * {@link #build()} doesn't have to wait for the network when a cached datafile is present.
+         *
+         * @param cacheDirectory directory for the cached datafile, created when missing
+         * @return A HttpProjectConfigManager builder
+         */
+        public Builder withCacheDirectory(Path cacheDirectory) {
+            this.cacheDirectory = cacheDirectory;
+            return this;
+        }
+
+        /**
+         * Like {@link #withCacheDirectory(Path)}, not using a cached datafile on start that upstream last
+         * confirmed, with a 200 or a 304, longer than {@code maxAge} ago.
+         *
+         * @param cacheDirectory directory for the cached datafile, created when missing
+         * @param maxAge maximum age of a cached datafile that is used on start, or null for no limit
+         * @return A HttpProjectConfigManager builder
+         */
+        public Builder withCacheDirectory(Path cacheDirectory, Duration maxAge) {
+            if (maxAge != null && (maxAge.isNegative() || maxAge.isZero())) {
+                LOGGER.warn("Cache max age must be > 0. Keeping {}", this.cacheMaxAge);
+            } else {
+                this.cacheMaxAge = maxAge;
+            }
+            return withCacheDirectory(cacheDirectory);
+        }
+
+        /**
+         * Listen to a Server-Sent Events stream that announces new datafile revisions, and fetch the datafile
+         * as soon as a new revision is announced. The polling interval stays in effect as a fallback for
+         * missed events and while the stream is disconnected.
+         *
+         * @param streamUrl url of the event stream
+         * @return A HttpProjectConfigManager builder
+         * @see DatafileUpdateStream
+         */
+        public Builder withStreamingUrl(String streamUrl) {
+            this.streamUrl = streamUrl;
+            return this;
+        }
+
+        /**
+         * Like {@link #withStreamingUrl(String)}, reconnecting when nothing, not even a heartbeat, arrives on
+         * the stream for {@code idleTimeout}. Defaults to 60 seconds.
+         *
+         * @param streamUrl url of the event stream
+         * @param idleTimeout maximum silence on a connected stream
+         * @return A HttpProjectConfigManager builder
+         */
+        public Builder withStreamingUrl(String streamUrl, Duration idleTimeout) {
+            if (idleTimeout == null || idleTimeout.isNegative() || idleTimeout.isZero()) {
+                LOGGER.warn("Stream idle timeout must be > 0. Keeping {}", this.streamIdleTimeout);
+            } else {
+                this.streamIdleTimeout = idleTimeout;
+            }
+            return withStreamingUrl(streamUrl);
+        }
+
+        /**
+         * Fetch the datafile from a relay, e.g. the {@code /datafiles/<sdkKey>.json} endpoint of a
+         * {@code DecisionSidecar} with a relay address, instead of from upstream, so a fleet downloads each new datafile from upstream
+         * once. A poll goes to upstream instead when the relay is unreachable, when its datafile doesn't match
+         * the content hash it announces, or when the relay itself didn't reach upstream within
+         * {@code maxStaleness}. Only used with {@link FetchMode#BLOCKING}.
+         *
+         * @param relayUrl url of the datafile on the relay
+         * @param maxStaleness maximum age of the relay's last successful upstream fetch
+         * @return A HttpProjectConfigManager builder
+         */
+        public Builder withRelay(String relayUrl, Duration maxStaleness) {
+            if (relayUrl == null || maxStaleness == null || maxStaleness.isNegative() || maxStaleness.isZero()) {
+                LOGGER.warn("Invalid relay {} with max staleness {}. Keeping {}", relayUrl, maxStaleness, this.relayUrl);
+                return this;
+            }
+            this.relayUrl = relayUrl;
+            this.relayMaxStaleness = maxStaleness;
+            return this;
+        }
+
+        /**
+         * Poll on the given scheduler instead of a dedicated polling thread, so many managers can share a
+         * small pool. The scheduler is not shut down when the manager is closed.
+         *
+         * @param sharedScheduler scheduler to run the polls on
+         * @return A HttpProjectConfigManager builder
+         * @see ProjectConfigManagerRegistry
+         */
+        public Builder withSharedScheduler(ScheduledExecutorService sharedScheduler) {
+            this.sharedScheduler = sharedScheduler;
+            return this;
+        }
+
+        /**
+         * Select how the datafile is fetched, {@link FetchMode#BLOCKING} by default. With
+         * {@link FetchMode#ASYNC} the configured timeouts default to 10 seconds each, and the poll deadline
+         * to their sum.
+         *
+         * @param fetchMode the fetch mode
+         * @return A HttpProjectConfigManager builder
+         */
+        public Builder withFetchMode(FetchMode fetchMode) {
+            if (fetchMode == null) {
+                LOGGER.warn("FetchMode cannot be null. Keeping {}", this.fetchMode);
+                return this;
+            }
+            this.fetchMode = fetchMode;
+            return this;
+        }
+
+        /**
+         * Per request timeouts for fetching the datafile, applied in both fetch modes.
+         *
+         * @param connectTimeout maximum time to establish a connection
+         * @param readTimeout maximum time to wait for the response, or between packets in blocking mode
+         * @return A HttpProjectConfigManager builder
+         */
+        public Builder withFetchTimeouts(Duration connectTimeout, Duration readTimeout) {
+            return withConnectTimeout(connectTimeout).withReadTimeout(readTimeout);
+        }
+
+        /**
+         * Connect timeout for fetching the datafile, applied in both fetch modes. Blocking fetches keep the http
+         * client's own timeout when it is not set, async fetches use 10 seconds.
+         *
+         * @param connectTimeout maximum time to establish a connection
+         * @return A HttpProjectConfigManager builder
+         */
+        public Builder withConnectTimeout(Duration connectTimeout) {
+            if (connectTimeout == null || connectTimeout.isNegative() || connectTimeout.isZero()) {
+                LOGGER.warn("Connect timeout must be > 0. Keeping {}", this.connectTimeout);
+                return this;
+            }
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        /**
+         * Read timeout for fetching the datafile, applied in both fetch modes. Blocking fetches keep the http
+         * client's own timeout when it is not set, async fetches use 10 seconds.
+         *
+         * @param readTimeout maximum time to wait for the response, or between packets in blocking mode
+         * @return A HttpProjectConfigManager builder
+         */
+        public Builder withReadTimeout(Duration readTimeout) {
+            if (readTimeout == null || readTimeout.isNegative() || readTimeout.isZero()) {
+                LOGGER.warn("Read timeout must be > 0. Keeping {}", this.readTimeout);
+                return this;
+            }
+            this.readTimeout = readTimeout;
+            return this;
+        }
+
+        /**
+         * Hard deadline for a complete fetch in {@link FetchMode#ASYNC}, after which the request is cancelled.
+         *
+         * @param pollDeadline the deadline
+         * @return A HttpProjectConfigManager builder
+         */
+        public Builder withPollDeadline(Duration pollDeadline) {
+            if (pollDeadline == null || pollDeadline.isNegative() || pollDeadline.isZero()) {
+                LOGGER.warn("Poll deadline must be > 0. Keeping {}", this.pollDeadline);
+                return this;
+            }
+            this.pollDeadline = pollDeadline;
+            return this;
+        }
+
+        /**
+         * Schedule every poll after the previous one completed, with jitter, exponential backoff on failures,
+         * a circuit breaker during outages and optionally a shorter interval right after a change. The polling
+         * interval is the regular delay between polls. In {@link FetchMode#ASYNC} a poll only starts the fetch,
+         * so each delay follows the outcome of the fetch before it.
+         *
+         * @param adaptivePolling the policy, or null for fixed rate polling
+         * @return A HttpProjectConfigManager builder
+         * @see AdaptivePollingPolicy
+         */
+        public Builder withAdaptivePolling(AdaptivePollingPolicy adaptivePolling) {
+            this.adaptivePolling = adaptivePolling;
+            return this;
+        }
+
+        /**
+         * Receive a callback for every response, failure, parse and publication, e.g. to record metrics.
+         *
+         * @param pollListener the listener
+         * @return A HttpProjectConfigManager builder
+         */
+        public Builder withPollListener(DatafilePollListener pollListener) {
+            if (pollListener == null) {
+                LOGGER.warn("Poll listener cannot be null. Keeping {}", this.pollListener);
+                return this;
+            }
+            this.pollListener = pollListener;
+            return this;
+        }
+
+        /**
+         * Warm every polled config before it is published, see {@link ConfigWarmer}. Configs that fail to warm
+         * are not published. Not set by default.
+         *
+         * @param configWarmer warms and validates new configs on the polling thread
+         * @return A HttpProjectConfigManager builder
+         */
+        public Builder withConfigWarmer(ConfigWarmer configWarmer) {
+            this.configWarmer = configWarmer;
+            return this;
+        }
+
+        /**
+         * How long the replaced config is kept after an update, for {@link BugFixHttpProjectConfigManager#rollback()}.
+         * Defaults to 5 minutes, zero keeps no previous config.
+         *
+         * @param rollbackRetention retention of the previous config
+         * @return A HttpProjectConfigManager builder
+         */
+        public Builder withRollbackRetention(Duration rollbackRetention) {
+            if (rollbackRetention == null || rollbackRetention.isNegative()) {
+                LOGGER.warn("Invalid rollback retention {}. Keeping {}", rollbackRetention, this.rollbackRetention);
+                return this;
+            }
+            this.rollbackRetention = rollbackRetention;
+            return this;
+        }
+
+        // offset of the periodic polls on a shared scheduler, spreads managers over the polling interval
+        Builder withPollPhase(long pollPhaseMillis) {
+            this.pollPhaseMillis = pollPhaseMillis;
+            return this;
+        }
+
         /**
          * HttpProjectConfigManager.Builder that builds and starts a HttpProjectConfigManager.
          * This is the default builder which will block until a config is available.
@@ -315,7 +1421,8 @@ public class BugFixHttpProjectConfigManager extends PollingProjectConfigManager
                 blockingTimeoutUnit = DEFAULT_BLOCKING_UNIT;
             }
 
-            if (httpClient == null) {
+            // async fetches use the JDK client, don't start an idle connection evictor for nothing
+            if (httpClient == null && fetchMode == FetchMode.BLOCKING) {
                 httpClient = OptimizelyHttpClient.builder()
                         .withEvictIdleConnections(evictConnectionIdleTimePeriod, evictConnectionIdleTimeUnit)
                         .build();
@@ -337,32 +1444,92 @@ public class BugFixHttpProjectConfigManager extends PollingProjectConfigManager
                 notificationCenter = new NotificationCenter();
             }
 
+            if (fetchMode == FetchMode.ASYNC) {
+                if (connectTimeout == null) {
+                    connectTimeout = Duration.ofSeconds(10);
+                }
+                if (readTimeout == null) {
+                    readTimeout = Duration.ofSeconds(10);
+                }
+                if (pollDeadline == null) {
+                    pollDeadline = connectTimeout.plus(readTimeout);
+                }
+            }
+
+            DatafileCache datafileCache = null;
+            if (cacheDirectory != null) {
+                // one file per sdk key, or per url when the url is set directly
+                String cacheKey = sdkKey != null ? sdkKey : Integer.toHexString(url.hashCode());
+                datafileCache = new DatafileCache(cacheDirectory, cacheKey, cacheMaxAge);
+            }
+
+            if (relayUrl != null && fetchMode == FetchMode.ASYNC) {
+                LOGGER.warn("Datafile relay is not supported with async fetches, fetching from upstream only.");
+                relayUrl = null;
+            }
+
+            if (leanConfig && incrementalRebuild) {
+                LOGGER.warn("Incremental rebuild is not supported together with lean configs, disabling it.");
+                incrementalRebuild = false;
+            }
+
             BugFixHttpProjectConfigManager httpProjectManager = new BugFixHttpProjectConfigManager(
                     period,
                     timeUnit,
                     httpClient,
                     url,
                     datafileAccessToken,
+                    etagRevalidation,
+                    compression,
+                    incrementalRebuild,
+                    leanConfig,
+                    datafileCache,
+                    fetchMode,
+                    connectTimeout,
+                    readTimeout,
+                    pollDeadline,
+                    adaptivePolling,
+                    pollListener,
+                    configWarmer,
+                    rollbackRetention,
+                    relayUrl,
+                    relayUrl == null ? Duration.ZERO : relayMaxStaleness,
                     blockingTimeoutPeriod,
                     blockingTimeoutUnit,
                     notificationCenter);
 
-            if (datafile != null) {
+            boolean restored = datafileCache != null && httpProjectManager.restoreFromCache();
+
+            if (datafile != null && !restored) {
                 try {
-                    ProjectConfig projectConfig = BugFixHttpProjectConfigManager.parseProjectConfig(datafile);
+                    byte[] content = datafile.getBytes(StandardCharsets.UTF_8);
+                    ProjectConfig projectConfig = leanConfig
+                            ? LeanProjectConfig.create(content)
+                            : BugFixHttpProjectConfigManager.parseProjectConfig(datafile);
+                    httpProjectManager.publish(projectConfig, content);
                     httpProjectManager.setConfig(projectConfig);
                 } catch (ConfigParseException e) {
                     LOGGER.warn("Error parsing fallback datafile.", e);
                 }
             }
 
-            httpProjectManager.start();
+            if (sharedScheduler == null && adaptivePolling != null) {
+                httpProjectManager.startAdaptive();
+            } else if (sharedScheduler == null) {
+                httpProjectManager.start();
+            } else {
+                httpProjectManager.startOn(sharedScheduler, pollPhaseMillis);
+            }
 
             // Optionally block until config is available.
             if (!defer) {
                 httpProjectManager.getConfig();
             }
 
+            if (streamUrl != null) {
+                httpProjectManager.startUpdateStream(streamUrl, streamIdleTimeout);
+            }
+
             return httpProjectManager;
         }
     }
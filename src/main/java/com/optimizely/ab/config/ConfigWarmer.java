@@ -0,0 +1,16 @@
+package com.optimizely.ab.config;
+
+/**
+ * Prepares a newly parsed config on the polling thread, before {@link BugFixHttpProjectConfigManager} publishes
+ * it to readers, so the first decisions against a new revision don't pay for class loading, JIT compilation or
+ * lazily built state. A warmer doubles as validation: a config it throws for is never published.
+ */
+@FunctionalInterface
+public interface ConfigWarmer {
+
+    /**
+     * @param candidate the config about to be published, not yet visible to readers
+     * @throws Exception when the config must not be published
+     */
+    void warm(ProjectConfig candidate) throws Exception;
+}
@@ -0,0 +1,237 @@
+package com.optimizely.ab.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Properties;
+
+/**
+ * Keeps the last successfully fetched datafile, with its {@code Last-Modified} and {@code ETag}, in a local
+ * directory so a restarted manager has a config before its first network round trip. Both files are written
+ * to a temporary file first and atomically moved into place, so readers never see a partial write.
+ * <p>
+ * The datafile is always replaced before its metadata. The metadata holds the checksum of the datafile it
+ * belongs to and is ignored when it doesn't match, so a crash in between can cost a full download but never
+ * a 304 for a datafile that is not on disk.
+ * <p>
+ * The metadata also records when upstream last confirmed the datafile, with a 200 or a 304. With a max age, a
+ * datafile that wasn't confirmed for longer is not used on startup. Confirmations only rewrite the metadata, when
+ * the validators changed or a quarter of the max age passed.
+ */
+final class DatafileCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DatafileCache.class);
+
+    private static final String LAST_MODIFIED = "lastModified";
+    private static final String ETAG = "etag";
+    private static final String CHECKSUM = "checksum";
+    private static final String CONFIRMED_AT = "confirmedAt";
+
+    private final Path directory;
+    private final Path datafilePath;
+    private final Path metadataPath;
+    private final Duration maxAge;
+
+    // what is on disk, -1 as long as nothing was loaded or stored
+    private long storedChecksum = -1;
+    private String storedLastModified;
+    private String storedETag;
+    private long confirmedAtMillis;
+    // whether the stored validators are upstream's validators of the datafile on disk
+    private boolean validated;
+
+    /**
+     * @param maxAge how long after its last confirmation a cached datafile is still used, or null for no limit
+     */
+    DatafileCache(Path directory, String key, Duration maxAge) {
+        this.directory = directory;
+        this.maxAge = maxAge;
+        String fileName = key.replaceAll("[^A-Za-z0-9._-]", "_");
+        this.datafilePath = directory.resolve(fileName + ".json");
+        this.metadataPath = directory.resolve(fileName + ".properties");
+    }
+
+    Path getDatafilePath() {
+        return datafilePath;
+    }
+
+    /**
+     * Reads the cached datafile into an array of its own, which the published config can keep.
+     *
+     * @return the cached datafile, or null when there is none, it is older than the max age or it cannot be read
+     */
+    synchronized Entry load() {
+        if (!Files.isRegularFile(datafilePath)) {
+            return null;
+        }
+        try {
+            DatafileReader datafile = DatafileReader.wrap(Files.readAllBytes(datafilePath));
+
+            Properties metadata = new Properties();
+            if (Files.isRegularFile(metadataPath)) {
+                try (Reader reader = Files.newBufferedReader(metadataPath, StandardCharsets.UTF_8)) {
+                    metadata.load(reader);
+                }
+            }
+            long checksum = datafile.checksum();
+            boolean current = Long.toString(checksum).equals(metadata.getProperty(CHECKSUM));
+            long confirmedAt = current
+                    ? parseMillis(metadata.getProperty(CONFIRMED_AT))
+                    : Files.getLastModifiedTime(datafilePath).toMillis();
+            long age = System.currentTimeMillis() - confirmedAt;
+            if (maxAge != null && age > maxAge.toMillis()) {
+                LOGGER.info("Not using cached datafile {}, last confirmed {} ms ago", datafilePath, age);
+                return null;
+            }
+            storedChecksum = checksum;
+            storedLastModified = current ? metadata.getProperty(LAST_MODIFIED) : null;
+            storedETag = current ? metadata.getProperty(ETAG) : null;
+            confirmedAtMillis = confirmedAt;
+            validated = current;
+            return new Entry(datafile, storedLastModified, storedETag);
+        } catch (IOException e) {
+            LOGGER.warn("Unable to read cached datafile {}", datafilePath, e);
+            return null;
+        }
+    }
+
+    /**
+     * Stores a datafile from upstream with upstream's validators.
+     */
+    synchronized void store(DatafileReader datafile, String lastModified, String etag) {
+        store(datafile, lastModified, etag, true);
+    }
+
+    /**
+     * Stores a datafile from somewhere else than upstream, e.g. a relay. Upstream's validators belong to another
+     * datafile, so none are stored and upstream's confirmations are ignored until upstream sends this datafile.
+     */
+    synchronized void storeUnvalidated(DatafileReader datafile) {
+        store(datafile, null, null, false);
+    }
+
+    private void store(DatafileReader datafile, String lastModified, String etag, boolean fromUpstream) {
+        try {
+            Files.createDirectories(directory);
+            writeAtomically(datafilePath, out -> out.write(datafile.array(), 0, datafile.length()));
+            storedChecksum = datafile.checksum();
+            validated = fromUpstream;
+            storeMetadata(lastModified, etag);
+        } catch (IOException e) {
+            LOGGER.warn("Unable to cache datafile in {}", directory, e);
+        }
+    }
+
+    /**
+     * Records that upstream sent a datafile again, without it being parsed. The datafile is only written when
+     * it differs from the cached one.
+     */
+    synchronized void refresh(DatafileReader datafile, String lastModified, String etag) {
+        if (datafile.checksum() != storedChecksum) {
+            store(datafile, lastModified, etag, true);
+        } else {
+            validated = true;
+            confirm(lastModified, etag);
+        }
+    }
+
+    /**
+     * Records that upstream confirmed the cached datafile, with a 304 or a 200 for the same content.
+     */
+    synchronized void confirm(String lastModified, String etag) {
+        if (storedChecksum == -1 || !validated) {
+            return;
+        }
+        boolean sameValidators = Objects.equals(lastModified, storedLastModified) && Objects.equals(etag, storedETag);
+        boolean recentlyConfirmed = maxAge == null
+                || System.currentTimeMillis() - confirmedAtMillis < maxAge.toMillis() / 4;
+        if (sameValidators && recentlyConfirmed) {
+            return;
+        }
+        try {
+            storeMetadata(lastModified, etag);
+        } catch (IOException e) {
+            LOGGER.warn("Unable to update cached datafile metadata in {}", directory, e);
+        }
+    }
+
+    private void storeMetadata(String lastModified, String etag) throws IOException {
+        long now = System.currentTimeMillis();
+        Properties metadata = new Properties();
+        metadata.setProperty(CHECKSUM, Long.toString(storedChecksum));
+        metadata.setProperty(CONFIRMED_AT, Long.toString(now));
+        if (lastModified != null) {
+            metadata.setProperty(LAST_MODIFIED, lastModified);
+        }
+        if (etag != null) {
+            metadata.setProperty(ETAG, etag);
+        }
+        writeAtomically(metadataPath, out -> metadata.store(out, null));
+        storedLastModified = lastModified;
+        storedETag = etag;
+        confirmedAtMillis = now;
+    }
+
+    // metadata written before confirmations were recorded counts as confirmed long ago
+    private static long parseMillis(String millis) {
+        try {
+            return millis == null ? 0 : Long.parseLong(millis);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private void writeAtomically(Path target, ContentWriter writer) throws IOException {
+        Path temp = Files.createTempFile(directory, target.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                writer.write(out);
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private interface ContentWriter {
+        void write(OutputStream out) throws IOException;
+    }
+
+    static final class Entry {
+        private final DatafileReader datafile;
+        private final String lastModified;
+        private final String etag;
+
+        private Entry(DatafileReader datafile, String lastModified, String etag) {
+            this.datafile = datafile;
+            this.lastModified = lastModified;
+            this.etag = etag;
+        }
+
+        DatafileReader getDatafile() {
+            return datafile;
+        }
+
+        String getLastModified() {
+            return lastModified;
+        }
+
+        String getETag() {
+            return etag;
+        }
+    }
+}
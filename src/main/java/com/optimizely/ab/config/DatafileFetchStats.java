@@ -0,0 +1,81 @@
+package com.optimizely.ab.config;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cumulative counters for the datafile fetches of a single {@link BugFixHttpProjectConfigManager}.
+ */
+public final class DatafileFetchStats {
+
+    private final LongAdder okResponses = new LongAdder();
+    private final LongAdder notModifiedResponses = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder parseSkipped = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder relayFallbacks = new LongAdder();
+
+    void recordOk(long bytes) {
+        okResponses.increment();
+        bytesReceived.add(bytes);
+    }
+
+    void recordNotModified() {
+        notModifiedResponses.increment();
+    }
+
+    void recordParseSkipped() {
+        parseSkipped.increment();
+    }
+
+    void recordFailure() {
+        failures.increment();
+    }
+
+    void recordRelayFallback() {
+        relayFallbacks.increment();
+    }
+
+    /**
+     * @return number of 2xx responses that carried a datafile
+     */
+    public long getOkResponses() {
+        return okResponses.sum();
+    }
+
+    /**
+     * @return number of 304 responses, each one a datafile download saved by revalidation
+     */
+    public long getNotModifiedResponses() {
+        return notModifiedResponses.sum();
+    }
+
+    /**
+     * @return number of 2xx responses whose datafile was not parsed, because its revision was already in use
+     */
+    public long getParseSkipped() {
+        return parseSkipped.sum();
+    }
+
+    /**
+     * @return number of polls that failed to fetch or parse the datafile
+     */
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    /**
+     * @return number of polls that went to upstream because the relay was unreachable, stale or inconsistent
+     */
+    public long getRelayFallbacks() {
+        return relayFallbacks.sum();
+    }
+
+    /**
+     * Bytes read from response entities before decompression, which equals the bytes on the wire.
+     *
+     * @return total response body bytes received
+     */
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+}
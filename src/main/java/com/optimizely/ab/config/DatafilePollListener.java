@@ -0,0 +1,86 @@
+package com.optimizely.ab.config;
+
+import java.util.List;
+
+/**
+ * Callbacks for every step of a datafile poll of {@link BugFixHttpProjectConfigManager}, e.g. to record metrics.
+ * Callbacks run on the polling thread, or on the http client's thread in {@link BugFixHttpProjectConfigManager.FetchMode#ASYNC},
+ * so they should return quickly and never throw.
+ */
+public interface DatafilePollListener {
+
+    DatafilePollListener NOOP = new DatafilePollListener() {
+    };
+
+    /**
+     * @param listeners listeners to call in order
+     * @return a listener that forwards every callback to all of the given listeners
+     */
+    static DatafilePollListener of(List<? extends DatafilePollListener> listeners) {
+        if (listeners.isEmpty()) {
+            return NOOP;
+        }
+        if (listeners.size() == 1) {
+            return listeners.get(0);
+        }
+        final List<DatafilePollListener> all = List.copyOf(listeners);
+        return new DatafilePollListener() {
+            @Override
+            public void onResponse(int status, long bytes, long latencyNanos) {
+                for (DatafilePollListener listener : all) {
+                    listener.onResponse(status, bytes, latencyNanos);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable error, long latencyNanos) {
+                for (DatafilePollListener listener : all) {
+                    listener.onFailure(error, latencyNanos);
+                }
+            }
+
+            @Override
+            public void onParse(long parseNanos) {
+                for (DatafilePollListener listener : all) {
+                    listener.onParse(parseNanos);
+                }
+            }
+
+            @Override
+            public void onPublish(ProjectConfig projectConfig) {
+                for (DatafilePollListener listener : all) {
+                    listener.onPublish(projectConfig);
+                }
+            }
+        };
+    }
+
+    /**
+     * @param status http status of the response
+     * @param bytes response body bytes received, 0 for responses without a datafile
+     * @param latencyNanos time from sending the request until the body was read
+     */
+    default void onResponse(int status, long bytes, long latencyNanos) {
+    }
+
+    /**
+     * Called for every poll that did not result in a usable datafile, including unexpected statuses.
+     *
+     * @param error what went wrong
+     * @param latencyNanos time from sending the request until the failure
+     */
+    default void onFailure(Throwable error, long latencyNanos) {
+    }
+
+    /**
+     * @param parseNanos time spent building the {@link ProjectConfig} from the datafile
+     */
+    default void onParse(long parseNanos) {
+    }
+
+    /**
+     * @param projectConfig the config that readers of the manager receive from now on
+     */
+    default void onPublish(ProjectConfig projectConfig) {
+    }
+}
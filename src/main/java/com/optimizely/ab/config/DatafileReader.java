@@ -0,0 +1,139 @@
+package com.optimizely.ab.config;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * Reads a datafile response body into a pooled, per-thread byte buffer. The buffer only grows, so
+ * after the first poll a datafile of the same size is read without allocating anything but the
+ * final decoded {@link String}.
+ * <p>
+ * {@link org.apache.http.util.EntityUtils#toString} decodes through a growing {@code char[]} and then
+ * copies that into the result, which costs several times the datafile size on every changed poll.
+ */
+final class DatafileReader {
+
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+    // don't keep unusually large bodies pinned to the polling thread forever
+    private static final int MAX_RETAINED_CAPACITY = 32 * 1024 * 1024;
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final ThreadLocal<DatafileReader> POOL = ThreadLocal.withInitial(DatafileReader::unpooled);
+
+    private byte[] buffer;
+    private int length;
+
+    private DatafileReader(byte[] buffer, int length) {
+        this.buffer = buffer;
+        this.length = length;
+    }
+
+    /**
+     * @return the reader pooled for the current thread, its previous contents are discarded on the next read
+     */
+    static DatafileReader pooled() {
+        return POOL.get();
+    }
+
+    /**
+     * @return a new reader, for threads that don't read datafiles repeatedly and shouldn't keep a buffer
+     */
+    static DatafileReader unpooled() {
+        return new DatafileReader(new byte[INITIAL_CAPACITY], 0);
+    }
+
+    /**
+     * @param content a datafile that is already in memory, used without copying
+     * @return a reader of the datafile
+     */
+    static DatafileReader wrap(byte[] content) {
+        return new DatafileReader(content, content.length);
+    }
+
+    /**
+     * Reads the stream to the end.
+     *
+     * @param inputStream the response body, closed by the caller
+     * @param contentLength the announced body length, or a negative value when unknown
+     * @return this reader
+     */
+    DatafileReader read(InputStream inputStream, long contentLength) throws IOException {
+        if (buffer.length > MAX_RETAINED_CAPACITY) {
+            buffer = new byte[INITIAL_CAPACITY];
+        }
+        if (contentLength >= buffer.length && contentLength < Integer.MAX_VALUE - 1) {
+            // one spare byte so reaching the announced length doesn't trigger a grow before EOF
+            buffer = new byte[(int) contentLength + 1];
+        }
+        length = 0;
+        int read;
+        while ((read = inputStream.read(buffer, length, buffer.length - length)) != -1) {
+            length += read;
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @return a copy of the datafile that outlives the next read
+     */
+    byte[] toByteArray() {
+        return Arrays.copyOf(buffer, length);
+    }
+
+    byte[] array() {
+        return buffer;
+    }
+
+    int length() {
+        return length;
+    }
+
+    /**
+     * @return a CRC32C over the raw datafile bytes, non-negative
+     */
+    long checksum() {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer, 0, length);
+        return crc.getValue();
+    }
+
+    /**
+     * Scans the top-level object for its {@code revision} field with a streaming parser, skipping
+     * all nested structures without building them.
+     *
+     * @return the revision of the datafile, or null when it has none
+     */
+    String revision() throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(buffer, 0, length)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("revision".equals(field)) {
+                    return value.isScalarValue() ? parser.getValueAsString() : null;
+                }
+                parser.skipChildren();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @return the datafile decoded as UTF-8, the only copy of the body that outlives the read
+     */
+    String asString() {
+        return new String(buffer, 0, length, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,242 @@
+package com.optimizely.ab.config;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Listens to a Server-Sent Events stream that announces new datafile revisions and calls back for every
+ * announced revision that is not the current one. An event's {@code data} is either a bare revision or a
+ * json object with a {@code revision} field; events without a recognizable revision always trigger the
+ * callback. The connection is re-established with exponential backoff, honouring the {@code retry} field.
+ * <p>
+ * One stream can serve many sdk keys, see {@link ProjectConfigManagerRegistry}: a json event then names its key in
+ * an {@code sdkKey} field, and events without one are announced for all keys, with a null sdk key.
+ * <p>
+ * A connection on which nothing arrives for the idle timeout, not even a comment line, is considered dead and
+ * re-established. Servers keep an idle stream alive with comment heartbeats well within that timeout.
+ */
+final class DatafileUpdateStream implements Runnable, Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DatafileUpdateStream.class);
+
+    private static final long DEFAULT_RETRY_MILLIS = 5_000;
+    private static final long MAX_RETRY_MILLIS = 60_000;
+    // one daemon thread checks the connections of all streams for idleness
+    private static final ScheduledExecutorService IDLE_WATCHDOG = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "optimizely-datafile-stream-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final URI uri;
+    private final String datafileAccessToken;
+    private final Duration idleTimeout;
+    private final Function<String, String> currentRevision;
+    private final BiConsumer<String, String> onNewRevision;
+    private final HttpClient httpClient;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Thread thread;
+
+    private volatile boolean closed;
+    private volatile Stream<String> currentStream;
+    private volatile long lastActivityNanos;
+    private long retryMillis = DEFAULT_RETRY_MILLIS;
+
+    DatafileUpdateStream(URI uri,
+                         String datafileAccessToken,
+                         Duration connectTimeout,
+                         Duration idleTimeout,
+                         Supplier<String> currentRevision,
+                         Consumer<String> onNewRevision) {
+        this(uri, datafileAccessToken, connectTimeout, idleTimeout,
+                sdkKey -> currentRevision.get(),
+                (sdkKey, revision) -> onNewRevision.accept(revision));
+    }
+
+    /**
+     * @param currentRevision the revision in use for an sdk key
+     * @param onNewRevision called with the sdk key and the revision of an announcement, either may be null
+     */
+    DatafileUpdateStream(URI uri,
+                         String datafileAccessToken,
+                         Duration connectTimeout,
+                         Duration idleTimeout,
+                         Function<String, String> currentRevision,
+                         BiConsumer<String, String> onNewRevision) {
+        this.uri = uri;
+        this.datafileAccessToken = datafileAccessToken;
+        this.idleTimeout = idleTimeout;
+        this.currentRevision = currentRevision;
+        this.onNewRevision = onNewRevision;
+        this.httpClient = HttpClient.newBuilder().connectTimeout(connectTimeout).build();
+        this.thread = new Thread(this, "optimizely-datafile-stream");
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        long backoffMillis = 0;
+        while (!closed) {
+            if (backoffMillis > 0 && !sleep(backoffMillis)) {
+                return;
+            }
+            try {
+                if (listen()) {
+                    backoffMillis = retryMillis;
+                    continue;
+                }
+            } catch (IOException e) {
+                LOGGER.debug("Datafile update stream {} failed", uri, e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                LOGGER.warn("Datafile update stream {} failed", uri, e);
+            }
+            backoffMillis = Math.min(MAX_RETRY_MILLIS, Math.max(retryMillis, backoffMillis * 2));
+        }
+    }
+
+    /**
+     * @return whether the stream was connected and ended normally
+     */
+    private boolean listen() throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri)
+                .header("Accept", "text/event-stream")
+                .header("Cache-Control", "no-cache")
+                .timeout(idleTimeout)
+                .GET();
+        if (datafileAccessToken != null) {
+            request.header("Authorization", "Bearer " + datafileAccessToken);
+        }
+        HttpResponse<Stream<String>> response = httpClient.send(request.build(), HttpResponse.BodyHandlers.ofLines());
+        ScheduledFuture<?> watchdog = null;
+        try (Stream<String> lines = response.body()) {
+            if (response.statusCode() != 200) {
+                LOGGER.warn("Unexpected status {} from datafile update stream {}", response.statusCode(), uri);
+                return false;
+            }
+            LOGGER.debug("Connected to datafile update stream {}", uri);
+            currentStream = lines;
+            lastActivityNanos = System.nanoTime();
+            long checkMillis = Math.max(1, idleTimeout.toMillis() / 4);
+            watchdog = IDLE_WATCHDOG.scheduleWithFixedDelay(() -> closeIfIdle(lines), checkMillis, checkMillis, TimeUnit.MILLISECONDS);
+            StringBuilder data = new StringBuilder();
+            Iterator<String> iterator = lines.iterator();
+            while (!closed && iterator.hasNext()) {
+                String line = iterator.next();
+                lastActivityNanos = System.nanoTime();
+                if (line.isEmpty()) {
+                    if (data.length() > 0) {
+                        dispatch(data.toString());
+                        data.setLength(0);
+                    }
+                } else if (line.startsWith("data:")) {
+                    if (data.length() > 0) {
+                        data.append('\n');
+                    }
+                    data.append(fieldValue(line, "data:"));
+                } else if (line.startsWith("retry:")) {
+                    try {
+                        retryMillis = Long.parseLong(fieldValue(line, "retry:"));
+                    } catch (NumberFormatException e) {
+                        LOGGER.debug("Ignoring invalid retry {}", line);
+                    }
+                }
+                // event names, ids and comments carry nothing we need
+            }
+            return true;
+        } finally {
+            if (watchdog != null) {
+                watchdog.cancel(false);
+            }
+            currentStream = null;
+        }
+    }
+
+    // closing the stream ends the blocked read, after which run() reconnects
+    private void closeIfIdle(Stream<String> lines) {
+        long idleNanos = System.nanoTime() - lastActivityNanos;
+        if (currentStream == lines && idleNanos > idleTimeout.toNanos()) {
+            LOGGER.warn("Nothing received from datafile update stream {} for {} ms, reconnecting",
+                    uri, TimeUnit.NANOSECONDS.toMillis(idleNanos));
+            lines.close();
+        }
+    }
+
+    private void dispatch(String data) {
+        String trimmed = data.trim();
+        String sdkKey = null;
+        String revision;
+        if (!trimmed.startsWith("{")) {
+            revision = trimmed.isEmpty() ? null : trimmed;
+        } else {
+            try {
+                JsonNode event = objectMapper.readTree(trimmed);
+                sdkKey = textOf(event.get("sdkKey"));
+                revision = textOf(event.get("revision"));
+            } catch (IOException e) {
+                revision = null;
+            }
+        }
+        if (revision != null && revision.equals(currentRevision.apply(sdkKey))) {
+            LOGGER.debug("Ignoring announced datafile revision {}, already in use", revision);
+            return;
+        }
+        LOGGER.debug("Datafile update stream announced revision {} for sdk key {}", revision, sdkKey);
+        onNewRevision.accept(sdkKey, revision);
+    }
+
+    private static String textOf(JsonNode value) {
+        return value == null || !value.isValueNode() ? null : value.asText();
+    }
+
+    private static String fieldValue(String line, String field) {
+        String value = line.substring(field.length());
+        return value.startsWith(" ") ? value.substring(1) : value;
+    }
+
+    private boolean sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+            return !closed;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        Stream<String> stream = currentStream;
+        if (stream != null) {
+            stream.close();
+        }
+        thread.interrupt();
+    }
+}
@@ -0,0 +1,264 @@
+package com.optimizely.ab.config;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.optimizely.ab.config.parser.ConfigParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Rebuilds a {@link DatafileProjectConfig} by diffing the new datafile against the previous one and
+ * only parsing the feature flags, rollouts and experiments that changed. Unchanged entities, including
+ * their variations and compiled audience conditions, are reused from the previous config. The lookup
+ * maps are still rebuilt by the {@link DatafileProjectConfig} constructor, which is cheap compared to
+ * parsing.
+ * <p>
+ * Changes to anything else (audiences, attributes, events, groups, integrations or the project
+ * settings) fall back to a full parse. Configs built incrementally have no raw datafile, so
+ * {@link ProjectConfig#toDatafile()} returns null for them.
+ * <p>
+ * Not thread safe, it is only used from the polling thread.
+ */
+final class IncrementalProjectConfigBuilder {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IncrementalProjectConfigBuilder.class);
+
+    private static final String FEATURE_FLAGS = "featureFlags";
+    private static final String ROLLOUTS = "rollouts";
+    private static final String EXPERIMENTS = "experiments";
+    private static final String REVISION = "revision";
+    private static final String GROUPS = "groups";
+
+    private static final Set<String> EXCLUDED_FROM_SETTINGS = Set.of(FEATURE_FLAGS, ROLLOUTS, EXPERIMENTS, REVISION);
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private ProjectConfig lastConfig;
+    private ObjectNode lastSettings;
+    private Map<String, JsonNode> lastFeatureFlags;
+    private Map<String, JsonNode> lastRollouts;
+    private Map<String, JsonNode> lastExperiments;
+
+    /**
+     * @param datafile the raw datafile
+     * @param current the config currently in use, incremental rebuilds only happen on top of a config built here
+     * @return the config for the new datafile
+     */
+    ProjectConfig build(DatafileReader datafile, ProjectConfig current) throws ConfigParseException {
+        ObjectNode root;
+        try {
+            JsonNode tree = objectMapper.readTree(datafile.array(), 0, datafile.length());
+            if (!(tree instanceof ObjectNode)) {
+                throw new ConfigParseException("Datafile is not a json object");
+            }
+            root = (ObjectNode) tree;
+        } catch (IOException e) {
+            throw new ConfigParseException("Unable to read datafile", e);
+        }
+
+        Map<String, JsonNode> featureFlags = indexById(root.get(FEATURE_FLAGS), "id");
+        Map<String, JsonNode> rollouts = indexById(root.get(ROLLOUTS), "id");
+        Map<String, JsonNode> experiments = indexById(root.get(EXPERIMENTS), "id");
+        ObjectNode settings = settingsOf(root);
+
+        ProjectConfig projectConfig = null;
+        if (current != null && current == lastConfig && settings.equals(lastSettings)
+                && featureFlags != null && rollouts != null && experiments != null) {
+            try {
+                projectConfig = rebuild(root, current, featureFlags, rollouts, experiments);
+            } catch (ConfigParseException | RuntimeException e) {
+                LOGGER.warn("Incremental config rebuild failed, falling back to a full parse", e);
+            }
+        }
+        if (projectConfig == null) {
+            projectConfig = BugFixHttpProjectConfigManager.parseProjectConfig(datafile.asString());
+        }
+
+        lastConfig = projectConfig;
+        lastSettings = settings;
+        lastFeatureFlags = featureFlags;
+        lastRollouts = rollouts;
+        lastExperiments = experiments;
+        return projectConfig;
+    }
+
+    private ProjectConfig rebuild(ObjectNode root,
+                                  ProjectConfig current,
+                                  Map<String, JsonNode> featureFlags,
+                                  Map<String, JsonNode> rollouts,
+                                  Map<String, JsonNode> experiments) throws ConfigParseException {
+        Set<String> changedFlags = changedIds(featureFlags, lastFeatureFlags);
+        Set<String> changedRollouts = changedIds(rollouts, lastRollouts);
+        Set<String> changedExperiments = changedIds(experiments, lastExperiments);
+
+        // every rule of a changed flag has to be in the partial datafile, the config constructor resolves them
+        for (String flagId : changedFlags) {
+            JsonNode flag = featureFlags.get(flagId);
+            JsonNode rolloutId = flag.get("rolloutId");
+            if (rolloutId != null && rollouts.containsKey(rolloutId.asText())) {
+                changedRollouts.add(rolloutId.asText());
+            }
+            for (JsonNode experimentId : flag.path("experimentIds")) {
+                if (experiments.containsKey(experimentId.asText())) {
+                    changedExperiments.add(experimentId.asText());
+                }
+            }
+        }
+
+        int changed = changedFlags.size() + changedRollouts.size() + changedExperiments.size();
+        int total = featureFlags.size() + rollouts.size() + experiments.size();
+        if (changed * 2 > total) {
+            return null;
+        }
+
+        ProjectConfig partial = null;
+        if (changed > 0) {
+            ObjectNode partialDatafile = partialDatafileOf(root);
+            partialDatafile.set(FEATURE_FLAGS, arrayOf(featureFlags, changedFlags));
+            partialDatafile.set(ROLLOUTS, arrayOf(rollouts, changedRollouts));
+            partialDatafile.set(EXPERIMENTS, arrayOf(experiments, changedExperiments));
+            partial = BugFixHttpProjectConfigManager.parseProjectConfig(partialDatafile.toString());
+        }
+
+        Map<String, FeatureFlag> parsedFlags = partial == null ? Map.of() : byId(partial.getFeatureFlags());
+        Map<String, Rollout> parsedRollouts = partial == null ? Map.of() : partial.getRolloutIdMapping();
+        Map<String, Experiment> parsedExperiments = partial == null ? Map.of() : partial.getExperimentIdMapping();
+
+        List<FeatureFlag> newFeatureFlags = merge(featureFlags.keySet(), changedFlags, parsedFlags,
+                byId(current.getFeatureFlags()));
+        List<Rollout> newRollouts = merge(rollouts.keySet(), changedRollouts, parsedRollouts,
+                current.getRolloutIdMapping());
+        List<Experiment> newExperiments = merge(experiments.keySet(), changedExperiments, parsedExperiments,
+                current.getExperimentIdMapping());
+        if (newFeatureFlags == null || newRollouts == null || newExperiments == null) {
+            return null;
+        }
+
+        LOGGER.debug("Rebuilt config incrementally, reparsed {} flags, {} rollouts and {} experiments",
+                changedFlags.size(), changedRollouts.size(), changedExperiments.size());
+
+        return new DatafileProjectConfig(
+                current.getAccountId(),
+                current.getAnonymizeIP(),
+                current.getSendFlagDecisions(),
+                current.getBotFiltering(),
+                current.getProjectId(),
+                root.path(REVISION).asText(),
+                current.getSdkKey(),
+                current.getEnvironmentKey(),
+                current.getVersion(),
+                current.getAttributes(),
+                current.getAudiences(),
+                current.getTypedAudiences(),
+                current.getEventTypes(),
+                newExperiments,
+                newFeatureFlags,
+                current.getGroups(),
+                newRollouts,
+                current.getIntegrations());
+    }
+
+    /**
+     * @return the entities in datafile order, taken from the partial config when changed and reused otherwise,
+     * or null when an entity cannot be found
+     */
+    private static <T> List<T> merge(Set<String> ids, Set<String> changed, Map<String, T> parsed, Map<String, T> previous) {
+        List<T> merged = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            T entity = changed.contains(id) ? parsed.get(id) : previous.get(id);
+            if (entity == null) {
+                return null;
+            }
+            merged.add(entity);
+        }
+        return merged;
+    }
+
+    private static Map<String, FeatureFlag> byId(List<FeatureFlag> featureFlags) {
+        Map<String, FeatureFlag> byId = new HashMap<>(featureFlags.size() * 2);
+        for (FeatureFlag featureFlag : featureFlags) {
+            byId.put(featureFlag.getId(), featureFlag);
+        }
+        return byId;
+    }
+
+    private static Set<String> changedIds(Map<String, JsonNode> entities, Map<String, JsonNode> previous) {
+        Set<String> changed = new LinkedHashSet<>();
+        for (Map.Entry<String, JsonNode> entry : entities.entrySet()) {
+            if (!entry.getValue().equals(previous.get(entry.getKey()))) {
+                changed.add(entry.getKey());
+            }
+        }
+        return changed;
+    }
+
+    private ArrayNode arrayOf(Map<String, JsonNode> entities, Set<String> ids) {
+        ArrayNode array = objectMapper.createArrayNode();
+        for (String id : ids) {
+            array.add(entities.get(id));
+        }
+        return array;
+    }
+
+    /**
+     * @return everything but the revision and the entities that can be rebuilt incrementally, sharing the nodes
+     * of the datafile, which is never modified
+     */
+    private ObjectNode settingsOf(ObjectNode root) {
+        ObjectNode settings = objectMapper.createObjectNode();
+        root.fields().forEachRemaining(field -> {
+            if (!EXCLUDED_FROM_SETTINGS.contains(field.getKey())) {
+                settings.set(field.getKey(), field.getValue());
+            }
+        });
+        return settings;
+    }
+
+    /**
+     * The partial datafile only has to parse the changed entities: it gets the scalar settings and empty arrays
+     * for audiences, attributes, events and the like, which are reused from the previous config anyway. Groups are
+     * kept, as changed flags may refer to experiments in a group.
+     *
+     * @return the partial datafile without the entities that can be rebuilt incrementally
+     */
+    private ObjectNode partialDatafileOf(ObjectNode root) {
+        ObjectNode partial = objectMapper.createObjectNode();
+        root.fields().forEachRemaining(field -> {
+            JsonNode value = field.getValue();
+            if (!value.isArray() || field.getKey().equals(GROUPS)) {
+                partial.set(field.getKey(), value);
+            } else {
+                partial.set(field.getKey(), objectMapper.createArrayNode());
+            }
+        });
+        return partial;
+    }
+
+    /**
+     * @return the array elements by id in datafile order, or null when the array is missing or has duplicate ids
+     */
+    private static Map<String, JsonNode> indexById(JsonNode array, String idField) {
+        if (array == null || !array.isArray()) {
+            return null;
+        }
+        Map<String, JsonNode> byId = new LinkedHashMap<>(array.size() * 2);
+        for (JsonNode element : array) {
+            JsonNode id = element.get(idField);
+            if (id == null || byId.put(id.asText(), element) != null) {
+                return null;
+            }
+        }
+        return byId;
+    }
+}
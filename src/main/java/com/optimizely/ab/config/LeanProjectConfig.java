@@ -0,0 +1,808 @@
+package com.optimizely.ab.config;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.optimizely.ab.config.audience.Audience;
+import com.optimizely.ab.config.parser.ConfigParseException;
+import com.optimizely.ab.error.ErrorHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * A {@link ProjectConfig} that keeps the raw datafile and only indexes where each entity is, instead of
+ * building every entity and lookup map up front like {@link DatafileProjectConfig}. An entity is parsed on
+ * first access, from a partial datafile holding just that entity and what it needs, and kept from then on.
+ * The index is a sorted, interned key array with byte offsets into the datafile per entity kind.
+ * <p>
+ * The lookups used by {@code decide()} and event building are served lazily: the scalar settings, the id and
+ * key mappings of flags, rollouts, experiments, groups, audiences, attributes and events, and the flag
+ * variations. Anything else, e.g. the entity lists, is answered by a full {@link DatafileProjectConfig} that
+ * is built on first use. The SDK's {@code OptimizelyConfigService} reads all entity lists, so
+ * {@link BugFixHttpProjectConfigManager} only builds the {@code OptimizelyConfig} of a lean config when it is asked for.
+ * <p>
+ * Only version 4 datafiles are indexed; others are parsed fully.
+ */
+public final class LeanProjectConfig implements ProjectConfig {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LeanProjectConfig.class);
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final String FEATURE_FLAGS = "featureFlags";
+    private static final String ROLLOUTS = "rollouts";
+    private static final String EXPERIMENTS = "experiments";
+    private static final String GROUPS = "groups";
+    private static final String AUDIENCES = "audiences";
+    private static final String TYPED_AUDIENCES = "typedAudiences";
+    private static final String ATTRIBUTES = "attributes";
+    private static final String EVENTS = "events";
+    private static final List<String> ENTITY_ARRAYS = List.of(
+            FEATURE_FLAGS, ROLLOUTS, EXPERIMENTS, GROUPS, AUDIENCES, TYPED_AUDIENCES, ATTRIBUTES, EVENTS);
+
+    // kind of an indexed experiment or audience, decides the array its partial datafile puts it in
+    private static final byte PLAIN = 0;
+    private static final byte IN_GROUP = 1;
+    private static final byte TYPED = 2;
+
+    private final byte[] datafile;
+    private final ObjectNode settings;
+    private final String revision;
+
+    private final EntityIndex flagsByKey;
+    private final EntityIndex rolloutsById;
+    private final EntityIndex experimentsById;
+    private final EntityIndex experimentsByKey;
+    private final EntityIndex groupsById;
+    private final EntityIndex audiencesById;
+    private final EntityIndex attributesByKey;
+    private final EntityIndex eventsByKey;
+
+    private final AtomicReferenceArray<ProjectConfig> flagSlices;
+    private final LazyEntityMap<FeatureFlag> featureKeyMapping;
+    private final LazyEntityMap<Rollout> rolloutIdMapping;
+    private final LazyEntityMap<Experiment> experimentIdMapping;
+    private final LazyEntityMap<Experiment> experimentKeyMapping;
+    private final LazyEntityMap<Group> groupIdMapping;
+    private final LazyEntityMap<Audience> audienceIdMapping;
+    private final LazyEntityMap<Attribute> attributeKeyMapping;
+    private final LazyEntityMap<EventType> eventNameMapping;
+    private final LazyEntityMap<List<Variation>> flagVariationsMap;
+
+    private volatile ProjectConfig fullConfig;
+    private volatile ProjectConfig odpConfig;
+
+    private LeanProjectConfig(byte[] datafile, ObjectNode settings, Map<String, EntityIndex.Builder> indexes) {
+        this.datafile = datafile;
+        this.settings = settings;
+        this.revision = settings.path("revision").asText();
+        this.flagsByKey = indexes.get(FEATURE_FLAGS).build();
+        this.rolloutsById = indexes.get(ROLLOUTS).build();
+        this.experimentsById = indexes.get(EXPERIMENTS).build();
+        this.experimentsByKey = indexes.get(EXPERIMENTS + ".key").build();
+        this.groupsById = indexes.get(GROUPS).build();
+        this.audiencesById = indexes.get(AUDIENCES).build();
+        this.attributesByKey = indexes.get(ATTRIBUTES).build();
+        this.eventsByKey = indexes.get(EVENTS).build();
+
+        this.flagSlices = new AtomicReferenceArray<>(flagsByKey.size());
+        this.featureKeyMapping = new LazyEntityMap<>(flagsByKey, this::loadFeatureFlag);
+        this.rolloutIdMapping = new LazyEntityMap<>(rolloutsById,
+                id -> load(ProjectConfig::getRolloutIdMapping, id, ROLLOUTS, rolloutsById));
+        this.experimentIdMapping = new LazyEntityMap<>(experimentsById,
+                id -> load(ProjectConfig::getExperimentIdMapping, id, experimentArray(experimentsById, id), experimentsById));
+        this.experimentKeyMapping = new LazyEntityMap<>(experimentsByKey,
+                key -> load(ProjectConfig::getExperimentKeyMapping, key, experimentArray(experimentsByKey, key), experimentsByKey));
+        this.groupIdMapping = new LazyEntityMap<>(groupsById,
+                id -> load(ProjectConfig::getGroupIdMapping, id, GROUPS, groupsById));
+        this.audienceIdMapping = new LazyEntityMap<>(audiencesById,
+                id -> load(ProjectConfig::getAudienceIdMapping, id,
+                        audiencesById.kind(audiencesById.indexOf(id)) == TYPED ? TYPED_AUDIENCES : AUDIENCES, audiencesById));
+        this.attributeKeyMapping = new LazyEntityMap<>(attributesByKey,
+                key -> load(ProjectConfig::getAttributeKeyMapping, key, ATTRIBUTES, attributesByKey));
+        this.eventNameMapping = new LazyEntityMap<>(eventsByKey,
+                key -> load(ProjectConfig::getEventNameMapping, key, EVENTS, eventsByKey));
+        this.flagVariationsMap = new LazyEntityMap<>(flagsByKey, key -> {
+            ProjectConfig slice = flagSlice(key);
+            return slice == null ? null : slice.getFlagVariationsMap().get(key);
+        });
+    }
+
+    /**
+     * @param datafile the raw datafile, owned by the config from now on
+     * @return a lean config, or a {@link DatafileProjectConfig} for datafiles that are not version 4
+     */
+    static ProjectConfig create(byte[] datafile) throws ConfigParseException {
+        ObjectNode settings = OBJECT_MAPPER.createObjectNode();
+        Map<String, EntityIndex.Builder> indexes = new HashMap<>();
+        for (String array : ENTITY_ARRAYS) {
+            indexes.put(array, new EntityIndex.Builder());
+        }
+        indexes.put(EXPERIMENTS + ".key", new EntityIndex.Builder());
+        Map<String, String> interned = new HashMap<>();
+
+        try (JsonParser parser = OBJECT_MAPPER.getFactory().createParser(datafile)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new ConfigParseException("Datafile is not a json object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (ENTITY_ARRAYS.contains(field) && value == JsonToken.START_ARRAY) {
+                    indexArray(parser, field, indexes, interned);
+                } else {
+                    settings.set(field, OBJECT_MAPPER.readTree(parser));
+                }
+            }
+        } catch (IOException e) {
+            throw new ConfigParseException("Unable to read datafile", e);
+        }
+
+        if (!"4".equals(settings.path("version").asText())) {
+            return BugFixHttpProjectConfigManager.parseProjectConfig(new String(datafile, StandardCharsets.UTF_8));
+        }
+        return new LeanProjectConfig(datafile, settings, indexes);
+    }
+
+    /**
+     * @return whether the config was created by {@link #create(byte[])} and indexes lazily
+     */
+    public static boolean isLean(ProjectConfig projectConfig) {
+        return projectConfig instanceof LeanProjectConfig;
+    }
+
+    /**
+     * Records the key and byte range of every element of an entity array, without building the elements.
+     */
+    private static void indexArray(JsonParser parser,
+                                   String array,
+                                   Map<String, EntityIndex.Builder> indexes,
+                                   Map<String, String> interned) throws IOException {
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            int start = (int) parser.getTokenLocation().getByteOffset();
+            String id = null;
+            String key = null;
+            List<String[]> groupExperiments = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (value.isScalarValue() && ("id".equals(field) || "key".equals(field))) {
+                    String text = intern(interned, parser.getText());
+                    if ("id".equals(field)) {
+                        id = text;
+                    } else {
+                        key = text;
+                    }
+                } else if (GROUPS.equals(array) && EXPERIMENTS.equals(field) && value == JsonToken.START_ARRAY) {
+                    groupExperiments = readIdsAndKeys(parser, interned);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            int end = (int) parser.getTokenLocation().getByteOffset() + 1;
+
+            switch (array) {
+                case FEATURE_FLAGS:
+                case ATTRIBUTES:
+                case EVENTS:
+                    indexes.get(array).add(key, start, end, PLAIN);
+                    break;
+                case EXPERIMENTS:
+                    indexes.get(EXPERIMENTS).add(id, start, end, PLAIN);
+                    indexes.get(EXPERIMENTS + ".key").add(key, start, end, PLAIN);
+                    break;
+                case GROUPS:
+                    indexes.get(GROUPS).add(id, start, end, PLAIN);
+                    // an experiment in a group is only parsed together with its group
+                    if (groupExperiments != null) {
+                        for (String[] experiment : groupExperiments) {
+                            indexes.get(EXPERIMENTS).add(experiment[0], start, end, IN_GROUP);
+                            indexes.get(EXPERIMENTS + ".key").add(experiment[1], start, end, IN_GROUP);
+                        }
+                    }
+                    break;
+                case TYPED_AUDIENCES:
+                    // typed audiences take precedence over plain audiences with the same id, like in
+                    // DatafileProjectConfig, whichever array comes first
+                    indexes.get(AUDIENCES).add(id, start, end, TYPED);
+                    break;
+                default:
+                    indexes.get(array).add(id, start, end, PLAIN);
+            }
+        }
+    }
+
+    private static List<String[]> readIdsAndKeys(JsonParser parser, Map<String, String> interned) throws IOException {
+        List<String[]> idsAndKeys = new ArrayList<>();
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            String[] idAndKey = new String[2];
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (value.isScalarValue() && "id".equals(field)) {
+                    idAndKey[0] = intern(interned, parser.getText());
+                } else if (value.isScalarValue() && "key".equals(field)) {
+                    idAndKey[1] = intern(interned, parser.getText());
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            idsAndKeys.add(idAndKey);
+        }
+        return idsAndKeys;
+    }
+
+    private static String intern(Map<String, String> interned, String text) {
+        String existing = interned.putIfAbsent(text, text);
+        return existing == null ? text : existing;
+    }
+
+    @Override
+    public Experiment getExperimentForKey(String experimentKey, ErrorHandler errorHandler) {
+        if (experimentKeyMapping.containsKey(experimentKey)) {
+            return experimentKeyMapping.get(experimentKey);
+        }
+        // unknown keys are reported to the error handler by the full config
+        return fullConfig("getExperimentForKey").getExperimentForKey(experimentKey, errorHandler);
+    }
+
+    @Override
+    public EventType getEventTypeForName(String eventName, ErrorHandler errorHandler) {
+        if (eventNameMapping.containsKey(eventName)) {
+            return eventNameMapping.get(eventName);
+        }
+        return fullConfig("getEventTypeForName").getEventTypeForName(eventName, errorHandler);
+    }
+
+    // not declared by every SDK version, so without @Override
+    public Experiment getExperimentForVariationId(String variationId) {
+        return fullConfig("getExperimentForVariationId").getExperimentForVariationId(variationId);
+    }
+
+    /**
+     * Same as {@link DatafileProjectConfig#getAttributeId}, on the lazy attribute mapping.
+     */
+    @Override
+    public String getAttributeId(ProjectConfig projectConfig, String attributeKey) {
+        Attribute attribute = attributeKeyMapping.get(attributeKey);
+        boolean hasReservedPrefix = attributeKey.startsWith(ProjectConfig.RESERVED_ATTRIBUTE_PREFIX);
+        if (attribute != null) {
+            if (hasReservedPrefix) {
+                LOGGER.warn("Attribute {} unexpectedly has reserved prefix {}; using attribute ID instead of reserved attribute name.",
+                        attributeKey, ProjectConfig.RESERVED_ATTRIBUTE_PREFIX);
+            }
+            return attribute.getId();
+        }
+        if (hasReservedPrefix) {
+            return attributeKey;
+        }
+        LOGGER.debug("Unrecognized Attribute \"{}\"", attributeKey);
+        return null;
+    }
+
+    @Override
+    public String getAccountId() {
+        return textSetting("accountId");
+    }
+
+    @Override
+    public String toDatafile() {
+        return new String(datafile, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String getProjectId() {
+        return textSetting("projectId");
+    }
+
+    @Override
+    public String getVersion() {
+        return textSetting("version");
+    }
+
+    @Override
+    public String getRevision() {
+        return revision;
+    }
+
+    @Override
+    public String getSdkKey() {
+        return textSetting("sdkKey");
+    }
+
+    @Override
+    public String getEnvironmentKey() {
+        return textSetting("environmentKey");
+    }
+
+    @Override
+    public boolean getSendFlagDecisions() {
+        return settings.path("sendFlagDecisions").asBoolean(false);
+    }
+
+    @Override
+    public boolean getAnonymizeIP() {
+        return settings.path("anonymizeIP").asBoolean(false);
+    }
+
+    @Override
+    public Boolean getBotFiltering() {
+        return settings.hasNonNull("botFiltering") ? settings.get("botFiltering").asBoolean() : null;
+    }
+
+    @Override
+    public List<Group> getGroups() {
+        return fullConfig("getGroups").getGroups();
+    }
+
+    @Override
+    public List<Experiment> getExperiments() {
+        return fullConfig("getExperiments").getExperiments();
+    }
+
+    @Override
+    public Set<String> getAllSegments() {
+        return odpConfig().getAllSegments();
+    }
+
+    @Override
+    public List<Experiment> getExperimentsForEventKey(String eventKey) {
+        return fullConfig("getExperimentsForEventKey").getExperimentsForEventKey(eventKey);
+    }
+
+    @Override
+    public List<FeatureFlag> getFeatureFlags() {
+        return fullConfig("getFeatureFlags").getFeatureFlags();
+    }
+
+    @Override
+    public List<Rollout> getRollouts() {
+        return fullConfig("getRollouts").getRollouts();
+    }
+
+    @Override
+    public List<Attribute> getAttributes() {
+        return fullConfig("getAttributes").getAttributes();
+    }
+
+    @Override
+    public List<EventType> getEventTypes() {
+        return fullConfig("getEventTypes").getEventTypes();
+    }
+
+    @Override
+    public List<Audience> getAudiences() {
+        return fullConfig("getAudiences").getAudiences();
+    }
+
+    @Override
+    public List<Audience> getTypedAudiences() {
+        return fullConfig("getTypedAudiences").getTypedAudiences();
+    }
+
+    @Override
+    public List<Integration> getIntegrations() {
+        return fullConfig("getIntegrations").getIntegrations();
+    }
+
+    @Override
+    public Audience getAudience(String audienceId) {
+        return audienceIdMapping.get(audienceId);
+    }
+
+    @Override
+    public Map<String, Experiment> getExperimentKeyMapping() {
+        return experimentKeyMapping;
+    }
+
+    @Override
+    public Map<String, Attribute> getAttributeKeyMapping() {
+        return attributeKeyMapping;
+    }
+
+    @Override
+    public Map<String, EventType> getEventNameMapping() {
+        return eventNameMapping;
+    }
+
+    @Override
+    public Map<String, Audience> getAudienceIdMapping() {
+        return audienceIdMapping;
+    }
+
+    @Override
+    public Map<String, Experiment> getExperimentIdMapping() {
+        return experimentIdMapping;
+    }
+
+    @Override
+    public Map<String, Group> getGroupIdMapping() {
+        return groupIdMapping;
+    }
+
+    @Override
+    public Map<String, Rollout> getRolloutIdMapping() {
+        return rolloutIdMapping;
+    }
+
+    @Override
+    public Map<String, FeatureFlag> getFeatureKeyMapping() {
+        return featureKeyMapping;
+    }
+
+    @Override
+    public Map<String, List<String>> getExperimentFeatureKeyMapping() {
+        return fullConfig("getExperimentFeatureKeyMapping").getExperimentFeatureKeyMapping();
+    }
+
+    @Override
+    public Map<String, List<Variation>> getFlagVariationsMap() {
+        return flagVariationsMap;
+    }
+
+    @Override
+    public Variation getFlagVariationByKey(String flagKey, String variationKey) {
+        ProjectConfig slice = flagSlice(flagKey);
+        return slice != null
+                ? slice.getFlagVariationByKey(flagKey, variationKey)
+                : fullConfig("getFlagVariationByKey").getFlagVariationByKey(flagKey, variationKey);
+    }
+
+    @Override
+    public String getHostForODP() {
+        return odpConfig().getHostForODP();
+    }
+
+    @Override
+    public String getPublicKeyForODP() {
+        return odpConfig().getPublicKeyForODP();
+    }
+
+    @Override
+    public String toString() {
+        return "LeanProjectConfig{revision=" + revision + ", flags=" + flagsByKey.size() + "}";
+    }
+
+    private String textSetting(String field) {
+        JsonNode value = settings.get(field);
+        return value == null || value.isNull() ? null : value.asText();
+    }
+
+    /**
+     * @return a partial config with the settings, integrations included, and all audiences, which is all the
+     * SDK reads on every config update when ODP is enabled
+     */
+    private ProjectConfig odpConfig() {
+        ProjectConfig config = odpConfig;
+        if (config == null) {
+            Set<Integer> plain = new LinkedHashSet<>();
+            Set<Integer> typed = new LinkedHashSet<>();
+            for (int audience = 0; audience < audiencesById.size(); audience++) {
+                (audiencesById.kind(audience) == TYPED ? typed : plain).add(audience);
+            }
+            try {
+                config = BugFixHttpProjectConfigManager.parseProjectConfig(partialDatafile(
+                        Map.of(AUDIENCES, plain, TYPED_AUDIENCES, typed),
+                        Map.of(AUDIENCES, audiencesById, TYPED_AUDIENCES, audiencesById)));
+            } catch (ConfigParseException e) {
+                LOGGER.warn("Unable to parse the audiences on their own, using the full config", e);
+                config = fullConfig(AUDIENCES);
+            }
+            odpConfig = config;
+        }
+        return config;
+    }
+
+    /**
+     * @param reason what needs the full config, for the log
+     */
+    private ProjectConfig fullConfig(String reason) {
+        ProjectConfig config = fullConfig;
+        if (config == null) {
+            synchronized (this) {
+                config = fullConfig;
+                if (config == null) {
+                    LOGGER.debug("Parsing full config of revision {} for {}", revision, reason);
+                    try {
+                        config = BugFixHttpProjectConfigManager.parseProjectConfig(new String(datafile, StandardCharsets.UTF_8));
+                    } catch (ConfigParseException e) {
+                        throw new IllegalStateException("Datafile of revision " + revision + " can no longer be parsed", e);
+                    }
+                    fullConfig = config;
+                }
+            }
+        }
+        return config;
+    }
+
+    /**
+     * @return the partial config holding the flag with its rollout and experiments, or null for unknown flags
+     */
+    private ProjectConfig flagSlice(String flagKey) {
+        int flag = flagsByKey.indexOf(flagKey);
+        if (flag < 0) {
+            return null;
+        }
+        ProjectConfig slice = flagSlices.get(flag);
+        if (slice != null) {
+            return slice;
+        }
+        try {
+            JsonNode featureFlag = OBJECT_MAPPER.readTree(datafile, flagsByKey.start(flag), flagsByKey.length(flag));
+            Map<String, Set<Integer>> elements = new HashMap<>();
+            elements.computeIfAbsent(FEATURE_FLAGS, array -> new LinkedHashSet<>()).add(flag);
+            int rollout = rolloutsById.indexOf(featureFlag.path("rolloutId").asText());
+            if (rollout >= 0) {
+                elements.computeIfAbsent(ROLLOUTS, array -> new LinkedHashSet<>()).add(rollout);
+            }
+            for (JsonNode experimentId : featureFlag.path("experimentIds")) {
+                int experiment = experimentsById.indexOf(experimentId.asText());
+                if (experiment >= 0) {
+                    elements.computeIfAbsent(experimentArray(experimentsById, experimentId.asText()), array -> new LinkedHashSet<>())
+                            .add(experiment);
+                }
+            }
+            slice = BugFixHttpProjectConfigManager.parseProjectConfig(partialDatafile(elements, Map.of(
+                    FEATURE_FLAGS, flagsByKey, ROLLOUTS, rolloutsById, EXPERIMENTS, experimentsById, GROUPS, experimentsById)));
+        } catch (IOException | ConfigParseException e) {
+            LOGGER.warn("Unable to parse flag {} on its own, using the full config", flagKey, e);
+            slice = fullConfig(FEATURE_FLAGS);
+        }
+        flagSlices.compareAndSet(flag, null, slice);
+        return flagSlices.get(flag);
+    }
+
+    private FeatureFlag loadFeatureFlag(String flagKey) {
+        ProjectConfig slice = flagSlice(flagKey);
+        return slice == null ? null : slice.getFeatureKeyMapping().get(flagKey);
+    }
+
+    private String experimentArray(EntityIndex index, String idOrKey) {
+        int experiment = index.indexOf(idOrKey);
+        return experiment >= 0 && index.kind(experiment) == IN_GROUP ? GROUPS : EXPERIMENTS;
+    }
+
+    /**
+     * Parses the single element with the given key into a partial config and takes the entity from its mapping.
+     */
+    private <T> T load(Function<ProjectConfig, Map<String, T>> mapping, String key, String array, EntityIndex index) {
+        int element = index.indexOf(key);
+        if (element < 0) {
+            return null;
+        }
+        try {
+            ProjectConfig partial = BugFixHttpProjectConfigManager.parseProjectConfig(
+                    partialDatafile(Map.of(array, Set.of(element)), Map.of(array, index)));
+            return mapping.apply(partial).get(key);
+        } catch (ConfigParseException e) {
+            LOGGER.warn("Unable to parse {} {} on its own, using the full config", array, key, e);
+            return mapping.apply(fullConfig(array)).get(key);
+        }
+    }
+
+    /**
+     * @param elements indexes of the elements to put in each entity array, all other arrays are empty
+     * @param indexes the index each array's element indexes refer to
+     * @return a datafile with the settings of this datafile and only the given elements
+     */
+    private String partialDatafile(Map<String, Set<Integer>> elements, Map<String, EntityIndex> indexes) {
+        StringBuilder json = new StringBuilder(settings.toString());
+        json.setLength(json.length() - 1);
+        for (String array : ENTITY_ARRAYS) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append('"').append(array).append("\":[");
+            Set<Integer> arrayElements = elements.getOrDefault(array, Collections.emptySet());
+            // elements of a group share its range, add every range once
+            Set<Integer> starts = new LinkedHashSet<>();
+            EntityIndex index = indexes.get(array);
+            for (int element : arrayElements) {
+                if (!starts.add(index.start(element))) {
+                    continue;
+                }
+                if (starts.size() > 1) {
+                    json.append(',');
+                }
+                json.append(new String(datafile, index.start(element), index.length(element), StandardCharsets.UTF_8));
+            }
+            json.append(']');
+        }
+        return json.append('}').toString();
+    }
+
+    /**
+     * Sorted keys with the byte range of their element in the datafile.
+     */
+    static final class EntityIndex {
+        private final String[] keys;
+        private final int[] starts;
+        private final int[] ends;
+        private final byte[] kinds;
+
+        private EntityIndex(String[] keys, int[] starts, int[] ends, byte[] kinds) {
+            this.keys = keys;
+            this.starts = starts;
+            this.ends = ends;
+            this.kinds = kinds;
+        }
+
+        int size() {
+            return keys.length;
+        }
+
+        int indexOf(Object key) {
+            return key instanceof String ? Arrays.binarySearch(keys, key) : -1;
+        }
+
+        String key(int index) {
+            return keys[index];
+        }
+
+        int start(int index) {
+            return starts[index];
+        }
+
+        int length(int index) {
+            return ends[index] - starts[index];
+        }
+
+        byte kind(int index) {
+            return kinds[index];
+        }
+
+        static final class Builder {
+            // a later element with the same key replaces the earlier one, except that a typed one always stays
+            private final Map<String, int[]> elements = new HashMap<>();
+
+            void add(String key, int start, int end, byte kind) {
+                if (key == null) {
+                    return;
+                }
+                int[] existing = elements.get(key);
+                if (existing == null || kind == TYPED || existing[2] != TYPED) {
+                    elements.put(key, new int[]{start, end, kind});
+                }
+            }
+
+            EntityIndex build() {
+                String[] keys = elements.keySet().toArray(new String[0]);
+                Arrays.sort(keys);
+                int[] starts = new int[keys.length];
+                int[] ends = new int[keys.length];
+                byte[] kinds = new byte[keys.length];
+                for (int i = 0; i < keys.length; i++) {
+                    int[] element = elements.get(keys[i]);
+                    starts[i] = element[0];
+                    ends[i] = element[1];
+                    kinds[i] = (byte) element[2];
+                }
+                return new EntityIndex(keys, starts, ends, kinds);
+            }
+        }
+    }
+
+    /**
+     * Read-only map over an {@link EntityIndex} that loads each value on first access. Lookups are a binary
+     * search and an array read; only iterating over the entries loads every value.
+     */
+    static final class LazyEntityMap<V> extends AbstractMap<String, V> {
+        private final EntityIndex index;
+        private final Function<String, V> loader;
+        private final AtomicReferenceArray<V> values;
+
+        LazyEntityMap(EntityIndex index, Function<String, V> loader) {
+            this.index = index;
+            this.loader = loader;
+            this.values = new AtomicReferenceArray<>(index.size());
+        }
+
+        @Override
+        public V get(Object key) {
+            int element = index.indexOf(key);
+            return element < 0 ? null : valueAt(element);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return index.indexOf(key) >= 0;
+        }
+
+        @Override
+        public int size() {
+            return index.size();
+        }
+
+        private V valueAt(int element) {
+            V value = values.get(element);
+            if (value == null) {
+                value = loader.apply(index.key(element));
+                // concurrent loads build equal values, keep whichever was stored first
+                if (!values.compareAndSet(element, null, value)) {
+                    value = values.get(element);
+                }
+            }
+            return value;
+        }
+
+        @Override
+        public Set<String> keySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<String> iterator() {
+                    return new ElementIterator<>(index.size(), index::key);
+                }
+
+                @Override
+                public boolean contains(Object key) {
+                    return containsKey(key);
+                }
+
+                @Override
+                public int size() {
+                    return index.size();
+                }
+            };
+        }
+
+        @Override
+        public Set<Entry<String, V>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<String, V>> iterator() {
+                    return new ElementIterator<>(index.size(),
+                            element -> new SimpleImmutableEntry<>(index.key(element), valueAt(element)));
+                }
+
+                @Override
+                public int size() {
+                    return index.size();
+                }
+            };
+        }
+    }
+
+    private static final class ElementIterator<T> implements Iterator<T> {
+        private final int size;
+        private final IntFunction<T> element;
+        private int next;
+
+        ElementIterator(int size, IntFunction<T> element) {
+            this.size = size;
+            this.element = element;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < size;
+        }
+
+        @Override
+        public T next() {
+            if (next >= size) {
+                throw new NoSuchElementException();
+            }
+            return element.apply(next++);
+        }
+    }
+}
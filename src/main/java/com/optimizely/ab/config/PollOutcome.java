@@ -0,0 +1,19 @@
+package com.optimizely.ab.config;
+
+/**
+ * Result of a single datafile poll, used to decide when to poll next.
+ */
+enum PollOutcome {
+    /**
+     * A new datafile revision was published.
+     */
+    UPDATED,
+    /**
+     * The datafile was fetched, but it has not changed.
+     */
+    NOT_MODIFIED,
+    /**
+     * The datafile could not be fetched or parsed.
+     */
+    FAILED
+}
@@ -0,0 +1,290 @@
+package com.optimizely.ab.config;
+
+import com.optimizely.ab.OptimizelyHttpClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Hosts a {@link BugFixHttpProjectConfigManager} per sdk key on one shared {@link OptimizelyHttpClient} and one
+ * small scheduled pool, so threads and sockets stay flat as the number of sdk keys grows.
+ * <p>
+ * The periodic polls of the managers are spread over the polling interval: the n-th registered key starts at
+ * the n-th point of a golden ratio sequence, plus a random jitter, which keeps keys apart no matter how many
+ * there are and keeps pods from polling in lockstep.
+ * <p>
+ * Managers are created outside of the map's locks, creating one doesn't hold up lookups of other keys. With a
+ * streaming url all keys share one {@link DatafileUpdateStream}, instead of a connection and thread per key.
+ */
+public final class ProjectConfigManagerRegistry implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProjectConfigManagerRegistry.class);
+
+    private static final double GOLDEN_RATIO_FRACTION = 0.6180339887498949;
+
+    private final OptimizelyHttpClient httpClient;
+    private final ScheduledExecutorService scheduler;
+    private final long periodMillis;
+    private final double jitter;
+    private final Consumer<BugFixHttpProjectConfigManager.Builder> managerCustomizer;
+    // completed by the thread that registered the key, other threads asking for it wait for that one
+    private final ConcurrentHashMap<String, CompletableFuture<BugFixHttpProjectConfigManager>> managers = new ConcurrentHashMap<>();
+    private final AtomicInteger registrations = new AtomicInteger();
+    private DatafileUpdateStream updateStream;
+
+    private ProjectConfigManagerRegistry(OptimizelyHttpClient httpClient,
+                                         ScheduledExecutorService scheduler,
+                                         long periodMillis,
+                                         double jitter,
+                                         Consumer<BugFixHttpProjectConfigManager.Builder> managerCustomizer) {
+        this.httpClient = httpClient;
+        this.scheduler = scheduler;
+        this.periodMillis = periodMillis;
+        this.jitter = jitter;
+        this.managerCustomizer = managerCustomizer;
+    }
+
+    /**
+     * @param sdkKey the sdk key
+     * @return the manager for the sdk key, created and started on first use without blocking for its config
+     */
+    public BugFixHttpProjectConfigManager get(String sdkKey) {
+        CompletableFuture<BugFixHttpProjectConfigManager> manager = managers.get(sdkKey);
+        if (manager == null) {
+            CompletableFuture<BugFixHttpProjectConfigManager> registration = new CompletableFuture<>();
+            manager = managers.putIfAbsent(sdkKey, registration);
+            if (manager == null) {
+                // building starts the first poll, which must not run under the map's lock
+                try {
+                    registration.complete(create(sdkKey));
+                } catch (RuntimeException e) {
+                    managers.remove(sdkKey, registration);
+                    registration.completeExceptionally(e);
+                    throw e;
+                }
+                return registration.join();
+            }
+        }
+        return manager.join();
+    }
+
+    /**
+     * @return the managers that finished creating
+     */
+    public Collection<BugFixHttpProjectConfigManager> getManagers() {
+        List<BugFixHttpProjectConfigManager> created = new ArrayList<>(managers.size());
+        for (CompletableFuture<BugFixHttpProjectConfigManager> manager : managers.values()) {
+            BugFixHttpProjectConfigManager createdManager = manager.getNow(null);
+            if (createdManager != null) {
+                created.add(createdManager);
+            }
+        }
+        return Collections.unmodifiableList(created);
+    }
+
+    /**
+     * @return the manager of the key, or null when it isn't created (yet)
+     */
+    private BugFixHttpProjectConfigManager created(String sdkKey) {
+        CompletableFuture<BugFixHttpProjectConfigManager> manager = managers.get(sdkKey);
+        return manager == null ? null : manager.getNow(null);
+    }
+
+    private BugFixHttpProjectConfigManager create(String sdkKey) {
+        BugFixHttpProjectConfigManager.Builder builder = BugFixHttpProjectConfigManager.builder()
+                .withSdkKey(sdkKey)
+                .withPollingInterval(periodMillis, TimeUnit.MILLISECONDS);
+        managerCustomizer.accept(builder);
+        // the shared client, scheduler and stream are the point of the registry, they win over the customizer
+        return builder
+                .withStreamingUrl(null)
+                .withOptimizelyHttpClient(httpClient)
+                .withSharedScheduler(scheduler)
+                .withPollPhase(nextPhaseMillis())
+                .build(true);
+    }
+
+    private long nextPhaseMillis() {
+        double position = (registrations.getAndIncrement() * GOLDEN_RATIO_FRACTION) % 1.0;
+        double jitterFraction = jitter == 0 ? 0 : ThreadLocalRandom.current().nextDouble(-jitter / 2, jitter / 2);
+        double phase = (position + jitterFraction + 1.0) % 1.0;
+        return (long) (phase * periodMillis);
+    }
+
+    private void startUpdateStream(String streamUrl, Duration idleTimeout) {
+        updateStream = new DatafileUpdateStream(
+                URI.create(streamUrl),
+                null,
+                Duration.ofSeconds(10),
+                idleTimeout,
+                sdkKey -> {
+                    BugFixHttpProjectConfigManager manager = sdkKey == null ? null : created(sdkKey);
+                    ProjectConfig config = manager == null ? null : manager.getPublishedConfig();
+                    return config == null ? null : config.getRevision();
+                },
+                (sdkKey, revision) -> {
+                    if (sdkKey == null) {
+                        getManagers().forEach(BugFixHttpProjectConfigManager::refresh);
+                        return;
+                    }
+                    BugFixHttpProjectConfigManager manager = created(sdkKey);
+                    if (manager != null) {
+                        manager.refresh();
+                    }
+                });
+        updateStream.start();
+    }
+
+    @Override
+    public void close() {
+        if (updateStream != null) {
+            updateStream.close();
+        }
+        getManagers().forEach(BugFixHttpProjectConfigManager::close);
+        managers.clear();
+        scheduler.shutdownNow();
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            LOGGER.warn("Error closing shared http client", e);
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private long period = BugFixHttpProjectConfigManager.DEFAULT_POLLING_DURATION;
+        private TimeUnit timeUnit = BugFixHttpProjectConfigManager.DEFAULT_POLLING_UNIT;
+        private int pollerThreads = 2;
+        private int maxConnections = 20;
+        private double jitter = 0.1;
+        private OptimizelyHttpClient httpClient;
+        private Consumer<BugFixHttpProjectConfigManager.Builder> managerCustomizer = builder -> { };
+        private String streamUrl;
+        private Duration streamIdleTimeout = Duration.ofSeconds(60);
+
+        public Builder withPollingInterval(Long period, TimeUnit timeUnit) {
+            if (period == null || timeUnit == null || period <= 0) {
+                LOGGER.warn("Invalid polling interval {}, {}. Keeping {}, {}", period, timeUnit, this.period, this.timeUnit);
+                return this;
+            }
+            this.period = period;
+            this.timeUnit = timeUnit;
+            return this;
+        }
+
+        /**
+         * @param pollerThreads size of the scheduled pool shared by all managers
+         * @return A ProjectConfigManagerRegistry builder
+         */
+        public Builder withPollerThreads(int pollerThreads) {
+            if (pollerThreads <= 0) {
+                LOGGER.warn("Poller threads cannot be <= 0. Keeping {}", this.pollerThreads);
+                return this;
+            }
+            this.pollerThreads = pollerThreads;
+            return this;
+        }
+
+        /**
+         * @param maxConnections connection pool size of the shared http client, ignored with {@link #withOptimizelyHttpClient}
+         * @return A ProjectConfigManagerRegistry builder
+         */
+        public Builder withMaxConnections(int maxConnections) {
+            if (maxConnections <= 0) {
+                LOGGER.warn("Max connections cannot be <= 0. Keeping {}", this.maxConnections);
+                return this;
+            }
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        /**
+         * @param jitter random shift of each key's polls, as a fraction of the polling interval between 0 and 1
+         * @return A ProjectConfigManagerRegistry builder
+         */
+        public Builder withJitter(double jitter) {
+            if (jitter < 0 || jitter > 1) {
+                LOGGER.warn("Jitter must be between 0 and 1. Keeping {}", this.jitter);
+                return this;
+            }
+            this.jitter = jitter;
+            return this;
+        }
+
+        public Builder withOptimizelyHttpClient(OptimizelyHttpClient httpClient) {
+            this.httpClient = httpClient;
+            return this;
+        }
+
+        /**
+         * @param managerCustomizer applied to the builder of every manager, e.g. to set the url format or a cache
+         * directory. A streaming url set here is ignored, see {@link #withStreamingUrl}.
+         * @return A ProjectConfigManagerRegistry builder
+         */
+        public Builder withManagerCustomizer(Consumer<BugFixHttpProjectConfigManager.Builder> managerCustomizer) {
+            this.managerCustomizer = managerCustomizer;
+            return this;
+        }
+
+        /**
+         * Listen to one Server-Sent Events stream for all sdk keys, whose events name the sdk key next to the
+         * revision, e.g. {@code {"sdkKey":"...","revision":"42"}}. Events without an sdk key refresh every key.
+         *
+         * @param streamUrl url of the event stream
+         * @param idleTimeout maximum silence on a connected stream
+         * @return A ProjectConfigManagerRegistry builder
+         * @see BugFixHttpProjectConfigManager.Builder#withStreamingUrl(String, Duration)
+         */
+        public Builder withStreamingUrl(String streamUrl, Duration idleTimeout) {
+            if (idleTimeout == null || idleTimeout.isNegative() || idleTimeout.isZero()) {
+                LOGGER.warn("Stream idle timeout must be > 0. Keeping {}", this.streamIdleTimeout);
+            } else {
+                this.streamIdleTimeout = idleTimeout;
+            }
+            this.streamUrl = streamUrl;
+            return this;
+        }
+
+        public ProjectConfigManagerRegistry build() {
+            if (httpClient == null) {
+                httpClient = OptimizelyHttpClient.builder()
+                        .withMaxTotalConnections(maxConnections)
+                        .withMaxPerRoute(maxConnections)
+                        .withEvictIdleConnections(BugFixHttpProjectConfigManager.DEFAULT_EVICT_DURATION,
+                                BugFixHttpProjectConfigManager.DEFAULT_EVICT_UNIT)
+                        .build();
+            }
+            AtomicInteger threadCount = new AtomicInteger();
+            ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(pollerThreads, runnable -> {
+                Thread thread = new Thread(runnable, "optimizely-config-poller-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            ProjectConfigManagerRegistry registry = new ProjectConfigManagerRegistry(httpClient, scheduler,
+                    timeUnit.toMillis(period), jitter, managerCustomizer);
+            if (streamUrl != null) {
+                registry.startUpdateStream(streamUrl, streamIdleTimeout);
+            }
+            return registry;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.optimizely.ab.config;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A published config together with the raw datafile it was built from, to hand the exact datafile on to other
+ * processes. {@link ProjectConfig#toDatafile()} can't be used for that, it returns null for configs built by
+ * {@link IncrementalProjectConfigBuilder}.
+ */
+public final class PublishedDatafile {
+    private final ProjectConfig config;
+    private final byte[] content;
+    // hashed on first use, most processes never serve their datafile
+    private volatile String contentHash;
+
+    PublishedDatafile(ProjectConfig config, byte[] content) {
+        this.config = config;
+        this.content = content;
+    }
+
+    public ProjectConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * @return length of the datafile in bytes
+     */
+    public int length() {
+        return content.length;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(content);
+    }
+
+    /**
+     * @return the hex encoded SHA-256 of the datafile
+     */
+    public String getContentHash() {
+        String hash = contentHash;
+        if (hash == null) {
+            hash = BugFixHttpProjectConfigManager.sha256(content, content.length);
+            contentHash = hash;
+        }
+        return hash;
+    }
+}
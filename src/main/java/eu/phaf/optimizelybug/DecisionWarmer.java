@@ -0,0 +1,64 @@
+package eu.phaf.optimizelybug;
+
+import com.optimizely.ab.Optimizely;
+import com.optimizely.ab.config.AtomicProjectConfigManager;
+import com.optimizely.ab.config.ConfigWarmer;
+import com.optimizely.ab.config.ProjectConfig;
+import com.optimizely.ab.optimizelydecision.OptimizelyDecideOption;
+import com.optimizely.ab.optimizelydecision.OptimizelyDecision;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Warms a new config by deciding all of its flags for a synthetic user, on a private client that only ever
+ * sees the candidate config and sends no events. This compiles the decision paths and builds whatever the
+ * config computes lazily before request threads get to the new revision.
+ * <p>
+ * A flag whose decision reports an error rejects the config. Warming a
+ * {@link com.optimizely.ab.config.LeanProjectConfig} parses all of its flags.
+ */
+public class DecisionWarmer implements ConfigWarmer, Closeable {
+    private final static Logger LOG = LoggerFactory.getLogger(DecisionWarmer.class);
+    // without INCLUDE_REASONS a decision only carries reasons when something went wrong
+    private static final List<OptimizelyDecideOption> WARM_UP = List.of(OptimizelyDecideOption.DISABLE_DECISION_EVENT);
+
+    private final AtomicProjectConfigManager configManager = new AtomicProjectConfigManager();
+    private final Optimizely optimizely;
+    private final String userId;
+    private final Map<String, ?> attributes;
+
+    /**
+     * @param userId id of the synthetic user
+     * @param attributes attributes of the synthetic user, to exercise audience conditions
+     */
+    public DecisionWarmer(String userId, Map<String, ?> attributes) {
+        this.userId = userId;
+        this.attributes = Map.copyOf(attributes);
+        this.optimizely = Optimizely.builder()
+                .withConfigManager(configManager)
+                .withEventHandler(logEvent -> { })
+                .build();
+    }
+
+    @Override
+    public synchronized void warm(ProjectConfig candidate) {
+        configManager.setConfig(candidate);
+        Map<String, OptimizelyDecision> decisions = optimizely.createUserContext(userId, attributes).decideAll(WARM_UP);
+        for (Map.Entry<String, OptimizelyDecision> decision : decisions.entrySet()) {
+            List<String> reasons = decision.getValue().getReasons();
+            if (!reasons.isEmpty()) {
+                throw new IllegalStateException("flag " + decision.getKey() + " can't be decided: " + reasons);
+            }
+        }
+        LOG.debug("Decided {} flags of revision {}", decisions.size(), candidate.getRevision());
+    }
+
+    @Override
+    public void close() {
+        optimizely.close();
+    }
+}
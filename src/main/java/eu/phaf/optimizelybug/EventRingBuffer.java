@@ -0,0 +1,406 @@
+package eu.phaf.optimizelybug;
+
+import com.optimizely.ab.event.internal.UserEvent;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Predicate;
+
+/**
+ * Bounded lock-free queue for the events of a {@link com.optimizely.ab.event.BatchEventProcessor}. Producers
+ * claim slots with a compare-and-set on a sequence per slot, so {@code decide()} calls never block on each other
+ * or on the consumer. When the queue is full the {@link DropPolicy} decides which event is lost; every lost
+ * event is counted.
+ * <p>
+ * The processor sends its flush and shutdown signals through the same queue. Signals are never dropped: adding
+ * one waits for room under either policy, and a signal that {@link DropPolicy#DROP_OLDEST} would evict moves
+ * to a side lane that the consumer drains before the ring, which keeps it ahead of every newer element.
+ * <p>
+ * Only the processor's single consumer thread waits, in {@link #poll(long, TimeUnit)}, and it is woken by the
+ * producers. Iteration is weakly consistent, like the {@code java.util.concurrent} queues.
+ */
+public final class EventRingBuffer extends AbstractQueue<Object> implements BlockingQueue<Object> {
+
+    private static final long PUT_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    // left in the slot of an element removed through the iterator, skipped by the consumer
+    private static final Object REMOVED = new Object();
+
+    public enum DropPolicy {
+        /**
+         * Reject the event that doesn't fit, keeping the queued ones.
+         */
+        DROP_NEWEST,
+        /**
+         * Drop the oldest queued event to make room, keeping the most recent traffic.
+         */
+        DROP_OLDEST
+    }
+
+    private final AtomicReferenceArray<Object> buffer;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final DropPolicy dropPolicy;
+    private final Predicate<Object> isSignal;
+    private final Queue<Object> evictedSignals = new ConcurrentLinkedQueue<>();
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private volatile Thread waitingConsumer;
+
+    /**
+     * @param capacity maximum number of queued events, rounded up to a power of two
+     * @param dropPolicy what to drop when the queue is full
+     */
+    public EventRingBuffer(int capacity, DropPolicy dropPolicy) {
+        // the processor only queues user events, everything else is one of its signals
+        this(capacity, dropPolicy, element -> !(element instanceof UserEvent));
+    }
+
+    EventRingBuffer(int capacity, DropPolicy dropPolicy, Predicate<Object> isSignal) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be > 0");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.buffer = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.mask = size - 1;
+        this.dropPolicy = dropPolicy;
+        this.isSignal = isSignal;
+    }
+
+    public int capacity() {
+        return buffer.length();
+    }
+
+    /**
+     * @return number of events accepted into the queue
+     */
+    public long getAccepted() {
+        return accepted.sum();
+    }
+
+    /**
+     * @return number of events lost because the queue was full
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    @Override
+    public boolean offer(Object event) {
+        if (event == null) {
+            throw new NullPointerException();
+        }
+        if (isSignal.test(event)) {
+            putSignal(event);
+            return true;
+        }
+        while (!tryOffer(event)) {
+            if (dropPolicy == DropPolicy.DROP_NEWEST) {
+                dropped.increment();
+                return false;
+            }
+            evictOldest();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean offer(Object event, long timeout, TimeUnit unit) throws InterruptedException {
+        if (event == null) {
+            throw new NullPointerException();
+        }
+        if (dropPolicy == DropPolicy.DROP_OLDEST || isSignal.test(event)) {
+            return offer(event);
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!tryOffer(event)) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                dropped.increment();
+                return false;
+            }
+            parkProducer(Math.min(remaining, PUT_PARK_NANOS));
+        }
+        return true;
+    }
+
+    /**
+     * Waits for room with {@link DropPolicy#DROP_NEWEST}, and evicts the oldest event with
+     * {@link DropPolicy#DROP_OLDEST}. Signals wait for room under both policies.
+     */
+    @Override
+    public void put(Object event) throws InterruptedException {
+        if (event == null) {
+            throw new NullPointerException();
+        }
+        if (dropPolicy == DropPolicy.DROP_OLDEST || isSignal.test(event)) {
+            offer(event);
+            return;
+        }
+        while (!tryOffer(event)) {
+            parkProducer(PUT_PARK_NANOS);
+        }
+    }
+
+    /**
+     * Signals must arrive, and after the events queued before them: wait for room, evicting events but never
+     * signals when the policy allows it.
+     */
+    private void putSignal(Object signal) {
+        while (!tryOffer(signal)) {
+            if (dropPolicy == DropPolicy.DROP_OLDEST) {
+                evictOldest();
+            } else {
+                LockSupport.parkNanos(PUT_PARK_NANOS);
+            }
+        }
+    }
+
+    private void evictOldest() {
+        Object evicted = tryPoll();
+        if (evicted == null) {
+            return;
+        }
+        if (isSignal.test(evicted)) {
+            // everything still in the ring is newer, so the lane keeps the signal in order
+            evictedSignals.add(evicted);
+            wakeConsumer();
+        } else {
+            dropped.increment();
+        }
+    }
+
+    @Override
+    public Object poll() {
+        return next();
+    }
+
+    @Override
+    public Object poll(long timeout, TimeUnit unit) throws InterruptedException {
+        Object event = next();
+        if (event != null) {
+            return event;
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        Thread current = Thread.currentThread();
+        try {
+            while (true) {
+                waitingConsumer = current;
+                // re-check after announcing ourselves, a producer may have missed the announcement
+                event = next();
+                if (event != null) {
+                    return event;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return null;
+                }
+                LockSupport.parkNanos(this, remaining);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        } finally {
+            waitingConsumer = null;
+        }
+    }
+
+    @Override
+    public Object take() throws InterruptedException {
+        Object event;
+        do {
+            event = poll(1, TimeUnit.SECONDS);
+        } while (event == null);
+        return event;
+    }
+
+    @Override
+    public Object peek() {
+        Iterator<Object> iterator = iterator();
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+
+    @Override
+    public int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, buffer.length())) + evictedSignals.size();
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Math.max(0, buffer.length() - size());
+    }
+
+    @Override
+    public int drainTo(Collection<? super Object> collection) {
+        return drainTo(collection, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Object> collection, int maxElements) {
+        int drained = 0;
+        Object event;
+        while (drained < maxElements && (event = next()) != null) {
+            collection.add(event);
+            drained++;
+        }
+        return drained;
+    }
+
+    /**
+     * @return a weakly consistent iterator: it never throws {@link java.util.ConcurrentModificationException},
+     * returns each element at most once and may or may not reflect changes made after it was created
+     */
+    @Override
+    public Iterator<Object> iterator() {
+        return new WeaklyConsistentIterator();
+    }
+
+    private Object next() {
+        Object signal = evictedSignals.poll();
+        return signal != null ? signal : tryPoll();
+    }
+
+    private boolean tryOffer(Object event) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    buffer.set(index, event);
+                    // the volatile sequence write publishes the event to the consumer
+                    sequences.set(index, position + 1);
+                    accepted.increment();
+                    wakeConsumer();
+                    return true;
+                }
+            } else if (difference < 0) {
+                return false;
+            }
+        }
+    }
+
+    private Object tryPoll() {
+        while (true) {
+            long position = head.get();
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    // getAndSet races safely with a removal through the iterator, only one of both wins
+                    Object event = buffer.getAndSet(index, null);
+                    sequences.set(index, position + buffer.length());
+                    if (event != REMOVED) {
+                        return event;
+                    }
+                }
+            } else if (difference < 0) {
+                return null;
+            }
+        }
+    }
+
+    private void wakeConsumer() {
+        Thread consumer = waitingConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    private static void parkProducer(long nanos) throws InterruptedException {
+        LockSupport.parkNanos(nanos);
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    /**
+     * Walks the side lane and then the ring positions between head and tail as they were at creation,
+     * skipping slots that were consumed or are still being written.
+     */
+    private final class WeaklyConsistentIterator implements Iterator<Object> {
+        private final Iterator<Object> lane = evictedSignals.iterator();
+        private final long end = tail.get();
+        private long position = head.get();
+        private Object next;
+        private int nextIndex = -1;
+        private Object lastReturned;
+        private int lastIndex = -1;
+
+        private WeaklyConsistentIterator() {
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+            if (lane.hasNext()) {
+                next = lane.next();
+                nextIndex = -1;
+                return;
+            }
+            while (position < end) {
+                int index = (int) (position & mask);
+                boolean filled = sequences.get(index) == position + 1;
+                position++;
+                if (filled) {
+                    Object element = buffer.get(index);
+                    if (element != null && element != REMOVED) {
+                        next = element;
+                        nextIndex = index;
+                        return;
+                    }
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Object next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            lastReturned = next;
+            lastIndex = nextIndex;
+            advance();
+            return lastReturned;
+        }
+
+        @Override
+        public void remove() {
+            if (lastReturned == null) {
+                throw new IllegalStateException();
+            }
+            if (lastIndex < 0) {
+                evictedSignals.remove(lastReturned);
+            } else {
+                // fails when the consumer took the element in the meantime
+                buffer.compareAndSet(lastIndex, lastReturned, REMOVED);
+            }
+            lastReturned = null;
+        }
+    }
+}
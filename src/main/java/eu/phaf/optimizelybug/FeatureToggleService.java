@@ -0,0 +1,292 @@
+package eu.phaf.optimizelybug;
+
+import com.optimizely.ab.Optimizely;
+import com.optimizely.ab.OptimizelyDecisionContext;
+import com.optimizely.ab.OptimizelyUserContext;
+import com.optimizely.ab.config.ProjectConfig;
+import com.optimizely.ab.notification.UpdateConfigNotification;
+import com.optimizely.ab.optimizelydecision.OptimizelyDecision;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Typed access to any number of feature flags. Flags whose decision doesn't depend on the user are served from a
+ * {@link FlagTable}, the decision cache that is rebuilt once per config revision; all other flags go through
+ * {@code decide()}. The SDK only sends impressions for such rollout decisions when the datafile enables
+ * {@code sendFlagDecisions}, so the table is used whenever no impression would be sent anyway. For datafiles that
+ * enable it, {@code optimizely.events.skip-kill-switch-impressions} decides between serving these kill switches
+ * from the table without their impressions and deciding them with impressions.
+ * <p>
+ * Checks without a user are made for a single anonymous user id that is generated once per service, so they
+ * bucket consistently and never pay for {@code UUID.randomUUID()}. That id lands in one bucket for the whole life
+ * of the instance: a flag rolled out to part of the traffic, or an experiment, is all on or all off for every
+ * check without a user on a pod, and the rollout percentage ends up as a share of pods rather than of users.
+ * Checks of such flags need the id of the user; callers pass it with its attributes, or hold on to a
+ * {@link OptimizelyUserContext} from {@link #userContext(String, Map)} for the duration of a request.
+ */
+@Service
+public class FeatureToggleService {
+    private final static Logger LOG = LoggerFactory.getLogger(FeatureToggleService.class);
+    private final ObjectProvider<Optimizely> optimizely;
+    private final OptimizelyMetrics metrics;
+    private final boolean skipKillSwitchImpressions;
+    private final AtomicBoolean configUpdateListenerAdded = new AtomicBoolean(false);
+    private final String anonymousUserId = "anonymous-" + Long.toHexString(ThreadLocalRandom.current().nextLong());
+    private volatile FlagTable flagTable = FlagTable.EMPTY;
+    private volatile OptimizelyUserContext anonymousUserContext;
+
+    /**
+     * @param skipKillSwitchImpressions whether flags that are the same for every user are served from the table
+     * for datafiles that send flag decisions, without their impressions; when false those datafiles go through
+     * {@code decide()} for every check
+     */
+    public FeatureToggleService(ObjectProvider<Optimizely> optimizely,
+                                OptimizelyMetrics metrics,
+                                @Value("${optimizely.events.skip-kill-switch-impressions:false}") boolean skipKillSwitchImpressions) {
+        this.optimizely = optimizely;
+        this.metrics = metrics;
+        this.skipKillSwitchImpressions = skipKillSwitchImpressions;
+    }
+
+    /**
+     * Checks a flag for the anonymous user of this instance. Only meaningful for flags that are the same for every
+     * user, see the class documentation for partially rolled out flags.
+     */
+    public boolean isEnabled(String flagKey) {
+        final long start = System.nanoTime();
+        final FlagTable table = flagTable();
+        final int flag = tableIndex(table, flagKey);
+        final boolean enabled = flag >= 0
+                ? table.isEnabled(flag)
+                : decide(flagKey).getEnabled();
+        metrics.recordDecide(flagKey, System.nanoTime() - start);
+        return enabled;
+    }
+
+    public boolean isEnabled(String flagKey, String userId, Map<String, ?> attributes) {
+        return isEnabled(userContext(userId, attributes), flagKey);
+    }
+
+    /**
+     * Flags that are the same for every user are answered from the flag table, unless the user context has a
+     * forced decision for them.
+     */
+    public boolean isEnabled(OptimizelyUserContext userContext, String flagKey) {
+        final long start = System.nanoTime();
+        final FlagTable table = flagTable();
+        final int flag = tableIndex(table, flagKey, userContext);
+        final boolean enabled;
+        if (flag >= 0) {
+            enabled = table.isEnabled(flag);
+        } else {
+            final OptimizelyDecision decision = userContext.decide(flagKey);
+            logErrors(flagKey, decision);
+            enabled = decision.getEnabled();
+        }
+        metrics.recordDecide(flagKey, System.nanoTime() - start);
+        return enabled;
+    }
+
+    /**
+     * Creates a user context to reuse for all checks of one request.
+     *
+     * @param userId the id of the user, used for bucketing
+     * @param attributes the attributes of the user, used for audience targeting
+     * @return a user context bound to the current Optimizely client
+     */
+    public OptimizelyUserContext userContext(String userId, Map<String, ?> attributes) {
+        return optimizely().createUserContext(userId, attributes);
+    }
+
+    public boolean getBoolean(String flagKey, String variableKey, boolean defaultValue) {
+        final FlagTable table = flagTable();
+        final int flag = tableIndex(table, flagKey);
+        if (flag >= 0) {
+            final int variable = table.variableIndexOf(flag, variableKey);
+            return variable >= 0 && table.variableType(flag, variable) == FlagTable.TYPE_BOOLEAN
+                    ? table.getBoolean(flag, variable)
+                    : defaultValue;
+        }
+        final Object value = variable(flagKey, variableKey);
+        return value instanceof Boolean ? (Boolean) value : defaultValue;
+    }
+
+    public int getInteger(String flagKey, String variableKey, int defaultValue) {
+        final FlagTable table = flagTable();
+        final int flag = tableIndex(table, flagKey);
+        if (flag >= 0) {
+            final int variable = table.variableIndexOf(flag, variableKey);
+            return variable >= 0 && table.variableType(flag, variable) == FlagTable.TYPE_INTEGER
+                    ? table.getInteger(flag, variable)
+                    : defaultValue;
+        }
+        final Object value = variable(flagKey, variableKey);
+        return value instanceof Integer || value instanceof Long ? ((Number) value).intValue() : defaultValue;
+    }
+
+    public double getDouble(String flagKey, String variableKey, double defaultValue) {
+        final FlagTable table = flagTable();
+        final int flag = tableIndex(table, flagKey);
+        if (flag >= 0) {
+            final int variable = table.variableIndexOf(flag, variableKey);
+            if (variable < 0) {
+                return defaultValue;
+            }
+            final byte type = table.variableType(flag, variable);
+            return type == FlagTable.TYPE_DOUBLE || type == FlagTable.TYPE_INTEGER
+                    ? table.getDouble(flag, variable)
+                    : defaultValue;
+        }
+        final Object value = variable(flagKey, variableKey);
+        return value instanceof Number ? ((Number) value).doubleValue() : defaultValue;
+    }
+
+    public String getString(String flagKey, String variableKey, String defaultValue) {
+        final FlagTable table = flagTable();
+        final int flag = tableIndex(table, flagKey);
+        if (flag >= 0) {
+            final int variable = table.variableIndexOf(flag, variableKey);
+            return variable >= 0 && table.variableType(flag, variable) == FlagTable.TYPE_STRING
+                    ? table.getString(flag, variable)
+                    : defaultValue;
+        }
+        final Object value = variable(flagKey, variableKey);
+        return value instanceof String ? (String) value : defaultValue;
+    }
+
+    /**
+     * Decides a batch of flags for one user context with a single {@code decideForKeys} call, for the flags that
+     * are not served from the flag table.
+     *
+     * @param flagKeys the flags to decide
+     * @return the decisions by flag key
+     */
+    public Map<String, OptimizelyDecision> decide(List<String> flagKeys) {
+        return decide(anonymousUserContext(), flagKeys);
+    }
+
+    public Map<String, OptimizelyDecision> decide(OptimizelyUserContext userContext, List<String> flagKeys) {
+        final Map<String, OptimizelyDecision> decisions = decideForKeys(userContext, flagKeys);
+        decisions.forEach((flagKey, decision) -> logErrors(flagKey, decision));
+        return decisions;
+    }
+
+    private Map<String, OptimizelyDecision> decideForKeys(OptimizelyUserContext userContext, List<String> flagKeys) {
+        final FlagTable table = flagTable();
+        final Map<String, OptimizelyDecision> decisions = new HashMap<>();
+        final List<String> others = new ArrayList<>(flagKeys.size());
+        for (String flagKey : flagKeys) {
+            final int flag = tableIndex(table, flagKey, userContext);
+            if (flag >= 0) {
+                decisions.put(flagKey, table.decision(flag, userContext));
+            } else {
+                others.add(flagKey);
+            }
+        }
+        if (others.size() == flagKeys.size()) {
+            return userContext.decideForKeys(flagKeys);
+        }
+        if (!others.isEmpty()) {
+            decisions.putAll(userContext.decideForKeys(others));
+        }
+        return decisions;
+    }
+
+    private OptimizelyDecision decide(String flagKey) {
+        final OptimizelyDecision decision = anonymousUserContext().decide(flagKey);
+        logErrors(flagKey, decision);
+        return decision;
+    }
+
+    private Object variable(String flagKey, String variableKey) {
+        final OptimizelyDecision decision = decide(flagKey);
+        return decision.getVariationKey() == null ? null : decision.getVariables().toMap().get(variableKey);
+    }
+
+    private void logErrors(String flagKey, OptimizelyDecision decision) {
+        if (decision.getVariationKey() == null) {
+            LOG.error("Feature flag {} in Optimizely gave errors: {}", flagKey, decision.getReasons());
+        }
+    }
+
+    private OptimizelyUserContext anonymousUserContext() {
+        final Optimizely optimizelyClient = optimizely();
+        OptimizelyUserContext userContext = anonymousUserContext;
+        if (userContext == null || userContext.getOptimizely() != optimizelyClient) {
+            userContext = optimizelyClient.createUserContext(anonymousUserId, Map.of());
+            anonymousUserContext = userContext;
+        }
+        return userContext;
+    }
+
+    private Optimizely optimizely() {
+        final Optimizely optimizelyClient = Optional.ofNullable(optimizely.getIfAvailable())
+                .orElseThrow(() -> new RuntimeException("Optimizely Bean not found"));
+        if (configUpdateListenerAdded.compareAndSet(false, true)) {
+            optimizelyClient.getNotificationCenter()
+                    .addNotificationHandler(UpdateConfigNotification.class, notification -> flagTable = FlagTable.EMPTY);
+        }
+        return optimizelyClient;
+    }
+
+    /**
+     * @return the index of a flag that is answered from the table, or -1 when it has to be decided
+     */
+    private int tableIndex(FlagTable table, String flagKey) {
+        final int flag = table.indexOf(flagKey);
+        return flag >= 0 && table.isUserIndependent(flag) ? flag : -1;
+    }
+
+    /**
+     * @return the index of a flag that is answered from the table for this user, or -1 when it has to be decided
+     * because the user has a forced decision for the flag or for the rule that decides it
+     */
+    private int tableIndex(FlagTable table, String flagKey, OptimizelyUserContext userContext) {
+        final int flag = tableIndex(table, flagKey);
+        if (flag < 0
+                || userContext.getForcedDecision(new OptimizelyDecisionContext(flagKey, null)) != null
+                || userContext.getForcedDecision(new OptimizelyDecisionContext(flagKey, table.ruleKey(flag))) != null) {
+            return -1;
+        }
+        return flag;
+    }
+
+    private FlagTable flagTable() {
+        final Optimizely optimizelyClient = optimizely();
+        final ProjectConfig projectConfig = optimizelyClient.getProjectConfig();
+        // the table only holds rollout decisions, which send an impression when the datafile asks for flag decisions
+        if (projectConfig == null || (!skipKillSwitchImpressions && projectConfig.getSendFlagDecisions())) {
+            return FlagTable.EMPTY;
+        }
+        final FlagTable table = flagTable;
+        if (table.isFor(projectConfig)) {
+            return table;
+        }
+        return rebuildFlagTable(optimizelyClient, projectConfig);
+    }
+
+    private synchronized FlagTable rebuildFlagTable(Optimizely optimizelyClient, ProjectConfig projectConfig) {
+        FlagTable table = flagTable;
+        if (table.isFor(projectConfig)) {
+            return table;
+        }
+        table = FlagTable.build(optimizelyClient, projectConfig);
+        // decideForKeys reads the client's current config, only keep the table if that is still the one it was built for
+        if (optimizelyClient.getProjectConfig() == projectConfig) {
+            flagTable = table;
+            return table;
+        }
+        return FlagTable.EMPTY;
+    }
+}
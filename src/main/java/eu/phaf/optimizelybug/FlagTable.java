@@ -0,0 +1,275 @@
+package eu.phaf.optimizelybug;
+
+import com.optimizely.ab.Optimizely;
+import com.optimizely.ab.OptimizelyUserContext;
+import com.optimizely.ab.config.Experiment;
+import com.optimizely.ab.config.FeatureFlag;
+import com.optimizely.ab.config.LeanProjectConfig;
+import com.optimizely.ab.config.ProjectConfig;
+import com.optimizely.ab.config.Rollout;
+import com.optimizely.ab.config.TrafficAllocation;
+import com.optimizely.ab.config.audience.Condition;
+import com.optimizely.ab.config.audience.EmptyCondition;
+import com.optimizely.ab.optimizelydecision.OptimizelyDecideOption;
+import com.optimizely.ab.optimizelydecision.OptimizelyDecision;
+import com.optimizely.ab.optimizelyjson.OptimizelyJSON;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Index-based table of all flags of one config revision, and the per-revision cache of the decisions that are the
+ * same for every user. Those flags are decided once when the table is built, with their variables stored in
+ * primitive columns, so reading them is a binary search and an array read without boxing or allocation.
+ * Their full decision is kept as well, to answer {@code decide()} batches for them without deciding again.
+ * <p>
+ * A flag is user independent when it has no experiments and the first rule of its rollout targets everyone
+ * and allocates all traffic to a single variation.
+ * <p>
+ * For a {@link LeanProjectConfig} deciding every flag up front would parse the whole datafile, so those tables
+ * classify and decide each flag on its first lookup instead.
+ */
+final class FlagTable {
+
+    static final byte TYPE_BOOLEAN = 1;
+    static final byte TYPE_INTEGER = 2;
+    static final byte TYPE_DOUBLE = 3;
+    static final byte TYPE_STRING = 4;
+    static final byte TYPE_OTHER = 5;
+
+    static final FlagTable EMPTY = new FlagTable(null, new String[0], null, null);
+
+    private static final int FULL_TRAFFIC = 10000;
+    // any user gets the same decision for the flags that are decided up front
+    private static final String TABLE_USER_ID = "flag-table";
+    private static final List<OptimizelyDecideOption> NO_EVENTS = List.of(OptimizelyDecideOption.DISABLE_DECISION_EVENT);
+    private static final int RESOLVED = 1;
+
+    private final String revision;
+    private final String[] keys;
+    private final boolean[] userIndependent;
+    private final boolean[] enabled;
+    private final OptimizelyDecision[] decisions;
+    private final String[][] variableKeys;
+    private final byte[][] variableTypes;
+    private final long[][] variableBits;
+    private final String[][] variableStrings;
+    // only set for tables that resolve flags on first lookup
+    private final Optimizely optimizely;
+    private final ProjectConfig projectConfig;
+    private final AtomicIntegerArray resolved;
+
+    private FlagTable(String revision, String[] keys, Optimizely optimizely, ProjectConfig projectConfig) {
+        this.revision = revision;
+        this.keys = keys;
+        this.optimizely = optimizely;
+        this.projectConfig = projectConfig;
+        this.resolved = projectConfig == null ? null : new AtomicIntegerArray(keys.length);
+        this.userIndependent = new boolean[keys.length];
+        this.enabled = new boolean[keys.length];
+        this.decisions = new OptimizelyDecision[keys.length];
+        this.variableKeys = new String[keys.length][];
+        this.variableTypes = new byte[keys.length][];
+        this.variableBits = new long[keys.length][];
+        this.variableStrings = new String[keys.length][];
+    }
+
+    /**
+     * Builds the table for the given config, deciding all user independent flags in a single
+     * {@code decideForKeys} call without sending decision events. Tables of a {@link LeanProjectConfig} only
+     * take the flag keys, from the index, and resolve each flag on first lookup.
+     */
+    static FlagTable build(Optimizely optimizely, ProjectConfig projectConfig) {
+        if (LeanProjectConfig.isLean(projectConfig)) {
+            String[] keys = projectConfig.getFeatureKeyMapping().keySet().toArray(new String[0]);
+            Arrays.sort(keys);
+            return new FlagTable(projectConfig.getRevision(), keys, optimizely, projectConfig);
+        }
+        List<FeatureFlag> featureFlags = projectConfig.getFeatureFlags();
+        String[] keys = new String[featureFlags.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = featureFlags.get(i).getKey();
+        }
+        Arrays.sort(keys);
+        FlagTable table = new FlagTable(projectConfig.getRevision(), keys, null, null);
+
+        List<String> independentKeys = new ArrayList<>();
+        for (String key : keys) {
+            if (isUserIndependent(projectConfig, key)) {
+                independentKeys.add(key);
+            }
+        }
+        if (independentKeys.isEmpty()) {
+            return table;
+        }
+
+        Map<String, OptimizelyDecision> decisions = optimizely.createUserContext(TABLE_USER_ID, Map.of())
+                .decideForKeys(independentKeys, NO_EVENTS);
+        for (Map.Entry<String, OptimizelyDecision> entry : decisions.entrySet()) {
+            int flag = table.indexOf(entry.getKey());
+            OptimizelyDecision decision = entry.getValue();
+            if (flag < 0 || decision.getVariationKey() == null) {
+                continue;
+            }
+            table.userIndependent[flag] = true;
+            table.enabled[flag] = decision.getEnabled();
+            table.decisions[flag] = decision;
+            table.setVariables(flag, decision.getVariables().toMap());
+        }
+        return table;
+    }
+
+    /**
+     * Classifies and decides a single flag of a lazily resolved table. The lock is only taken on the first
+     * lookup of a flag; the volatile write of its state publishes the columns to other readers.
+     */
+    private synchronized void resolve(int flag) {
+        if (resolved.get(flag) == RESOLVED) {
+            return;
+        }
+        String key = keys[flag];
+        if (isUserIndependent(projectConfig, key)) {
+            OptimizelyDecision decision = optimizely.createUserContext(TABLE_USER_ID, Map.of()).decide(key, NO_EVENTS);
+            // the client may already have moved on to a newer config, its decision doesn't belong in this table
+            if (optimizely.getProjectConfig() == projectConfig && decision.getVariationKey() != null) {
+                userIndependent[flag] = true;
+                enabled[flag] = decision.getEnabled();
+                decisions[flag] = decision;
+                setVariables(flag, decision.getVariables().toMap());
+            }
+        }
+        resolved.set(flag, RESOLVED);
+    }
+
+    private void setVariables(int flag, Map<String, Object> variables) {
+        String[] names = variables.keySet().toArray(new String[0]);
+        Arrays.sort(names);
+        byte[] types = new byte[names.length];
+        long[] bits = new long[names.length];
+        String[] strings = new String[names.length];
+        for (int i = 0; i < names.length; i++) {
+            Object value = variables.get(names[i]);
+            if (value instanceof Boolean) {
+                types[i] = TYPE_BOOLEAN;
+                bits[i] = (Boolean) value ? 1 : 0;
+            } else if (value instanceof Integer || value instanceof Long) {
+                types[i] = TYPE_INTEGER;
+                bits[i] = ((Number) value).longValue();
+            } else if (value instanceof Number) {
+                types[i] = TYPE_DOUBLE;
+                bits[i] = Double.doubleToRawLongBits(((Number) value).doubleValue());
+            } else if (value instanceof String) {
+                types[i] = TYPE_STRING;
+                strings[i] = (String) value;
+            } else {
+                types[i] = TYPE_OTHER;
+            }
+        }
+        variableKeys[flag] = names;
+        variableTypes[flag] = types;
+        variableBits[flag] = bits;
+        variableStrings[flag] = strings;
+    }
+
+    boolean isFor(ProjectConfig projectConfig) {
+        return revision != null && revision.equals(projectConfig.getRevision());
+    }
+
+    int size() {
+        return keys.length;
+    }
+
+    String keyAt(int flag) {
+        return keys[flag];
+    }
+
+    /**
+     * @return the index of the flag, or a negative value when the flag is not in this revision
+     */
+    int indexOf(String flagKey) {
+        return Arrays.binarySearch(keys, flagKey);
+    }
+
+    boolean isUserIndependent(int flag) {
+        if (resolved != null && resolved.get(flag) != RESOLVED) {
+            resolve(flag);
+        }
+        return userIndependent[flag];
+    }
+
+    boolean isEnabled(int flag) {
+        return enabled[flag];
+    }
+
+    /**
+     * @return the rule that decides a user independent flag for everyone
+     */
+    String ruleKey(int flag) {
+        return decisions[flag].getRuleKey();
+    }
+
+    /**
+     * @return the decision of a user independent flag, for the given user
+     */
+    OptimizelyDecision decision(int flag, OptimizelyUserContext userContext) {
+        OptimizelyDecision decision = decisions[flag];
+        // every caller gets its own variables, the cached decision is shared
+        return new OptimizelyDecision(decision.getVariationKey(), decision.getEnabled(),
+                new OptimizelyJSON(new HashMap<>(decision.getVariables().toMap())), decision.getRuleKey(),
+                decision.getFlagKey(), userContext, List.of());
+    }
+
+    /**
+     * @return the index of the variable of a user independent flag, or a negative value when it has no such variable
+     */
+    int variableIndexOf(int flag, String variableKey) {
+        String[] names = variableKeys[flag];
+        return names == null ? -1 : Arrays.binarySearch(names, variableKey);
+    }
+
+    byte variableType(int flag, int variable) {
+        return variableTypes[flag][variable];
+    }
+
+    boolean getBoolean(int flag, int variable) {
+        return variableBits[flag][variable] != 0;
+    }
+
+    int getInteger(int flag, int variable) {
+        return (int) variableBits[flag][variable];
+    }
+
+    double getDouble(int flag, int variable) {
+        return variableTypes[flag][variable] == TYPE_INTEGER
+                ? variableBits[flag][variable]
+                : Double.longBitsToDouble(variableBits[flag][variable]);
+    }
+
+    String getString(int flag, int variable) {
+        return variableStrings[flag][variable];
+    }
+
+    static boolean isUserIndependent(ProjectConfig projectConfig, String flagKey) {
+        FeatureFlag featureFlag = projectConfig.getFeatureKeyMapping().get(flagKey);
+        if (featureFlag == null || !featureFlag.getExperimentIds().isEmpty()) {
+            return false;
+        }
+        Rollout rollout = projectConfig.getRolloutIdMapping().get(featureFlag.getRolloutId());
+        if (rollout == null || rollout.getExperiments().isEmpty()) {
+            return false;
+        }
+        Experiment firstRule = rollout.getExperiments().get(0);
+        Condition audienceConditions = firstRule.getAudienceConditions();
+        boolean targetsEveryone = firstRule.getAudienceIds().isEmpty()
+                && (audienceConditions == null || audienceConditions instanceof EmptyCondition);
+        if (!firstRule.isRunning() || !targetsEveryone) {
+            return false;
+        }
+        List<TrafficAllocation> trafficAllocation = firstRule.getTrafficAllocation();
+        return trafficAllocation.size() == 1 && trafficAllocation.get(0).getEndOfRange() == FULL_TRAFFIC;
+    }
+}
@@ -0,0 +1,64 @@
+package eu.phaf.optimizelybug;
+
+import com.optimizely.ab.OptimizelyHttpClient;
+import com.optimizely.ab.event.EventHandler;
+import com.optimizely.ab.event.LogEvent;
+import org.apache.http.HttpHeaders;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Sends event batches on the calling thread, which is the single consumer thread of the
+ * {@link com.optimizely.ab.event.BatchEventProcessor}, instead of on the thread pool of the SDK's
+ * {@link com.optimizely.ab.event.AsyncEventHandler}. Payloads are optionally gzip compressed.
+ */
+public class HttpEventHandler implements EventHandler, Closeable {
+    private final static Logger LOG = LoggerFactory.getLogger(HttpEventHandler.class);
+    private final OptimizelyHttpClient httpClient;
+    private final boolean gzip;
+
+    public HttpEventHandler(OptimizelyHttpClient httpClient, boolean gzip) {
+        this.httpClient = httpClient;
+        this.gzip = gzip;
+    }
+
+    @Override
+    public void dispatchEvent(LogEvent logEvent) throws Exception {
+        final HttpPost post = new HttpPost(logEvent.getEndpointUrl());
+        final byte[] body = logEvent.getBody().getBytes(StandardCharsets.UTF_8);
+        if (gzip) {
+            post.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+            post.setEntity(new ByteArrayEntity(compress(body), ContentType.APPLICATION_JSON));
+        } else {
+            post.setEntity(new ByteArrayEntity(body, ContentType.APPLICATION_JSON));
+        }
+        final int status = httpClient.execute(post, response -> response.getStatusLine().getStatusCode());
+        if (status < 200 || status >= 300) {
+            throw new ClientProtocolException("unexpected response when dispatching events, status: " + status);
+        }
+        LOG.debug("Dispatched {} event bytes to {}", body.length, logEvent.getEndpointUrl());
+    }
+
+    private static byte[] compress(byte[] body) throws IOException {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4 + 64);
+        try (GZIPOutputStream gzipStream = new GZIPOutputStream(compressed)) {
+            gzipStream.write(body);
+        }
+        return compressed.toByteArray();
+    }
+
+    @Override
+    public void close() throws IOException {
+        httpClient.close();
+    }
+}
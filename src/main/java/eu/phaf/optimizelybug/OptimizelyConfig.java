@@ -2,7 +2,6 @@ package eu.phaf.optimizelybug;
 
 import com.optimizely.ab.Optimizely;
 import com.optimizely.ab.OptimizelyFactory;
-import com.optimizely.ab.config.BugFixHttpProjectConfigManager;
 import com.optimizely.ab.config.HttpProjectConfigManager;
 import com.optimizely.ab.config.PollingProjectConfigManager;
 import org.springframework.beans.factory.annotation.Value;
@@ -12,20 +11,12 @@ import org.springframework.context.annotation.Profile;
 
 import java.util.concurrent.TimeUnit;
 
+/**
+ * The "working" client is built by {@link eu.phaf.optimizelybug.autoconfigure.OptimizelyAutoConfiguration}
+ * from the {@code optimizely.*} properties; the "notworking" profile replaces it with the stock manager.
+ */
 @Configuration
 public class OptimizelyConfig {
-    @Bean
-    @Profile("working")
-    public Optimizely optimizely(@Value("${optimizely.key}") final String optimizelyKey,
-                                 @Value("${optimizely.base-url}") final String optimizelyBasePath) {
-        final BugFixHttpProjectConfigManager httpProjectConfigManager = BugFixHttpProjectConfigManager.builder()
-                .withSdkKey(optimizelyKey)
-                .withFormat(optimizelyBasePath + "%s.json")
-                .withPollingInterval(1L, TimeUnit.MINUTES)
-                .build();
-        return OptimizelyFactory.newDefaultInstance(httpProjectConfigManager);
-    }
-
     @Bean
     @Profile("notworking")
     public Optimizely optimizelyNotWorking(@Value("${optimizely.key}") final String optimizelyKey,
@@ -0,0 +1,153 @@
+package eu.phaf.optimizelybug;
+
+import com.optimizely.ab.config.DatafilePollListener;
+import com.optimizely.ab.config.ProjectConfig;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micrometer metrics for datafile polling and flag decisions. Spring Boot binds it to its registry; until then
+ * every recording is a no-op.
+ * <p>
+ * Decide timers are created once per flag and looked up with a plain map read afterwards, so recording a
+ * decision doesn't allocate. Only flags of the published config get their own timer, decisions for any other key
+ * share the {@code unknown} one, so arbitrary flag keys from callers can't grow the number of meters.
+ */
+@Component
+public class OptimizelyMetrics implements MeterBinder, DatafilePollListener {
+    private static final String UNKNOWN_FLAG = "unknown";
+
+    private final ConcurrentHashMap<String, Timer> decideTimers = new ConcurrentHashMap<>();
+    private volatile MeterRegistry registry;
+    private volatile DistributionSummary datafileBytes;
+    private volatile Timer parseTimer;
+    private volatile ProjectConfig publishedConfig;
+    private volatile long publishedAtMillis;
+    private volatile long lastResponseAtMillis;
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        // without a response yet, the datafile is as stale as the application is old
+        if (lastResponseAtMillis == 0) {
+            lastResponseAtMillis = System.currentTimeMillis();
+        }
+        datafileBytes = DistributionSummary.builder("optimizely.datafile.bytes")
+                .description("Datafile response body size")
+                .baseUnit("bytes")
+                .register(registry);
+        parseTimer = Timer.builder("optimizely.datafile.parse")
+                .description("Time to build a project config from a datafile")
+                .register(registry);
+        TimeGauge.builder("optimizely.config.age", this, TimeUnit.MILLISECONDS, metrics -> sinceMillis(metrics.publishedAtMillis))
+                .description("Time since the current project config was published")
+                .register(registry);
+        TimeGauge.builder("optimizely.datafile.staleness", this, TimeUnit.MILLISECONDS, metrics -> sinceMillis(metrics.lastResponseAtMillis))
+                .description("Time since the datafile was last confirmed current by a 2xx or 304 response")
+                .register(registry);
+        Gauge.builder("optimizely.config.revision", this, OptimizelyMetrics::revision)
+                .description("Revision of the current project config")
+                .register(registry);
+        this.registry = registry;
+    }
+
+    @Override
+    public void onResponse(int status, long bytes, long latencyNanos) {
+        // also before binding, the first poll usually completes before the registry is bound
+        if (status >= 200 && status < 300 || status == 304) {
+            lastResponseAtMillis = System.currentTimeMillis();
+        }
+        final MeterRegistry meterRegistry = registry;
+        if (meterRegistry == null) {
+            return;
+        }
+        fetchTimer(meterRegistry, Integer.toString(status)).record(latencyNanos, TimeUnit.NANOSECONDS);
+        if (bytes > 0) {
+            datafileBytes.record(bytes);
+        }
+    }
+
+    @Override
+    public void onFailure(Throwable error, long latencyNanos) {
+        final MeterRegistry meterRegistry = registry;
+        if (meterRegistry != null) {
+            meterRegistry.counter("optimizely.datafile.failures", "exception", error.getClass().getSimpleName()).increment();
+            fetchTimer(meterRegistry, "error").record(latencyNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public void onParse(long parseNanos) {
+        final Timer timer = parseTimer;
+        if (timer != null) {
+            timer.record(parseNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public void onPublish(ProjectConfig projectConfig) {
+        publishedConfig = projectConfig;
+        publishedAtMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * @param flagKey the decided flag
+     * @param nanos time the decision took
+     */
+    public void recordDecide(String flagKey, long nanos) {
+        final MeterRegistry meterRegistry = registry;
+        if (meterRegistry == null) {
+            return;
+        }
+        Timer timer = decideTimers.get(flagKey);
+        if (timer == null) {
+            final ProjectConfig projectConfig = publishedConfig;
+            final String key = projectConfig != null && projectConfig.getFeatureKeyMapping().containsKey(flagKey)
+                    ? flagKey
+                    : UNKNOWN_FLAG;
+            timer = decideTimers.get(key);
+            if (timer == null) {
+                timer = decideTimers.computeIfAbsent(key, tag -> decideTimer(meterRegistry, tag));
+            }
+        }
+        timer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private static Timer decideTimer(MeterRegistry registry, String flag) {
+        return Timer.builder("optimizely.decide")
+                .description("Time to decide a feature flag")
+                .tag("flag", flag)
+                .register(registry);
+    }
+
+    private static Timer fetchTimer(MeterRegistry registry, String status) {
+        return Timer.builder("optimizely.datafile.fetch")
+                .description("Datafile request latency by response status")
+                .tag("status", status)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    private static double sinceMillis(long millis) {
+        return millis == 0 ? Double.NaN : System.currentTimeMillis() - millis;
+    }
+
+    private double revision() {
+        final ProjectConfig projectConfig = publishedConfig;
+        if (projectConfig == null) {
+            return Double.NaN;
+        }
+        try {
+            return Long.parseLong(projectConfig.getRevision());
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+}
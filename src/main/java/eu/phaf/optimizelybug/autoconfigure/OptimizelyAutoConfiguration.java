@@ -0,0 +1,195 @@
+package eu.phaf.optimizelybug.autoconfigure;
+
+import com.optimizely.ab.Optimizely;
+import com.optimizely.ab.OptimizelyHttpClient;
+import com.optimizely.ab.config.AdaptivePollingPolicy;
+import com.optimizely.ab.config.BugFixHttpProjectConfigManager;
+import com.optimizely.ab.config.ConfigWarmer;
+import com.optimizely.ab.config.DatafilePollListener;
+import com.optimizely.ab.event.BatchEventProcessor;
+import com.optimizely.ab.notification.NotificationCenter;
+import eu.phaf.optimizelybug.DecisionWarmer;
+import eu.phaf.optimizelybug.EventRingBuffer;
+import eu.phaf.optimizelybug.HttpEventHandler;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.actuate.autoconfigure.endpoint.condition.ConditionalOnAvailableEndpoint;
+import org.springframework.boot.actuate.autoconfigure.health.ConditionalOnEnabledHealthIndicator;
+import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds the Optimizely client on {@link BugFixHttpProjectConfigManager} from {@link OptimizelyProperties} when
+ * {@code optimizely.key} is set. Backs off completely when the application defines its own {@link Optimizely} bean.
+ */
+@AutoConfiguration
+@ConditionalOnProperty(prefix = "optimizely", name = "key")
+@ConditionalOnMissingBean(Optimizely.class)
+@EnableConfigurationProperties(OptimizelyProperties.class)
+public class OptimizelyAutoConfiguration {
+
+    @Bean
+    @ConditionalOnMissingBean
+    public NotificationCenter optimizelyNotificationCenter() {
+        return new NotificationCenter();
+    }
+
+    /**
+     * Closed by the {@link Optimizely} client that owns it.
+     */
+    @Bean(destroyMethod = "")
+    @ConditionalOnMissingBean
+    public BugFixHttpProjectConfigManager optimizelyConfigManager(final OptimizelyProperties properties,
+                                                                  final NotificationCenter optimizelyNotificationCenter,
+                                                                  final ObjectProvider<DatafilePollListener> pollListener,
+                                                                  final ObjectProvider<ConfigWarmer> configWarmer) {
+        final OptimizelyProperties.Fetch fetch = properties.getFetch();
+        final OptimizelyProperties.Polling polling = properties.getPolling();
+        final BugFixHttpProjectConfigManager.Builder builder = BugFixHttpProjectConfigManager.builder()
+                .withSdkKey(properties.getKey())
+                .withNotificationCenter(optimizelyNotificationCenter)
+                .withPollingInterval(polling.getInterval().toMillis(), TimeUnit.MILLISECONDS)
+                .withBlockingTimeout(properties.getBlockingTimeout().toMillis(), TimeUnit.MILLISECONDS)
+                .withETagRevalidation(fetch.isEtagRevalidation())
+                .withCompression(fetch.isCompression())
+                .withIncrementalRebuild(fetch.isIncrementalRebuild())
+                .withLeanConfig(fetch.isLeanConfig())
+                .withFetchMode(fetch.getMode())
+                .withRollbackRetention(polling.getRollbackRetention());
+        if (fetch.getMode() == BugFixHttpProjectConfigManager.FetchMode.BLOCKING) {
+            // async fetches use the JDK client
+            builder.withOptimizelyHttpClient(OptimizelyHttpClient.builder()
+                    .withMaxTotalConnections(fetch.getMaxConnections())
+                    .withMaxPerRoute(fetch.getMaxConnections())
+                    .withEvictIdleConnections(fetch.getEvictIdle().toMillis(), TimeUnit.MILLISECONDS)
+                    .build());
+        }
+        builder.withPollListener(DatafilePollListener.of(pollListener.orderedStream().toList()));
+        configWarmer.ifAvailable(builder::withConfigWarmer);
+        if (properties.getBaseUrl() != null && !properties.getBaseUrl().isBlank()) {
+            builder.withFormat(properties.getBaseUrl() + "%s.json");
+        }
+        if (properties.getCacheDir() != null) {
+            builder.withCacheDirectory(properties.getCacheDir(), properties.getCacheMaxAge());
+        }
+        final OptimizelyProperties.Relay relay = properties.getRelay();
+        if (relay.getBaseUrl() != null && !relay.getBaseUrl().isBlank()) {
+            builder.withRelay(relay.getBaseUrl() + properties.getKey() + ".json", relay.getMaxStaleness());
+        }
+        if (properties.getStreamUrl() != null && !properties.getStreamUrl().isBlank()) {
+            builder.withStreamingUrl(properties.getStreamUrl(), properties.getStreamIdleTimeout());
+        }
+        if (fetch.getConnectTimeout() != null) {
+            builder.withConnectTimeout(fetch.getConnectTimeout());
+        }
+        if (fetch.getReadTimeout() != null) {
+            builder.withReadTimeout(fetch.getReadTimeout());
+        }
+        if (fetch.getDeadline() != null) {
+            builder.withPollDeadline(fetch.getDeadline());
+        }
+        if (polling.isAdaptive()) {
+            final AdaptivePollingPolicy.Builder policy = AdaptivePollingPolicy.builder()
+                    .withJitter(polling.getJitter())
+                    .withMaxBackoff(polling.getMaxBackoff())
+                    .withCircuitBreaker(polling.getFailureThreshold(), polling.getOpenDuration());
+            if (polling.getFastInterval() != null) {
+                policy.withFastIntervalAfterChange(polling.getFastInterval(), polling.getFastPolls());
+            }
+            builder.withAdaptivePolling(policy.build());
+        }
+        return builder.build(properties.getStartupMode() == OptimizelyProperties.StartupMode.DEFERRED);
+    }
+
+    @Bean
+    @ConditionalOnMissingBean(ConfigWarmer.class)
+    @ConditionalOnProperty(prefix = "optimizely.polling", name = "warm-up", havingValue = "true")
+    public DecisionWarmer optimizelyDecisionWarmer(final OptimizelyProperties properties) {
+        return new DecisionWarmer(properties.getPolling().getWarmUpUser(), properties.getPolling().getWarmUpAttributes());
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    public EventRingBuffer optimizelyEventQueue(final OptimizelyProperties properties) {
+        return new EventRingBuffer(properties.getEvents().getQueueCapacity(), properties.getEvents().getDropPolicy());
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    public HttpEventHandler optimizelyEventHandler(final OptimizelyProperties properties) {
+        return new HttpEventHandler(OptimizelyHttpClient.builder().build(), properties.getEvents().isGzip());
+    }
+
+    @Bean
+    public Optimizely optimizely(final OptimizelyProperties properties,
+                                 final BugFixHttpProjectConfigManager optimizelyConfigManager,
+                                 final NotificationCenter optimizelyNotificationCenter,
+                                 final EventRingBuffer optimizelyEventQueue,
+                                 final HttpEventHandler optimizelyEventHandler) {
+        final BatchEventProcessor eventProcessor = BatchEventProcessor.builder()
+                .withEventQueue(optimizelyEventQueue)
+                .withEventHandler(optimizelyEventHandler)
+                .withBatchSize(properties.getEvents().getBatchSize())
+                .withFlushInterval(properties.getEvents().getFlushInterval().toMillis())
+                .withNotificationCenter(optimizelyNotificationCenter)
+                .build();
+        return Optimizely.builder()
+                .withConfigManager(optimizelyConfigManager)
+                .withNotificationCenter(optimizelyNotificationCenter)
+                .withEventProcessor(eventProcessor)
+                .build();
+    }
+
+    @Bean
+    public MeterBinder optimizelyEventQueueMetrics(final EventRingBuffer optimizelyEventQueue) {
+        return registry -> {
+            Gauge.builder("optimizely.events.queue.size", optimizelyEventQueue, EventRingBuffer::size)
+                    .description("Events waiting to be batched")
+                    .register(registry);
+            FunctionCounter.builder("optimizely.events.accepted", optimizelyEventQueue, EventRingBuffer::getAccepted)
+                    .description("Events accepted into the queue")
+                    .register(registry);
+            FunctionCounter.builder("optimizely.events.dropped", optimizelyEventQueue, EventRingBuffer::getDropped)
+                    .description("Events lost because the queue was full")
+                    .register(registry);
+        };
+    }
+
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(name = "org.springframework.boot.actuate.health.HealthIndicator")
+    @ConditionalOnEnabledHealthIndicator("optimizely")
+    static class OptimizelyHealthConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean(name = "optimizelyHealthIndicator")
+        public OptimizelyHealthIndicator optimizelyHealthIndicator(final BugFixHttpProjectConfigManager optimizelyConfigManager) {
+            return new OptimizelyHealthIndicator(optimizelyConfigManager);
+        }
+
+        @Bean
+        public OptimizelyReadinessGroupPostProcessor optimizelyReadinessGroupPostProcessor() {
+            return new OptimizelyReadinessGroupPostProcessor("optimizely");
+        }
+    }
+
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(name = "org.springframework.boot.actuate.endpoint.annotation.Endpoint")
+    @ConditionalOnAvailableEndpoint(endpoint = OptimizelyConfigEndpoint.class)
+    static class OptimizelyEndpointConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean
+        public OptimizelyConfigEndpoint optimizelyConfigEndpoint(final BugFixHttpProjectConfigManager optimizelyConfigManager) {
+            return new OptimizelyConfigEndpoint(optimizelyConfigManager);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package eu.phaf.optimizelybug.autoconfigure;
+
+import com.optimizely.ab.config.BugFixHttpProjectConfigManager;
+import com.optimizely.ab.config.ProjectConfig;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Shows the published and the retained previous datafile revision, and rolls back to the previous one when a
+ * bad datafile was published. Like every write operation it is only reachable once the endpoint is exposed.
+ */
+@Endpoint(id = "optimizely")
+public class OptimizelyConfigEndpoint {
+    private final BugFixHttpProjectConfigManager configManager;
+
+    public OptimizelyConfigEndpoint(BugFixHttpProjectConfigManager configManager) {
+        this.configManager = configManager;
+    }
+
+    @ReadOperation
+    public Map<String, Object> revisions() {
+        final Map<String, Object> revisions = new LinkedHashMap<>();
+        revisions.put("revision", revision(configManager.getPublishedConfig()));
+        revisions.put("previousRevision", revision(configManager.getPreviousConfig()));
+        return revisions;
+    }
+
+    /**
+     * @return the revisions after the rollback, with {@code rolledBack} false when no previous config was retained
+     */
+    @WriteOperation
+    public Map<String, Object> rollback() {
+        final boolean rolledBack = configManager.rollback();
+        final Map<String, Object> revisions = revisions();
+        revisions.put("rolledBack", rolledBack);
+        return revisions;
+    }
+
+    private static String revision(ProjectConfig projectConfig) {
+        return projectConfig == null ? null : projectConfig.getRevision();
+    }
+}
@@ -0,0 +1,40 @@
+package eu.phaf.optimizelybug.autoconfigure;
+
+import com.optimizely.ab.config.BugFixHttpProjectConfigManager;
+import com.optimizely.ab.config.DatafileFetchStats;
+import com.optimizely.ab.config.ProjectConfig;
+import org.springframework.boot.actuate.health.AbstractHealthIndicator;
+import org.springframework.boot.actuate.health.Health;
+
+/**
+ * Out of service until the first datafile arrived, up afterwards. A config that can't be refreshed is still
+ * served, so failing polls and an open circuit only show up in the details.
+ */
+public class OptimizelyHealthIndicator extends AbstractHealthIndicator {
+    private final BugFixHttpProjectConfigManager configManager;
+
+    public OptimizelyHealthIndicator(BugFixHttpProjectConfigManager configManager) {
+        super("Optimizely health check failed");
+        this.configManager = configManager;
+    }
+
+    @Override
+    protected void doHealthCheck(Health.Builder builder) {
+        final ProjectConfig projectConfig = configManager.getPublishedConfig();
+        final DatafileFetchStats stats = configManager.getFetchStats();
+        if (projectConfig == null) {
+            builder.outOfService();
+        } else {
+            builder.up().withDetail("revision", projectConfig.getRevision());
+        }
+        builder.withDetail("uri", configManager.getUri())
+                .withDetail("circuitOpen", configManager.isCircuitOpen())
+                .withDetail("okResponses", stats.getOkResponses())
+                .withDetail("notModifiedResponses", stats.getNotModifiedResponses())
+                .withDetail("failures", stats.getFailures())
+                .withDetail("relayFallbacks", stats.getRelayFallbacks());
+        if (configManager.getLastModified() != null) {
+            builder.withDetail("lastModified", configManager.getLastModified());
+        }
+    }
+}
@@ -0,0 +1,606 @@
+package eu.phaf.optimizelybug.autoconfigure;
+
+import com.optimizely.ab.config.BugFixHttpProjectConfigManager;
+import eu.phaf.optimizelybug.EventRingBuffer;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * All tuning knobs of the Optimizely client, bound from {@code optimizely.*}. Unset optional values fall back to
+ * the defaults of {@link BugFixHttpProjectConfigManager.Builder}.
+ */
+@ConfigurationProperties("optimizely")
+public class OptimizelyProperties {
+
+    /**
+     * How the application starts when the datafile is not there yet.
+     */
+    public enum StartupMode {
+        /**
+         * Wait for the first datafile, up to the blocking timeout, before the context finishes starting.
+         */
+        BLOCKING,
+        /**
+         * Start right away, the health indicator reports out of service until the first datafile arrived.
+         */
+        DEFERRED
+    }
+
+    /**
+     * Sdk key of the Optimizely environment.
+     */
+    private String key;
+
+    /**
+     * Url the datafile {@code <key>.json} is fetched from, the CDN when not set.
+     */
+    private String baseUrl;
+
+    /**
+     * Directory to cache the datafile in, so startup does not wait for the CDN.
+     */
+    private Path cacheDir;
+
+    /**
+     * Don't start from a cached datafile that upstream last confirmed longer ago than this, unlimited when unset.
+     */
+    private Duration cacheMaxAge;
+
+    /**
+     * Server-Sent Events stream announcing datafile revisions, polling remains the fallback.
+     */
+    private String streamUrl;
+
+    /**
+     * Maximum silence on the connected stream, not even a heartbeat, before it is reconnected.
+     */
+    private Duration streamIdleTimeout = Duration.ofSeconds(60);
+
+    private StartupMode startupMode = StartupMode.BLOCKING;
+
+    /**
+     * Maximum time the first {@code getConfig()} waits for a datafile.
+     */
+    private Duration blockingTimeout = Duration.ofSeconds(10);
+
+    private final Polling polling = new Polling();
+    private final Fetch fetch = new Fetch();
+    private final Events events = new Events();
+
+    private final Sidecar sidecar = new Sidecar();
+
+    private final Relay relay = new Relay();
+
+    public String getKey() {
+        return key;
+    }
+
+    public void setKey(String key) {
+        this.key = key;
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    public void setBaseUrl(String baseUrl) {
+        this.baseUrl = baseUrl;
+    }
+
+    public Path getCacheDir() {
+        return cacheDir;
+    }
+
+    public void setCacheDir(Path cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    public Duration getCacheMaxAge() {
+        return cacheMaxAge;
+    }
+
+    public void setCacheMaxAge(Duration cacheMaxAge) {
+        this.cacheMaxAge = cacheMaxAge;
+    }
+
+    public String getStreamUrl() {
+        return streamUrl;
+    }
+
+    public void setStreamUrl(String streamUrl) {
+        this.streamUrl = streamUrl;
+    }
+
+    public Duration getStreamIdleTimeout() {
+        return streamIdleTimeout;
+    }
+
+    public void setStreamIdleTimeout(Duration streamIdleTimeout) {
+        this.streamIdleTimeout = streamIdleTimeout;
+    }
+
+    public StartupMode getStartupMode() {
+        return startupMode;
+    }
+
+    public void setStartupMode(StartupMode startupMode) {
+        this.startupMode = startupMode;
+    }
+
+    public Duration getBlockingTimeout() {
+        return blockingTimeout;
+    }
+
+    public void setBlockingTimeout(Duration blockingTimeout) {
+        this.blockingTimeout = blockingTimeout;
+    }
+
+    public Polling getPolling() {
+        return polling;
+    }
+
+    public Fetch getFetch() {
+        return fetch;
+    }
+
+    public Events getEvents() {
+        return events;
+    }
+
+    public Sidecar getSidecar() {
+        return sidecar;
+    }
+
+    public Relay getRelay() {
+        return relay;
+    }
+
+    public static class Polling {
+
+        private Duration interval = Duration.ofMinutes(1);
+
+        /**
+         * Jittered polling with backoff and a circuit breaker on failures, and faster polls after a change.
+         */
+        private boolean adaptive = false;
+
+        /**
+         * Total random spread of each adaptive delay, as a fraction of it.
+         */
+        private double jitter = 0.2;
+
+        private Duration maxBackoff = Duration.ofMinutes(30);
+
+        /**
+         * Consecutive failures after which adaptive polling stops fetching for the open duration.
+         */
+        private int failureThreshold = 5;
+
+        private Duration openDuration = Duration.ofMinutes(5);
+
+        /**
+         * Interval of the polls right after a change, not shortened when not set.
+         */
+        private Duration fastInterval;
+
+        private int fastPolls = 4;
+
+        /**
+         * Decide all flags of a new config for a synthetic user before publishing it.
+         */
+        private boolean warmUp = false;
+
+        private String warmUpUser = "warm-up";
+
+        /**
+         * Attributes of the synthetic warm-up user.
+         */
+        private Map<String, String> warmUpAttributes = new HashMap<>();
+
+        /**
+         * How long the replaced config is kept for rollback after an update.
+         */
+        private Duration rollbackRetention = Duration.ofMinutes(5);
+
+        public Duration getInterval() {
+            return interval;
+        }
+
+        public void setInterval(Duration interval) {
+            this.interval = interval;
+        }
+
+        public boolean isAdaptive() {
+            return adaptive;
+        }
+
+        public void setAdaptive(boolean adaptive) {
+            this.adaptive = adaptive;
+        }
+
+        public double getJitter() {
+            return jitter;
+        }
+
+        public void setJitter(double jitter) {
+            this.jitter = jitter;
+        }
+
+        public Duration getMaxBackoff() {
+            return maxBackoff;
+        }
+
+        public void setMaxBackoff(Duration maxBackoff) {
+            this.maxBackoff = maxBackoff;
+        }
+
+        public int getFailureThreshold() {
+            return failureThreshold;
+        }
+
+        public void setFailureThreshold(int failureThreshold) {
+            this.failureThreshold = failureThreshold;
+        }
+
+        public Duration getOpenDuration() {
+            return openDuration;
+        }
+
+        public void setOpenDuration(Duration openDuration) {
+            this.openDuration = openDuration;
+        }
+
+        public Duration getFastInterval() {
+            return fastInterval;
+        }
+
+        public void setFastInterval(Duration fastInterval) {
+            this.fastInterval = fastInterval;
+        }
+
+        public int getFastPolls() {
+            return fastPolls;
+        }
+
+        public void setFastPolls(int fastPolls) {
+            this.fastPolls = fastPolls;
+        }
+
+        public boolean isWarmUp() {
+            return warmUp;
+        }
+
+        public void setWarmUp(boolean warmUp) {
+            this.warmUp = warmUp;
+        }
+
+        public String getWarmUpUser() {
+            return warmUpUser;
+        }
+
+        public void setWarmUpUser(String warmUpUser) {
+            this.warmUpUser = warmUpUser;
+        }
+
+        public Map<String, String> getWarmUpAttributes() {
+            return warmUpAttributes;
+        }
+
+        public void setWarmUpAttributes(Map<String, String> warmUpAttributes) {
+            this.warmUpAttributes = warmUpAttributes;
+        }
+
+        public Duration getRollbackRetention() {
+            return rollbackRetention;
+        }
+
+        public void setRollbackRetention(Duration rollbackRetention) {
+            this.rollbackRetention = rollbackRetention;
+        }
+    }
+
+    public static class Fetch {
+
+        private BugFixHttpProjectConfigManager.FetchMode mode = BugFixHttpProjectConfigManager.FetchMode.BLOCKING;
+
+        private Duration connectTimeout;
+
+        private Duration readTimeout;
+
+        /**
+         * Hard deadline of a complete fetch in async mode.
+         */
+        private Duration deadline;
+
+        /**
+         * Connection pool size of the datafile http client.
+         */
+        private int maxConnections = 20;
+
+        /**
+         * Idle time after which pooled connections are closed.
+         */
+        private Duration evictIdle = Duration.ofMinutes(1);
+
+        private boolean etagRevalidation = true;
+
+        private boolean compression = true;
+
+        private boolean incrementalRebuild = false;
+
+        /**
+         * Index the datafile and parse each flag, audience and event on first use.
+         */
+        private boolean leanConfig = false;
+
+        public BugFixHttpProjectConfigManager.FetchMode getMode() {
+            return mode;
+        }
+
+        public void setMode(BugFixHttpProjectConfigManager.FetchMode mode) {
+            this.mode = mode;
+        }
+
+        public Duration getConnectTimeout() {
+            return connectTimeout;
+        }
+
+        public void setConnectTimeout(Duration connectTimeout) {
+            this.connectTimeout = connectTimeout;
+        }
+
+        public Duration getReadTimeout() {
+            return readTimeout;
+        }
+
+        public void setReadTimeout(Duration readTimeout) {
+            this.readTimeout = readTimeout;
+        }
+
+        public Duration getDeadline() {
+            return deadline;
+        }
+
+        public void setDeadline(Duration deadline) {
+            this.deadline = deadline;
+        }
+
+        public int getMaxConnections() {
+            return maxConnections;
+        }
+
+        public void setMaxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+        }
+
+        public Duration getEvictIdle() {
+            return evictIdle;
+        }
+
+        public void setEvictIdle(Duration evictIdle) {
+            this.evictIdle = evictIdle;
+        }
+
+        public boolean isEtagRevalidation() {
+            return etagRevalidation;
+        }
+
+        public void setEtagRevalidation(boolean etagRevalidation) {
+            this.etagRevalidation = etagRevalidation;
+        }
+
+        public boolean isCompression() {
+            return compression;
+        }
+
+        public void setCompression(boolean compression) {
+            this.compression = compression;
+        }
+
+        public boolean isIncrementalRebuild() {
+            return incrementalRebuild;
+        }
+
+        public void setIncrementalRebuild(boolean incrementalRebuild) {
+            this.incrementalRebuild = incrementalRebuild;
+        }
+
+        public boolean isLeanConfig() {
+            return leanConfig;
+        }
+
+        public void setLeanConfig(boolean leanConfig) {
+            this.leanConfig = leanConfig;
+        }
+    }
+
+    public static class Events {
+
+        private int queueCapacity = 1024;
+
+        private EventRingBuffer.DropPolicy dropPolicy = EventRingBuffer.DropPolicy.DROP_OLDEST;
+
+        private int batchSize = 10;
+
+        private Duration flushInterval = Duration.ofSeconds(30);
+
+        private boolean gzip = false;
+
+        /**
+         * Serve flags that are the same for every user without their impression events, for datafiles that send
+         * flag decisions. Datafiles that don't send them serve those flags without deciding either way.
+         */
+        private boolean skipKillSwitchImpressions = false;
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+
+        public EventRingBuffer.DropPolicy getDropPolicy() {
+            return dropPolicy;
+        }
+
+        public void setDropPolicy(EventRingBuffer.DropPolicy dropPolicy) {
+            this.dropPolicy = dropPolicy;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        public Duration getFlushInterval() {
+            return flushInterval;
+        }
+
+        public void setFlushInterval(Duration flushInterval) {
+            this.flushInterval = flushInterval;
+        }
+
+        public boolean isGzip() {
+            return gzip;
+        }
+
+        public void setGzip(boolean gzip) {
+            this.gzip = gzip;
+        }
+
+        public boolean isSkipKillSwitchImpressions() {
+            return skipKillSwitchImpressions;
+        }
+
+        public void setSkipKillSwitchImpressions(boolean skipKillSwitchImpressions) {
+            this.skipKillSwitchImpressions = skipKillSwitchImpressions;
+        }
+    }
+
+    public static class Sidecar {
+
+        /**
+         * Serve decisions and the datafile to other processes over HTTP.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Address to listen on, the loopback address when not set.
+         */
+        private String address;
+
+        private int port = 8787;
+
+        /**
+         * Request threads when virtual threads are not available.
+         */
+        private int threads = 8;
+
+        /**
+         * Relay the datafile to peers at {@code /datafiles/<key>.json}, on its own address and port. Like the
+         * other sidecar endpoints the relay doesn't authenticate its callers.
+         */
+        private boolean relayEnabled = false;
+
+        /**
+         * Address the relay listens on, the loopback address when not set.
+         */
+        private String relayAddress;
+
+        private int relayPort = 8788;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        public void setAddress(String address) {
+            this.address = address;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public void setPort(int port) {
+            this.port = port;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public void setThreads(int threads) {
+            this.threads = threads;
+        }
+
+        public boolean isRelayEnabled() {
+            return relayEnabled;
+        }
+
+        public void setRelayEnabled(boolean relayEnabled) {
+            this.relayEnabled = relayEnabled;
+        }
+
+        public String getRelayAddress() {
+            return relayAddress;
+        }
+
+        public void setRelayAddress(String relayAddress) {
+            this.relayAddress = relayAddress;
+        }
+
+        public int getRelayPort() {
+            return relayPort;
+        }
+
+        public void setRelayPort(int relayPort) {
+            this.relayPort = relayPort;
+        }
+    }
+
+    public static class Relay {
+
+        /**
+         * Url of the peer relaying the datafile {@code <key>.json}, e.g. {@code http://relay:8788/datafiles/};
+         * the datafile is fetched from upstream when not set.
+         */
+        private String baseUrl;
+
+        /**
+         * Maximum time since the relay last reached upstream, older relays are bypassed.
+         */
+        private Duration maxStaleness = Duration.ofMinutes(3);
+
+        public String getBaseUrl() {
+            return baseUrl;
+        }
+
+        public void setBaseUrl(String baseUrl) {
+            this.baseUrl = baseUrl;
+        }
+
+        public Duration getMaxStaleness() {
+            return maxStaleness;
+        }
+
+        public void setMaxStaleness(Duration maxStaleness) {
+            this.maxStaleness = maxStaleness;
+        }
+    }
+}
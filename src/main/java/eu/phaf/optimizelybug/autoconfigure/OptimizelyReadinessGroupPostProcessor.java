@@ -0,0 +1,74 @@
+package eu.phaf.optimizelybug.autoconfigure;
+
+import org.springframework.boot.actuate.endpoint.SecurityContext;
+import org.springframework.boot.actuate.health.AdditionalHealthEndpointPath;
+import org.springframework.boot.actuate.health.HealthEndpointGroup;
+import org.springframework.boot.actuate.health.HealthEndpointGroups;
+import org.springframework.boot.actuate.health.HealthEndpointGroupsPostProcessor;
+import org.springframework.boot.actuate.health.HttpCodeStatusMapper;
+import org.springframework.boot.actuate.health.StatusAggregator;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Adds the optimizely health indicator to the readiness group, so the readiness probe waits for the first
+ * datafile. Only registered together with the indicator, so the group never names a contributor that doesn't
+ * exist, e.g. when the application defines its own client.
+ */
+class OptimizelyReadinessGroupPostProcessor implements HealthEndpointGroupsPostProcessor {
+    static final String READINESS_GROUP = "readiness";
+
+    private final String indicatorName;
+
+    OptimizelyReadinessGroupPostProcessor(String indicatorName) {
+        this.indicatorName = indicatorName;
+    }
+
+    @Override
+    public HealthEndpointGroups postProcessHealthEndpointGroups(HealthEndpointGroups groups) {
+        final HealthEndpointGroup readiness = groups.get(READINESS_GROUP);
+        if (readiness == null || readiness.isMember(indicatorName)) {
+            return groups;
+        }
+        final Map<String, HealthEndpointGroup> additional = new LinkedHashMap<>();
+        for (String name : groups.getNames()) {
+            additional.put(name, groups.get(name));
+        }
+        additional.put(READINESS_GROUP, new WithMember(readiness, indicatorName));
+        return HealthEndpointGroups.of(groups.getPrimary(), additional);
+    }
+
+    private record WithMember(HealthEndpointGroup group, String member) implements HealthEndpointGroup {
+
+        @Override
+        public boolean isMember(String name) {
+            return member.equals(name) || group.isMember(name);
+        }
+
+        @Override
+        public boolean showComponents(SecurityContext securityContext) {
+            return group.showComponents(securityContext);
+        }
+
+        @Override
+        public boolean showDetails(SecurityContext securityContext) {
+            return group.showDetails(securityContext);
+        }
+
+        @Override
+        public StatusAggregator getStatusAggregator() {
+            return group.getStatusAggregator();
+        }
+
+        @Override
+        public HttpCodeStatusMapper getHttpCodeStatusMapper() {
+            return group.getHttpCodeStatusMapper();
+        }
+
+        @Override
+        public AdditionalHealthEndpointPath getAdditionalPath() {
+            return group.getAdditionalPath();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package eu.phaf.optimizelybug.autoconfigure;
+
+import com.optimizely.ab.Optimizely;
+import com.optimizely.ab.config.BugFixHttpProjectConfigManager;
+import eu.phaf.optimizelybug.sidecar.DecisionSidecar;
+import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+/**
+ * Starts the {@link DecisionSidecar} on {@code optimizely.sidecar.enabled=true}, for the client of
+ * {@link OptimizelyAutoConfiguration} or an application defined client on a {@link BugFixHttpProjectConfigManager}.
+ * The datafile relay only starts on {@code optimizely.sidecar.relay-enabled=true}.
+ */
+@AutoConfiguration(after = OptimizelyAutoConfiguration.class)
+@ConditionalOnProperty(prefix = "optimizely.sidecar", name = "enabled", havingValue = "true")
+@ConditionalOnBean({Optimizely.class, BugFixHttpProjectConfigManager.class})
+@EnableConfigurationProperties(OptimizelyProperties.class)
+public class OptimizelySidecarAutoConfiguration {
+
+    @Bean
+    @ConditionalOnMissingBean
+    public DecisionSidecar optimizelyDecisionSidecar(final OptimizelyProperties properties,
+                                                     final Optimizely optimizely,
+                                                     final BugFixHttpProjectConfigManager optimizelyConfigManager) throws IOException {
+        final OptimizelyProperties.Sidecar sidecar = properties.getSidecar();
+        final InetSocketAddress relayAddress = sidecar.isRelayEnabled()
+                ? new InetSocketAddress(address(sidecar.getRelayAddress()), sidecar.getRelayPort())
+                : null;
+        final DecisionSidecar decisionSidecar = new DecisionSidecar(optimizely, optimizelyConfigManager, properties.getKey(),
+                new InetSocketAddress(address(sidecar.getAddress()), sidecar.getPort()), relayAddress, sidecar.getThreads());
+        decisionSidecar.start();
+        return decisionSidecar;
+    }
+
+    private static InetAddress address(String address) throws IOException {
+        return address == null || address.isBlank()
+                ? InetAddress.getLoopbackAddress()
+                : InetAddress.getByName(address);
+    }
+}
@@ -0,0 +1,312 @@
+package eu.phaf.optimizelybug.sidecar;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.optimizely.ab.Optimizely;
+import com.optimizely.ab.OptimizelyUserContext;
+import com.optimizely.ab.config.BugFixHttpProjectConfigManager;
+import com.optimizely.ab.config.ProjectConfig;
+import com.optimizely.ab.config.PublishedDatafile;
+import com.optimizely.ab.optimizelydecision.OptimizelyDecideOption;
+import com.optimizely.ab.optimizelydecision.OptimizelyDecision;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Embedded HTTP server that lets other processes on the host use this application's client instead of polling
+ * the CDN and parsing the datafile themselves:
+ * <ul>
+ *     <li>{@code POST /v1/decide} decides flags for a batch of users, {@code {"users":[{"userId":"u1",
+ *     "attributes":{},"flagKeys":["a"],"options":["DISABLE_DECISION_EVENT"]}]}}; all flags when
+ *     {@code flagKeys} is absent.</li>
+ *     <li>{@code GET /v1/datafile} serves the raw datafile of the published config, with a SHA-256 ETag of its
+ *     content and {@code 304 Not Modified} for a matching {@code If-None-Match}.</li>
+ * </ul>
+ * With a relay address, a second server on that address serves {@code GET /datafiles/<sdkKey>.json}: the same
+ * datafile at a path that {@link BugFixHttpProjectConfigManager.Builder#withRelay} and {@code withFormat} can point
+ * at, which makes this instance a datafile relay for its peers. Relay responses carry the content hash and the time
+ * this instance last reached upstream, so peers can verify the datafile and detect a stale relay. None of the
+ * endpoints authenticate their callers; the relay has its own binding so it can be opened up to peers on other
+ * hosts while decisions stay on the loopback address.
+ * Requests run on virtual threads when the runtime has them, on a fixed pool otherwise.
+ */
+public class DecisionSidecar implements Closeable {
+    private final static Logger LOG = LoggerFactory.getLogger(DecisionSidecar.class);
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final int MAX_REQUEST_BYTES = 1024 * 1024;
+    static final String REVISION_HEADER = "X-Optimizely-Revision";
+
+    private final Optimizely optimizely;
+    private final BugFixHttpProjectConfigManager configManager;
+    private final String sdkKey;
+    private final InetSocketAddress address;
+    private final InetSocketAddress relayAddress;
+    private final int threads;
+    private HttpServer server;
+    private HttpServer relayServer;
+    private ExecutorService executor;
+
+    /**
+     * @param sdkKey the sdk key the datafile is relayed for
+     * @param address address to listen on, the loopback address keeps the server local to the host
+     * @param relayAddress address to relay the datafile to peers on, or null to not relay it
+     * @param threads size of the request pool when virtual threads are not available
+     */
+    public DecisionSidecar(Optimizely optimizely,
+                           BugFixHttpProjectConfigManager configManager,
+                           String sdkKey,
+                           InetSocketAddress address,
+                           InetSocketAddress relayAddress,
+                           int threads) {
+        this.optimizely = optimizely;
+        this.configManager = configManager;
+        this.sdkKey = sdkKey;
+        this.address = address;
+        this.relayAddress = relayAddress;
+        this.threads = threads;
+    }
+
+    public synchronized void start() throws IOException {
+        server = HttpServer.create(address, 0);
+        if (relayAddress != null) {
+            try {
+                relayServer = HttpServer.create(relayAddress, 0);
+            } catch (IOException e) {
+                server.stop(0);
+                throw e;
+            }
+        }
+        executor = newExecutor(threads);
+        server.setExecutor(executor);
+        server.createContext("/v1/decide", exchange -> handle(exchange, "POST", this::decide));
+        server.createContext("/v1/datafile", exchange -> handle(exchange, "GET", this::datafile));
+        server.start();
+        LOG.info("Decision sidecar listening on {}", server.getAddress());
+        if (relayServer != null) {
+            relayServer.setExecutor(executor);
+            relayServer.createContext("/datafiles/", exchange -> handle(exchange, "GET", this::relayDatafile));
+            relayServer.start();
+            LOG.info("Datafile relay for {} listening on {}", sdkKey, relayServer.getAddress());
+        }
+    }
+
+    /**
+     * @return the address the server listens on, with the actual port when it was started on port 0
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * @return the address the relay listens on, with the actual port when it was started on port 0, or null when
+     * this sidecar doesn't relay the datafile
+     */
+    public InetSocketAddress getRelayAddress() {
+        return relayServer == null ? null : relayServer.getAddress();
+    }
+
+    private static ExecutorService newExecutor(int threads) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            LOG.debug("Virtual threads not available, serving on {} platform threads", threads);
+            return Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "optimizely-sidecar");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private interface Handler {
+        void handle(HttpExchange exchange) throws IOException;
+    }
+
+    private static void handle(HttpExchange exchange, String method, Handler handler) {
+        try {
+            if (!method.equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", method);
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            handler.handle(exchange);
+        } catch (BadRequestException e) {
+            respondError(exchange, e.status, e.getMessage());
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Error handling {} {}", exchange.getRequestMethod(), exchange.getRequestURI(), e);
+            respondError(exchange, 500, "internal error");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void decide(HttpExchange exchange) throws IOException {
+        JsonNode request = readJson(exchange);
+        JsonNode users = request.path("users");
+        if (!users.isArray()) {
+            throw new BadRequestException(400, "expected a users array");
+        }
+        // the client would block until the first datafile arrived, answer right away instead
+        ProjectConfig projectConfig = configManager.getPublishedConfig();
+        if (projectConfig == null) {
+            throw new BadRequestException(503, "no datafile available yet");
+        }
+        ObjectNode response = OBJECT_MAPPER.createObjectNode();
+        response.put("revision", projectConfig.getRevision());
+        ArrayNode results = response.putArray("results");
+        for (JsonNode user : users) {
+            results.add(decideForUser(user));
+        }
+        respondJson(exchange, 200, response);
+    }
+
+    private ObjectNode decideForUser(JsonNode user) {
+        String userId = user.path("userId").asText(null);
+        if (userId == null) {
+            throw new BadRequestException(400, "every user needs a userId");
+        }
+        Map<String, Object> attributes = user.has("attributes")
+                ? OBJECT_MAPPER.convertValue(user.get("attributes"), OBJECT_MAPPER.getTypeFactory()
+                .constructMapType(HashMap.class, String.class, Object.class))
+                : Map.of();
+        List<OptimizelyDecideOption> options = new ArrayList<>();
+        for (JsonNode option : user.path("options")) {
+            try {
+                options.add(OptimizelyDecideOption.valueOf(option.asText()));
+            } catch (IllegalArgumentException e) {
+                throw new BadRequestException(400, "unknown option " + option.asText());
+            }
+        }
+
+        OptimizelyUserContext userContext = optimizely.createUserContext(userId, attributes);
+        Map<String, OptimizelyDecision> decisions;
+        if (user.has("flagKeys")) {
+            List<String> flagKeys = new ArrayList<>();
+            user.get("flagKeys").forEach(flagKey -> flagKeys.add(flagKey.asText()));
+            decisions = userContext.decideForKeys(flagKeys, options);
+        } else {
+            decisions = userContext.decideAll(options);
+        }
+
+        ObjectNode result = OBJECT_MAPPER.createObjectNode();
+        result.put("userId", userId);
+        ObjectNode flags = result.putObject("decisions");
+        decisions.forEach((flagKey, decision) -> {
+            ObjectNode flag = flags.putObject(flagKey);
+            flag.put("enabled", decision.getEnabled());
+            flag.put("variationKey", decision.getVariationKey());
+            flag.put("ruleKey", decision.getRuleKey());
+            flag.set("variables", OBJECT_MAPPER.valueToTree(decision.getVariables().toMap()));
+            flag.set("reasons", OBJECT_MAPPER.valueToTree(decision.getReasons()));
+        });
+        return result;
+    }
+
+    private void datafile(HttpExchange exchange) throws IOException {
+        PublishedDatafile datafile = configManager.getPublishedDatafile();
+        if (datafile == null) {
+            throw new BadRequestException(503, "no datafile available yet");
+        }
+        String contentHash = datafile.getContentHash();
+        exchange.getResponseHeaders().set("ETag", '"' + contentHash + '"');
+        exchange.getResponseHeaders().set(REVISION_HEADER, datafile.getConfig().getRevision());
+        exchange.getResponseHeaders().set(BugFixHttpProjectConfigManager.RELAY_CONTENT_HASH_HEADER, contentHash);
+        exchange.getResponseHeaders().set(BugFixHttpProjectConfigManager.RELAY_FETCHED_AT_HEADER,
+                Long.toString(configManager.getLastFetchedAtMillis()));
+        if (('"' + contentHash + '"').equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, datafile.length());
+        try (OutputStream body = exchange.getResponseBody()) {
+            datafile.writeTo(body);
+        }
+    }
+
+    private void relayDatafile(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestURI().getPath().equals("/datafiles/" + sdkKey + ".json")) {
+            throw new BadRequestException(404, "no datafile for " + exchange.getRequestURI().getPath());
+        }
+        datafile(exchange);
+    }
+
+    private static JsonNode readJson(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                if (body.size() + read > MAX_REQUEST_BYTES) {
+                    throw new BadRequestException(413, "request body exceeds " + MAX_REQUEST_BYTES + " bytes");
+                }
+                body.write(buffer, 0, read);
+            }
+        }
+        try {
+            return OBJECT_MAPPER.readTree(body.toByteArray());
+        } catch (IOException e) {
+            throw new BadRequestException(400, "request body is not valid json");
+        }
+    }
+
+    private static void respondJson(HttpExchange exchange, int status, JsonNode json) throws IOException {
+        byte[] body = OBJECT_MAPPER.writeValueAsBytes(json);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static void respondError(HttpExchange exchange, int status, String message) {
+        try {
+            respondJson(exchange, status, OBJECT_MAPPER.createObjectNode().put("error", message));
+        } catch (IOException e) {
+            LOG.debug("Unable to send error response", e);
+        }
+    }
+
+    private static final class BadRequestException extends RuntimeException {
+        private final int status;
+
+        private BadRequestException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (server != null) {
+            server.stop(1);
+            if (relayServer != null) {
+                relayServer.stop(1);
+            }
+            executor.shutdown();
+            try {
+                executor.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
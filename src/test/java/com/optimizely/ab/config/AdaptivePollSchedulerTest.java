@@ -0,0 +1,185 @@
+package com.optimizely.ab.config;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class AdaptivePollSchedulerTest {
+
+    private static final long PERIOD = 1_000;
+
+    private final ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+    // scheduled tasks with their delays, run by hand
+    private final Deque<Runnable> tasks = new ArrayDeque<>();
+    private final List<Long> delays = new ArrayList<>();
+    private final List<ScheduledFuture<?>> futures = new ArrayList<>();
+    private final Deque<PollOutcome> outcomes = new ArrayDeque<>();
+    private final List<AdaptivePollScheduler.CircuitState> statesDuringPoll = new ArrayList<>();
+    private AdaptivePollScheduler scheduler;
+
+    @BeforeEach
+    void captureScheduledTasks() {
+        when(executor.schedule(any(Runnable.class), anyLong(), any(TimeUnit.class))).thenAnswer(invocation -> {
+            tasks.add(invocation.getArgument(0));
+            delays.add(invocation.getArgument(1));
+            ScheduledFuture<?> future = mock(ScheduledFuture.class);
+            futures.add(future);
+            return future;
+        });
+    }
+
+    private AdaptivePollScheduler scheduler(AdaptivePollingPolicy policy) {
+        scheduler = new AdaptivePollScheduler(policy, executor, PERIOD, () -> {
+            statesDuringPoll.add(scheduler.getCircuitState());
+            return outcomes.remove();
+        });
+        return scheduler;
+    }
+
+    private static AdaptivePollingPolicy.Builder policy() {
+        return AdaptivePollingPolicy.builder()
+                .withJitter(0)
+                .withMaxBackoff(Duration.ofSeconds(5))
+                .withCircuitBreaker(4, Duration.ofMinutes(1));
+    }
+
+    private void runNext(PollOutcome outcome) {
+        outcomes.add(outcome);
+        tasks.remove().run();
+    }
+
+    private long lastDelay() {
+        return delays.get(delays.size() - 1);
+    }
+
+    @Test
+    void shouldBackOffExponentiallyUpToTheMaxBackoff() {
+        scheduler(policy().build()).start(0, 0);
+
+        runNext(PollOutcome.FAILED);
+        assertThat(lastDelay()).isEqualTo(2_000);
+        runNext(PollOutcome.FAILED);
+        assertThat(lastDelay()).isEqualTo(4_000);
+        runNext(PollOutcome.FAILED);
+        assertThat(lastDelay()).isEqualTo(5_000);
+        assertThat(scheduler.getCircuitState()).isEqualTo(AdaptivePollScheduler.CircuitState.CLOSED);
+
+        runNext(PollOutcome.NOT_MODIFIED);
+        assertThat(lastDelay()).isEqualTo(PERIOD);
+        runNext(PollOutcome.FAILED);
+        assertThat(lastDelay()).isEqualTo(2_000);
+    }
+
+    @Test
+    void shouldOpenTheCircuitAndProbeAfterTheOpenDuration() {
+        scheduler(policy().build()).start(0, 0);
+        for (int i = 0; i < 4; i++) {
+            runNext(PollOutcome.FAILED);
+        }
+        assertThat(scheduler.getCircuitState()).isEqualTo(AdaptivePollScheduler.CircuitState.OPEN);
+        assertThat(lastDelay()).isEqualTo(Duration.ofMinutes(1).toMillis());
+
+        // a failing probe keeps it open
+        runNext(PollOutcome.FAILED);
+        assertThat(statesDuringPoll.get(4)).isEqualTo(AdaptivePollScheduler.CircuitState.HALF_OPEN);
+        assertThat(scheduler.getCircuitState()).isEqualTo(AdaptivePollScheduler.CircuitState.OPEN);
+        assertThat(lastDelay()).isEqualTo(Duration.ofMinutes(1).toMillis());
+
+        // a succeeding probe closes it
+        runNext(PollOutcome.NOT_MODIFIED);
+        assertThat(statesDuringPoll.get(5)).isEqualTo(AdaptivePollScheduler.CircuitState.HALF_OPEN);
+        assertThat(scheduler.getCircuitState()).isEqualTo(AdaptivePollScheduler.CircuitState.CLOSED);
+        assertThat(lastDelay()).isEqualTo(PERIOD);
+    }
+
+    @Test
+    void shouldPollFastAfterAChange() {
+        scheduler(policy().withFastIntervalAfterChange(Duration.ofMillis(100), 2).build()).start(0, 0);
+
+        runNext(PollOutcome.UPDATED);
+        assertThat(lastDelay()).isEqualTo(100);
+        runNext(PollOutcome.NOT_MODIFIED);
+        assertThat(lastDelay()).isEqualTo(100);
+        runNext(PollOutcome.NOT_MODIFIED);
+        assertThat(lastDelay()).isEqualTo(PERIOD);
+    }
+
+    @Test
+    void shouldShiftOnlyTheDelayAfterTheFirstPollByThePhase() {
+        scheduler(policy().build()).start(0, 300);
+
+        assertThat(lastDelay()).isZero();
+        runNext(PollOutcome.NOT_MODIFIED);
+        assertThat(lastDelay()).isEqualTo(PERIOD + 300);
+        runNext(PollOutcome.NOT_MODIFIED);
+        assertThat(lastDelay()).isEqualTo(PERIOD);
+    }
+
+    @Test
+    void shouldReplaceTheScheduledPollWhenPolledNow() {
+        scheduler(policy().build()).start(0, 0);
+        runNext(PollOutcome.NOT_MODIFIED);
+        Runnable replaced = tasks.remove();
+
+        outcomes.add(PollOutcome.UPDATED);
+        scheduler.pollNow();
+
+        verify(futures.get(1)).cancel(false);
+        assertThat(statesDuringPoll).hasSize(2);
+        // the replaced poll may already be waiting for the lock, it must not poll or schedule
+        int scheduled = delays.size();
+        replaced.run();
+        assertThat(statesDuringPoll).hasSize(2);
+        assertThat(delays).hasSize(scheduled);
+    }
+
+    @Test
+    void shouldNotPollNowWhileTheCircuitIsOpen() {
+        scheduler(policy().build()).start(0, 0);
+        for (int i = 0; i < 4; i++) {
+            runNext(PollOutcome.FAILED);
+        }
+
+        scheduler.pollNow();
+
+        assertThat(statesDuringPoll).hasSize(4);
+        assertThat(scheduler.getCircuitState()).isEqualTo(AdaptivePollScheduler.CircuitState.OPEN);
+    }
+
+    @Test
+    void shouldCountFailuresOfPollsNowTowardsTheCircuit() {
+        scheduler(policy().build()).start(0, 0);
+        for (int i = 0; i < 3; i++) {
+            runNext(PollOutcome.FAILED);
+        }
+
+        outcomes.add(PollOutcome.FAILED);
+        scheduler.pollNow();
+
+        assertThat(scheduler.getCircuitState()).isEqualTo(AdaptivePollScheduler.CircuitState.OPEN);
+    }
+
+    @Test
+    void shouldSpreadTheFirstPollOverTheJitter() {
+        AdaptivePollScheduler jittered = scheduler(policy().withJitter(0.2).build());
+        for (int i = 0; i < 100; i++) {
+            assertThat(jittered.initialDelayMillis()).isBetween(0L, 200L);
+        }
+        assertThat(scheduler(policy().build()).initialDelayMillis()).isZero();
+    }
+}
@@ -0,0 +1,286 @@
+package com.optimizely.ab.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.optimizely.ab.config.parser.ConfigParseException;
+import com.optimizely.ab.notification.NotificationCenter;
+import com.optimizely.ab.notification.UpdateConfigNotification;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class BugFixHttpProjectConfigManagerTest {
+
+    private final AtomicBoolean failWarmUp = new AtomicBoolean();
+    private BugFixHttpProjectConfigManager configManager;
+    private HttpServer server;
+
+    private BugFixHttpProjectConfigManager configManager(String revision) throws IOException {
+        // nothing listens on the discard port, polls fail and keep the fallback datafile
+        configManager = BugFixHttpProjectConfigManager.builder()
+                .withUrl("http://localhost:9/FAKE_KEY.json")
+                .withDatafile(datafile(revision))
+                .withPollingInterval(1L, TimeUnit.HOURS)
+                .withRollbackRetention(Duration.ofMinutes(5))
+                .withConfigWarmer(candidate -> {
+                    if (failWarmUp.get()) {
+                        throw new IllegalStateException("warm-up failed on purpose");
+                    }
+                })
+                .build(true);
+        return configManager;
+    }
+
+    @AfterEach
+    void close() {
+        if (configManager != null) {
+            configManager.close();
+        }
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void shouldCompareNumericRevisionsOnly() {
+        assertThat(BugFixHttpProjectConfigManager.isOlder("9", "10")).isTrue();
+        assertThat(BugFixHttpProjectConfigManager.isOlder("10", "9")).isFalse();
+        assertThat(BugFixHttpProjectConfigManager.isOlder("10", "10")).isFalse();
+        assertThat(BugFixHttpProjectConfigManager.isOlder("9", "release-10")).isFalse();
+        assertThat(BugFixHttpProjectConfigManager.isOlder("", "10")).isFalse();
+    }
+
+    @Test
+    void shouldAcceptNewerRevision() throws Exception {
+        BugFixHttpProjectConfigManager manager = configManager("10");
+
+        manager.prepare(config("11"));
+    }
+
+    @Test
+    void shouldRejectMissingRevision() throws Exception {
+        BugFixHttpProjectConfigManager manager = configManager("10");
+        ProjectConfig candidate = mock(ProjectConfig.class);
+        when(candidate.getRevision()).thenReturn(null);
+
+        assertThatThrownBy(() -> manager.prepare(candidate))
+                .isInstanceOf(ConfigParseException.class)
+                .hasMessageContaining("it has no revision");
+    }
+
+    @Test
+    void shouldRejectOlderRevision() throws Exception {
+        BugFixHttpProjectConfigManager manager = configManager("10");
+
+        assertThatThrownBy(() -> manager.prepare(config("9")))
+                .isInstanceOf(ConfigParseException.class)
+                .hasMessageContaining("older than the published revision 10");
+        assertThat(manager.getPublishedConfig().getRevision()).isEqualTo("10");
+    }
+
+    @Test
+    void shouldRejectConfigThatFailsToWarmUp() throws Exception {
+        BugFixHttpProjectConfigManager manager = configManager("10");
+        failWarmUp.set(true);
+
+        assertThatThrownBy(() -> manager.prepare(config("11")))
+                .isInstanceOf(ConfigParseException.class)
+                .hasMessageContaining("warm-up failed");
+        // the rejected datafile is fetched unconditionally next time
+        assertThat(manager.getETag()).isNull();
+        assertThat(manager.getLastModified()).isNull();
+    }
+
+    @Test
+    void shouldRollBackToRetainedConfigOnce() throws Exception {
+        BugFixHttpProjectConfigManager manager = configManager("10");
+        String next = datafile("11");
+        manager.publish(config("11"), next.getBytes(StandardCharsets.UTF_8));
+
+        assertThat(manager.getPreviousConfig().getRevision()).isEqualTo("10");
+        assertThat(manager.rollback()).isTrue();
+        assertThat(manager.getPublishedConfig().getRevision()).isEqualTo("10");
+        assertThat(manager.getPublishedDatafile().getConfig().getRevision()).isEqualTo("10");
+        assertThat(manager.getPreviousConfig()).isNull();
+        assertThat(manager.rollback()).isFalse();
+    }
+
+    @Test
+    void shouldAnnounceLeanConfigsWithoutHandingThemToTheSdk() throws Exception {
+        NotificationCenter notificationCenter = new NotificationCenter();
+        AtomicInteger updates = new AtomicInteger();
+        notificationCenter.addNotificationHandler(UpdateConfigNotification.class, notification -> updates.incrementAndGet());
+        configManager = BugFixHttpProjectConfigManager.builder()
+                .withUrl("http://localhost:9/FAKE_KEY.json")
+                .withDatafile(datafile("10"))
+                .withLeanConfig(true)
+                .withNotificationCenter(notificationCenter)
+                .withPollingInterval(1L, TimeUnit.HOURS)
+                .withRollbackRetention(Duration.ofMinutes(5))
+                .build(true);
+
+        assertThat(LeanProjectConfig.isLean(configManager.getConfig())).isTrue();
+        assertThat(configManager.getCachedConfig()).isSameAs(configManager.getConfig());
+        assertThat(updates).hasValue(1);
+
+        String next = datafile("11");
+        ProjectConfig nextConfig = LeanProjectConfig.create(next.getBytes(StandardCharsets.UTF_8));
+        configManager.publish(nextConfig, next.getBytes(StandardCharsets.UTF_8));
+        configManager.setConfig(nextConfig);
+        configManager.setConfig(nextConfig);
+
+        assertThat(updates).hasValue(2);
+        assertThat(configManager.getOptimizelyConfig().getRevision()).isEqualTo("11");
+        assertThat(configManager.getOptimizelyConfig()).isSameAs(configManager.getOptimizelyConfig());
+        assertThat(configManager.getOptimizelyConfig().getFeaturesMap()).containsKeys("targetfilereceiver", "dutchreceiver");
+    }
+
+    @Test
+    void shouldSkipParsingAnUnchangedDatafile() throws Exception {
+        AtomicReference<byte[]> served = new AtomicReference<>(datafile("10").getBytes(StandardCharsets.UTF_8));
+        AtomicInteger parses = new AtomicInteger();
+        BugFixHttpProjectConfigManager manager = servingConfigManager(served, parses);
+        ProjectConfig published = manager.getConfig();
+        assertThat(parses).hasValue(1);
+
+        // same checksum and revision
+        manager.refresh();
+
+        assertThat(parses).hasValue(1);
+        assertThat(manager.getFetchStats().getParseSkipped()).isEqualTo(1);
+        assertThat(manager.getConfig()).isSameAs(published);
+
+        // another checksum, but the published revision
+        served.set(prettyDatafile("10"));
+        manager.refresh();
+
+        assertThat(parses).hasValue(1);
+        assertThat(manager.getFetchStats().getParseSkipped()).isEqualTo(2);
+        assertThat(manager.getConfig()).isSameAs(published);
+
+        served.set(datafile("11").getBytes(StandardCharsets.UTF_8));
+        manager.refresh();
+
+        assertThat(parses).hasValue(2);
+        assertThat(manager.getConfig().getRevision()).isEqualTo("11");
+    }
+
+    @Test
+    void shouldNotLetThePooledBufferLeakIntoThePublishedDatafile() throws Exception {
+        // larger than the initial buffer, so the pooled reader grows and keeps the tail of this body
+        byte[] large = (datafile("10") + " ".repeat(200 * 1024)).getBytes(StandardCharsets.UTF_8);
+        AtomicReference<byte[]> served = new AtomicReference<>(large);
+        BugFixHttpProjectConfigManager manager = servingConfigManager(served, new AtomicInteger());
+        assertThat(publishedBytes(manager)).isEqualTo(large);
+
+        byte[] small = datafile("11").getBytes(StandardCharsets.UTF_8);
+        served.set(small);
+        manager.refresh();
+
+        assertThat(publishedBytes(manager)).isEqualTo(small);
+        assertThat(manager.getConfig().getRevision()).isEqualTo("11");
+
+        // a skipped poll reads into the same buffer, the published copy stays as it was
+        served.set(prettyDatafile("11"));
+        manager.refresh();
+
+        assertThat(manager.getFetchStats().getParseSkipped()).isEqualTo(1);
+        assertThat(publishedBytes(manager)).isEqualTo(small);
+    }
+
+    @Test
+    void shouldCallEveryPollListener() throws Exception {
+        List<String> published = new ArrayList<>();
+        DatafilePollListener first = recordingPublications("first", published);
+        DatafilePollListener second = recordingPublications("second", published);
+        configManager = BugFixHttpProjectConfigManager.builder()
+                .withUrl("http://localhost:9/FAKE_KEY.json")
+                .withPollingInterval(1L, TimeUnit.HOURS)
+                .withPollListener(DatafilePollListener.of(List.of(first, second)))
+                .build(true);
+
+        configManager.publish(config("10"), datafile("10").getBytes(StandardCharsets.UTF_8));
+
+        assertThat(published).containsExactly("first:10", "second:10");
+        assertThat(DatafilePollListener.of(List.of())).isSameAs(DatafilePollListener.NOOP);
+        assertThat(DatafilePollListener.of(List.of(first))).isSameAs(first);
+    }
+
+    private BugFixHttpProjectConfigManager servingConfigManager(AtomicReference<byte[]> served, AtomicInteger parses) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/FAKE_KEY.json", exchange -> {
+            byte[] body = served.get();
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        configManager = BugFixHttpProjectConfigManager.builder()
+                .withUrl("http://localhost:" + server.getAddress().getPort() + "/FAKE_KEY.json")
+                .withPollingInterval(1L, TimeUnit.HOURS)
+                .withPollListener(new DatafilePollListener() {
+                    @Override
+                    public void onParse(long parseNanos) {
+                        parses.incrementAndGet();
+                    }
+                })
+                .build();
+        return configManager;
+    }
+
+    private static byte[] publishedBytes(BugFixHttpProjectConfigManager manager) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        manager.getPublishedDatafile().writeTo(out);
+        return out.toByteArray();
+    }
+
+    private static DatafilePollListener recordingPublications(String name, List<String> published) {
+        return new DatafilePollListener() {
+            @Override
+            public void onPublish(ProjectConfig projectConfig) {
+                published.add(name + ":" + projectConfig.getRevision());
+            }
+        };
+    }
+
+    private static ProjectConfig config(String revision) throws IOException, ConfigParseException {
+        return BugFixHttpProjectConfigManager.parseProjectConfig(datafile(revision));
+    }
+
+    private static byte[] prettyDatafile(String revision) throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        return objectMapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(objectMapper.readTree(datafile(revision)));
+    }
+
+    private static String datafile(String revision) throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        ObjectNode datafile;
+        try (InputStream in = new ClassPathResource("datafiles/config_stress.json").getInputStream()) {
+            datafile = (ObjectNode) objectMapper.readTree(in);
+        }
+        datafile.put("revision", revision);
+        return objectMapper.writeValueAsString(datafile);
+    }
+}
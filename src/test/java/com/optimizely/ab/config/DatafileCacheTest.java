@@ -0,0 +1,77 @@
+package com.optimizely.ab.config;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DatafileCacheTest {
+
+    private static final String DATAFILE = "{\"revision\":\"42\"}";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void shouldLoadStoredDatafileWithValidators() {
+        new DatafileCache(directory, "FAKE_KEY", null).store(datafile(DATAFILE), "Mon, 01 Jan 2024 00:00:00 GMT", "\"v1\"");
+
+        DatafileCache.Entry entry = new DatafileCache(directory, "FAKE_KEY", null).load();
+
+        assertThat(entry).isNotNull();
+        assertThat(entry.getDatafile().asString()).isEqualTo(DATAFILE);
+        assertThat(entry.getLastModified()).isEqualTo("Mon, 01 Jan 2024 00:00:00 GMT");
+        assertThat(entry.getETag()).isEqualTo("\"v1\"");
+    }
+
+    @Test
+    void shouldIgnoreDatafileOlderThanMaxAge() throws InterruptedException {
+        new DatafileCache(directory, "FAKE_KEY", null).store(datafile(DATAFILE), null, "\"v1\"");
+        Thread.sleep(20);
+
+        assertThat(new DatafileCache(directory, "FAKE_KEY", Duration.ofMillis(10)).load()).isNull();
+        assertThat(new DatafileCache(directory, "FAKE_KEY", Duration.ofMinutes(1)).load()).isNotNull();
+    }
+
+    @Test
+    void shouldStoreFreshValidatorsWhenParseIsSkipped() {
+        DatafileCache cache = new DatafileCache(directory, "FAKE_KEY", null);
+        cache.store(datafile(DATAFILE), null, "\"v1\"");
+
+        cache.refresh(datafile(DATAFILE), null, "\"v2\"");
+
+        assertThat(new DatafileCache(directory, "FAKE_KEY", null).load().getETag()).isEqualTo("\"v2\"");
+    }
+
+    @Test
+    void shouldExtendAgeOnConfirmation() throws InterruptedException {
+        DatafileCache cache = new DatafileCache(directory, "FAKE_KEY", Duration.ofMillis(200));
+        cache.store(datafile(DATAFILE), null, "\"v1\"");
+        Thread.sleep(150);
+
+        cache.confirm(null, "\"v1\"");
+        Thread.sleep(100);
+
+        assertThat(new DatafileCache(directory, "FAKE_KEY", Duration.ofMillis(200)).load()).isNotNull();
+    }
+
+    @Test
+    void shouldNotTakeUpstreamValidatorsForARelayedDatafile() {
+        DatafileCache cache = new DatafileCache(directory, "FAKE_KEY", null);
+        cache.storeUnvalidated(datafile(DATAFILE));
+
+        cache.confirm(null, "\"upstream\"");
+
+        DatafileCache.Entry entry = new DatafileCache(directory, "FAKE_KEY", null).load();
+        assertThat(entry.getDatafile().asString()).isEqualTo(DATAFILE);
+        assertThat(entry.getETag()).isNull();
+    }
+
+    private static DatafileReader datafile(String content) {
+        return DatafileReader.wrap(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,77 @@
+package com.optimizely.ab.config;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.CRC32C;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DatafileReaderTest {
+
+    @Test
+    void shouldPoolOneReaderPerThread() throws Exception {
+        DatafileReader reader = DatafileReader.pooled();
+
+        assertThat(DatafileReader.pooled()).isSameAs(reader);
+        assertThat(CompletableFuture.supplyAsync(DatafileReader::pooled).get()).isNotSameAs(reader);
+    }
+
+    @Test
+    void shouldOnlyExposeTheLastReadWhenReusingTheBuffer() throws IOException {
+        String large = "{\"revision\":\"10\",\"padding\":\"" + "x".repeat(200 * 1024) + "\"}";
+        String small = "{\"revision\":\"11\"}";
+        DatafileReader reader = DatafileReader.unpooled();
+
+        reader.read(stream(large), large.length());
+        byte[] largeCopy = reader.toByteArray();
+        String largeString = reader.asString();
+        reader.read(stream(small), small.length());
+
+        // the buffer still holds the tail of the large datafile, none of it may show
+        assertThat(reader.array().length).isGreaterThan(small.length());
+        assertThat(reader.length()).isEqualTo(small.length());
+        assertThat(reader.asString()).isEqualTo(small);
+        assertThat(reader.toByteArray()).isEqualTo(small.getBytes(StandardCharsets.UTF_8));
+        assertThat(reader.revision()).isEqualTo("11");
+        assertThat(reader.checksum()).isEqualTo(crc(small));
+        // what was taken of the previous read outlives it
+        assertThat(largeCopy).isEqualTo(large.getBytes(StandardCharsets.UTF_8));
+        assertThat(largeString).isEqualTo(large);
+    }
+
+    @Test
+    void shouldGrowWhenTheLengthIsUnknown() throws IOException {
+        String datafile = "{\"revision\":\"12\",\"padding\":\"" + "x".repeat(300 * 1024) + "\"}";
+
+        DatafileReader reader = DatafileReader.unpooled().read(stream(datafile), -1);
+
+        assertThat(reader.asString()).isEqualTo(datafile);
+        assertThat(reader.checksum()).isEqualTo(crc(datafile));
+    }
+
+    @Test
+    void shouldReadTheTopLevelRevisionOnly() throws IOException {
+        assertThat(DatafileReader.wrap(bytes("{\"experiments\":[{\"revision\":\"1\"}],\"revision\":\"13\"}")).revision())
+                .isEqualTo("13");
+        assertThat(DatafileReader.wrap(bytes("{\"experiments\":[{\"revision\":\"1\"}]}")).revision()).isNull();
+        assertThat(DatafileReader.wrap(bytes("{\"revision\":{\"id\":\"14\"}}")).revision()).isNull();
+    }
+
+    private static ByteArrayInputStream stream(String content) {
+        return new ByteArrayInputStream(bytes(content));
+    }
+
+    private static byte[] bytes(String content) {
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static long crc(String content) {
+        CRC32C crc = new CRC32C();
+        crc.update(bytes(content));
+        return crc.getValue();
+    }
+}
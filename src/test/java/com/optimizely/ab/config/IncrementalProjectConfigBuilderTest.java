@@ -0,0 +1,114 @@
+package com.optimizely.ab.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IncrementalProjectConfigBuilderTest {
+
+    private static final String TARGETFILERECEIVER = "targetfilereceiver";
+    private static final String DUTCHRECEIVER = "dutchreceiver";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final IncrementalProjectConfigBuilder builder = new IncrementalProjectConfigBuilder();
+    private ObjectNode datafile;
+
+    @BeforeEach
+    void readDatafile() throws IOException {
+        try (InputStream in = new ClassPathResource("datafiles/config_stress.json").getInputStream()) {
+            datafile = (ObjectNode) objectMapper.readTree(in);
+        }
+    }
+
+    @Test
+    void shouldReparseOnlyTheChangedFlag() throws Exception {
+        ProjectConfig first = build(null);
+        disableEveryoneRollout();
+        datafile.put("revision", "1001");
+
+        ProjectConfig second = build(first);
+
+        assertThat(second.getRevision()).isEqualTo("1001");
+        assertThat(flag(second, DUTCHRECEIVER)).isSameAs(flag(first, DUTCHRECEIVER));
+        assertThat(second.getRolloutIdMapping().get(rolloutId(DUTCHRECEIVER)))
+                .isSameAs(first.getRolloutIdMapping().get(rolloutId(DUTCHRECEIVER)));
+        assertThat(second.getRolloutIdMapping().get(rolloutId(TARGETFILERECEIVER)))
+                .isNotSameAs(first.getRolloutIdMapping().get(rolloutId(TARGETFILERECEIVER)));
+        assertThat(everyoneVariation(second).getFeatureEnabled()).isFalse();
+        assertThat(everyoneVariation(first).getFeatureEnabled()).isTrue();
+        // the settings come from the previous config, not from the partial datafile
+        assertThat(second.getAudienceIdMapping()).containsKey("23900060001");
+        assertThat(second.getAttributeKeyMapping()).containsKey("country");
+        assertThat(second.getAnonymizeIP()).isTrue();
+    }
+
+    @Test
+    void shouldMatchAFullParse() throws Exception {
+        ProjectConfig first = build(null);
+        disableEveryoneRollout();
+        datafile.put("revision", "1001");
+
+        ProjectConfig rebuilt = build(first);
+        ProjectConfig parsed = BugFixHttpProjectConfigManager.parseProjectConfig(datafile.toString());
+
+        assertThat(rebuilt.getFeatureKeyMapping().keySet()).isEqualTo(parsed.getFeatureKeyMapping().keySet());
+        assertThat(rebuilt.getRolloutIdMapping().keySet()).isEqualTo(parsed.getRolloutIdMapping().keySet());
+        assertThat(rebuilt.getExperimentKeyMapping().keySet()).isEqualTo(parsed.getExperimentKeyMapping().keySet());
+        assertThat(everyoneVariation(rebuilt).getFeatureEnabled()).isEqualTo(everyoneVariation(parsed).getFeatureEnabled());
+    }
+
+    @Test
+    void shouldParseFullyWhenSettingsChange() throws Exception {
+        ProjectConfig first = build(null);
+        datafile.put("anonymizeIP", false);
+        datafile.put("revision", "1001");
+
+        ProjectConfig second = build(first);
+
+        assertThat(second.getAnonymizeIP()).isFalse();
+        assertThat(flag(second, DUTCHRECEIVER)).isNotSameAs(flag(first, DUTCHRECEIVER));
+    }
+
+    @Test
+    void shouldParseFullyOnTopOfAConfigItDidNotBuild() throws Exception {
+        build(null);
+        ProjectConfig other = BugFixHttpProjectConfigManager.parseProjectConfig(datafile.toString());
+        datafile.put("revision", "1001");
+
+        ProjectConfig second = build(other);
+
+        assertThat(second.getRevision()).isEqualTo("1001");
+        assertThat(flag(second, DUTCHRECEIVER)).isNotSameAs(flag(other, DUTCHRECEIVER));
+    }
+
+    private ProjectConfig build(ProjectConfig current) throws Exception {
+        return builder.build(DatafileReader.wrap(objectMapper.writeValueAsBytes(datafile)), current);
+    }
+
+    // turns the only rule of the targetfilereceiver rollout off
+    private void disableEveryoneRollout() {
+        ArrayNode rollouts = (ArrayNode) datafile.get("rollouts");
+        ((ObjectNode) rollouts.get(0).path("experiments").get(0).path("variations").get(0)).put("featureEnabled", false);
+    }
+
+    private static Variation everyoneVariation(ProjectConfig projectConfig) {
+        return projectConfig.getRolloutIdMapping().get(rolloutId(TARGETFILERECEIVER)).getExperiments().get(0)
+                .getVariations().get(0);
+    }
+
+    private static FeatureFlag flag(ProjectConfig projectConfig, String key) {
+        return projectConfig.getFeatureKeyMapping().get(key);
+    }
+
+    private static String rolloutId(String flagKey) {
+        return TARGETFILERECEIVER.equals(flagKey) ? "rollout-101942-23928970095" : "rollout-101943-23928970096";
+    }
+}
@@ -0,0 +1,154 @@
+package com.optimizely.ab.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.optimizely.ab.error.NoOpErrorHandler;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares every getter of a {@link LeanProjectConfig} with a {@link DatafileProjectConfig} of the same datafile,
+ * with the top level keys in datafile order and reversed, e.g. {@code audiences} after {@code typedAudiences}.
+ */
+class LeanProjectConfigTest {
+
+    private static final String TYPED_AUDIENCE_ID = "23920020002";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void shouldAnswerTheSettingsLikeAFullParse(boolean reversed) throws Exception {
+        String datafile = datafile(reversed);
+        ProjectConfig lean = LeanProjectConfig.create(datafile.getBytes(StandardCharsets.UTF_8));
+        ProjectConfig full = BugFixHttpProjectConfigManager.parseProjectConfig(datafile);
+
+        assertThat(LeanProjectConfig.isLean(lean)).isTrue();
+        assertThat(lean.getAccountId()).isEqualTo(full.getAccountId());
+        assertThat(lean.getProjectId()).isEqualTo(full.getProjectId());
+        assertThat(lean.getVersion()).isEqualTo(full.getVersion());
+        assertThat(lean.getRevision()).isEqualTo(full.getRevision());
+        assertThat(lean.getSdkKey()).isEqualTo(full.getSdkKey());
+        assertThat(lean.getEnvironmentKey()).isEqualTo(full.getEnvironmentKey());
+        assertThat(lean.getSendFlagDecisions()).isEqualTo(full.getSendFlagDecisions());
+        assertThat(lean.getAnonymizeIP()).isEqualTo(full.getAnonymizeIP());
+        assertThat(lean.getBotFiltering()).isEqualTo(full.getBotFiltering());
+        assertThat(lean.getHostForODP()).isEqualTo(full.getHostForODP());
+        assertThat(lean.getPublicKeyForODP()).isEqualTo(full.getPublicKeyForODP());
+        assertThat(lean.getAllSegments()).isEqualTo(full.getAllSegments());
+        assertThat(lean.toDatafile()).isEqualTo(datafile);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void shouldAnswerTheLookupsLikeAFullParse(boolean reversed) throws Exception {
+        String datafile = datafile(reversed);
+        ProjectConfig lean = LeanProjectConfig.create(datafile.getBytes(StandardCharsets.UTF_8));
+        ProjectConfig full = BugFixHttpProjectConfigManager.parseProjectConfig(datafile);
+
+        assertThat(lean.getFeatureKeyMapping()).usingRecursiveComparison().isEqualTo(full.getFeatureKeyMapping());
+        assertThat(lean.getRolloutIdMapping()).usingRecursiveComparison().isEqualTo(full.getRolloutIdMapping());
+        assertThat(lean.getExperimentIdMapping()).usingRecursiveComparison().isEqualTo(full.getExperimentIdMapping());
+        assertThat(lean.getExperimentKeyMapping()).usingRecursiveComparison().isEqualTo(full.getExperimentKeyMapping());
+        assertThat(lean.getGroupIdMapping()).usingRecursiveComparison().isEqualTo(full.getGroupIdMapping());
+        assertThat(lean.getAudienceIdMapping()).usingRecursiveComparison().isEqualTo(full.getAudienceIdMapping());
+        assertThat(lean.getAttributeKeyMapping()).usingRecursiveComparison().isEqualTo(full.getAttributeKeyMapping());
+        assertThat(lean.getEventNameMapping()).usingRecursiveComparison().isEqualTo(full.getEventNameMapping());
+        assertThat(lean.getFlagVariationsMap()).usingRecursiveComparison().isEqualTo(full.getFlagVariationsMap());
+
+        for (String audienceId : List.of("23920020001", TYPED_AUDIENCE_ID, "23920020003", "unknown")) {
+            assertThat(lean.getAudience(audienceId)).usingRecursiveComparison().isEqualTo(full.getAudience(audienceId));
+        }
+        for (String experimentKey : List.of("checkout_experiment", "grouped_experiment", "unknown")) {
+            assertThat(lean.getExperimentForKey(experimentKey, new NoOpErrorHandler()))
+                    .usingRecursiveComparison()
+                    .isEqualTo(full.getExperimentForKey(experimentKey, new NoOpErrorHandler()));
+        }
+        for (String eventKey : List.of("click", "unknown")) {
+            assertThat(lean.getEventTypeForName(eventKey, new NoOpErrorHandler()))
+                    .usingRecursiveComparison()
+                    .isEqualTo(full.getEventTypeForName(eventKey, new NoOpErrorHandler()));
+        }
+        for (String attributeKey : List.of("country", "plan", "$opt_bot_filtering", "unknown")) {
+            assertThat(lean.getAttributeId(lean, attributeKey)).isEqualTo(full.getAttributeId(full, attributeKey));
+        }
+        for (String[] flagAndVariation : List.of(
+                new String[]{"checkout", "treatment"},
+                new String[]{"checkout", "off"},
+                new String[]{"grouped", "grouped_on"},
+                new String[]{"targeted", "on"},
+                new String[]{"targeted", "unknown"},
+                new String[]{"unknown", "on"})) {
+            assertThat(lean.getFlagVariationByKey(flagAndVariation[0], flagAndVariation[1]))
+                    .usingRecursiveComparison()
+                    .isEqualTo(full.getFlagVariationByKey(flagAndVariation[0], flagAndVariation[1]));
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void shouldAnswerTheEntityListsLikeAFullParse(boolean reversed) throws Exception {
+        String datafile = datafile(reversed);
+        ProjectConfig lean = LeanProjectConfig.create(datafile.getBytes(StandardCharsets.UTF_8));
+        ProjectConfig full = BugFixHttpProjectConfigManager.parseProjectConfig(datafile);
+
+        assertThat(lean.getFeatureFlags()).usingRecursiveComparison().isEqualTo(full.getFeatureFlags());
+        assertThat(lean.getRollouts()).usingRecursiveComparison().isEqualTo(full.getRollouts());
+        assertThat(lean.getExperiments()).usingRecursiveComparison().isEqualTo(full.getExperiments());
+        assertThat(lean.getGroups()).usingRecursiveComparison().isEqualTo(full.getGroups());
+        assertThat(lean.getAudiences()).usingRecursiveComparison().isEqualTo(full.getAudiences());
+        assertThat(lean.getTypedAudiences()).usingRecursiveComparison().isEqualTo(full.getTypedAudiences());
+        assertThat(lean.getAttributes()).usingRecursiveComparison().isEqualTo(full.getAttributes());
+        assertThat(lean.getEventTypes()).usingRecursiveComparison().isEqualTo(full.getEventTypes());
+        assertThat(lean.getIntegrations()).usingRecursiveComparison().isEqualTo(full.getIntegrations());
+        assertThat(lean.getExperimentsForEventKey("click")).usingRecursiveComparison()
+                .isEqualTo(full.getExperimentsForEventKey("click"));
+        assertThat(lean.getExperimentFeatureKeyMapping()).usingRecursiveComparison()
+                .isEqualTo(full.getExperimentFeatureKeyMapping());
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void shouldPreferTheTypedAudienceWhicheverArrayComesFirst(boolean reversed) throws Exception {
+        ProjectConfig lean = LeanProjectConfig.create(datafile(reversed).getBytes(StandardCharsets.UTF_8));
+
+        // the plain entry only holds the dummy condition that never matches
+        assertThat(lean.getAudience(TYPED_AUDIENCE_ID).getConditions().toString())
+                .contains("BE")
+                .doesNotContain("$opt_dummy_attribute");
+    }
+
+    private String datafile(boolean reversed) throws IOException {
+        ObjectNode datafile;
+        try (InputStream in = new ClassPathResource("datafiles/lean_parity.json").getInputStream()) {
+            datafile = (ObjectNode) objectMapper.readTree(in);
+        }
+        assertThat(fieldNames(datafile).indexOf("audiences")).isLessThan(fieldNames(datafile).indexOf("typedAudiences"));
+        if (!reversed) {
+            return objectMapper.writeValueAsString(datafile);
+        }
+        List<String> fieldNames = fieldNames(datafile);
+        Collections.reverse(fieldNames);
+        ObjectNode reversedDatafile = objectMapper.createObjectNode();
+        for (String fieldName : fieldNames) {
+            reversedDatafile.set(fieldName, datafile.get(fieldName));
+        }
+        return objectMapper.writeValueAsString(reversedDatafile);
+    }
+
+    private static List<String> fieldNames(ObjectNode node) {
+        List<String> fieldNames = new ArrayList<>();
+        node.fieldNames().forEachRemaining(fieldNames::add);
+        return fieldNames;
+    }
+}
@@ -0,0 +1,69 @@
+package com.optimizely.ab.config;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ProjectConfigManagerRegistryTest {
+
+    private final AtomicInteger created = new AtomicInteger();
+    // nothing listens on the discard port, polls fail right away
+    private final ProjectConfigManagerRegistry registry = ProjectConfigManagerRegistry.builder()
+            .withPollingInterval(1L, TimeUnit.HOURS)
+            .withManagerCustomizer(builder -> {
+                created.incrementAndGet();
+                builder.withFormat("http://localhost:9/%s.json");
+            })
+            .build();
+
+    @AfterEach
+    void close() {
+        registry.close();
+    }
+
+    @Test
+    void shouldCreateOneManagerPerKeyForConcurrentCallers() throws Exception {
+        int callers = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<BugFixHttpProjectConfigManager>> managers = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                managers.add(executor.submit(() -> {
+                    start.await();
+                    return registry.get("FAKE_KEY");
+                }));
+            }
+            start.countDown();
+
+            BugFixHttpProjectConfigManager first = managers.get(0).get(10, TimeUnit.SECONDS);
+            for (Future<BugFixHttpProjectConfigManager> manager : managers) {
+                assertThat(manager.get(10, TimeUnit.SECONDS)).isSameAs(first);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(created).hasValue(1);
+        assertThat(registry.getManagers()).hasSize(1);
+    }
+
+    @Test
+    void shouldCreateAManagerPerKey() {
+        BugFixHttpProjectConfigManager first = registry.get("FIRST_KEY");
+        BugFixHttpProjectConfigManager second = registry.get("SECOND_KEY");
+
+        assertThat(first).isNotSameAs(second);
+        assertThat(registry.get("FIRST_KEY")).isSameAs(first);
+        assertThat(registry.getManagers()).containsExactlyInAnyOrder(first, second);
+    }
+}
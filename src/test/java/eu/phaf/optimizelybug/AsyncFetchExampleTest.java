@@ -0,0 +1,49 @@
+package eu.phaf.optimizelybug;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.optimizely.ab.config.BugFixHttpProjectConfigManager;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.contract.wiremock.AutoConfigureWireMock;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+@SpringBootTest(properties = "optimizely.fetch.mode=async")
+@AutoConfigureWireMock(port = 0)
+@ActiveProfiles("working")
+class AsyncFetchExampleTest {
+
+    @Autowired
+    private WireMockServer wireMockServer;
+    @Autowired
+    private BugFixHttpProjectConfigManager configManager;
+
+    @Test
+    void shouldNotReportFailedFetchesAsFresh() {
+        configManager.getConfig();
+        await()
+                .atMost(Duration.ofSeconds(10))
+                .until(() -> configManager.getLastFetchedAtMillis() > 0);
+        long fetchedAt = configManager.getLastFetchedAtMillis();
+        long failures = configManager.getFetchStats().getFailures();
+        wireMockServer.stubFor(WireMock.get(WireMock.urlPathEqualTo("/optimizely/FAKE_KEY.json"))
+                .atPriority(1)
+                .willReturn(WireMock.aResponse().withStatus(500)));
+
+        // a refresh is skipped while the previous fetch is still completing, so keep asking
+        await()
+                .atMost(Duration.ofSeconds(10))
+                .until(() -> {
+                    configManager.refresh();
+                    return configManager.getFetchStats().getFailures() > failures;
+                });
+        // a relay hands this on to its peers, their staleness fallback depends on it
+        assertThat(configManager.getLastFetchedAtMillis()).isEqualTo(fetchedAt);
+    }
+}
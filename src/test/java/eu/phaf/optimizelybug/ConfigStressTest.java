@@ -0,0 +1,367 @@
+package eu.phaf.optimizelybug;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.MappingBuilder;
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.stubbing.Scenario;
+import com.optimizely.ab.Optimizely;
+import com.optimizely.ab.OptimizelyHttpClient;
+import com.optimizely.ab.OptimizelyUserContext;
+import com.optimizely.ab.config.BugFixHttpProjectConfigManager;
+import com.optimizely.ab.config.DatafilePollListener;
+import com.optimizely.ab.config.ProjectConfig;
+import com.optimizely.ab.event.LogEvent;
+import com.optimizely.ab.notification.UpdateConfigNotification;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.cloud.contract.wiremock.AutoConfigureWireMock;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+/**
+ * Stress harness for config publication (https://github.com/optimizely/java-sdk/issues/526): reader threads
+ * call {@code getConfig()} and check a flag that is the same for everyone through {@link OptimizelyFeatureToggle}
+ * and an audience-targeted flag through {@code decide()}, while every poll serves a new revision that flips both
+ * flags. Every reader has to see revisions in order, decide according to the revision it observed, and pick up a
+ * published revision within the staleness bound. The SDK has to hand out its revisions and send its update
+ * notifications in order as well. Throughput and read latency percentiles are logged, to compare changes to
+ * the publication path.
+ * <p>
+ * The staleness bound defaults to four polling intervals, set {@code config-stress.max-staleness} to override it
+ * on slow machines.
+ */
+@SpringBootTest(properties = {"optimizely.polling.interval=50ms", "optimizely.events.skip-kill-switch-impressions=true"})
+@AutoConfigureWireMock(port = 0)
+@ActiveProfiles("working")
+class ConfigStressTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConfigStressTest.class);
+    private static final int READERS = 16;
+    private static final int REVISIONS = 40;
+    private static final int FIRST_REVISION = 1000;
+    private static final String TARGETED_FLAG = "dutchreceiver";
+    private static final Map<String, Object> DUTCH = Map.of("country", "NL");
+    // latency samples kept per reader, operations beyond it are still counted
+    private static final int MAX_SAMPLES = 1 << 17;
+
+    @Autowired
+    private WireMockServer wireMockServer;
+    @Autowired
+    private BugFixHttpProjectConfigManager configManager;
+    @Autowired
+    private OptimizelyFeatureToggle optimizelyFeatureToggle;
+    @Autowired
+    private FeatureToggleService featureToggleService;
+    @Autowired
+    private Optimizely optimizely;
+    @Autowired
+    private PublishTimeline publishTimeline;
+    @Value("${optimizely.polling.interval}")
+    private Duration pollInterval;
+    @Value("${config-stress.max-staleness:0}")
+    private Duration configuredMaxStaleness;
+
+    @TestConfiguration
+    static class TimelineConfiguration {
+        @Bean
+        @Primary
+        PublishTimeline publishTimeline() {
+            return new PublishTimeline();
+        }
+
+        // every targeted check sends an impression, keep them off the network
+        @Bean
+        HttpEventHandler optimizelyEventHandler() {
+            return new HttpEventHandler(OptimizelyHttpClient.builder().build(), false) {
+                @Override
+                public void dispatchEvent(LogEvent logEvent) {
+                }
+            };
+        }
+    }
+
+    /**
+     * Records when each revision was published, right after the manager swapped it in.
+     */
+    static class PublishTimeline implements DatafilePollListener {
+        private final List<long[]> published = new ArrayList<>();
+
+        @Override
+        public synchronized void onPublish(ProjectConfig projectConfig) {
+            published.add(new long[]{System.nanoTime(), Long.parseLong(projectConfig.getRevision())});
+        }
+
+        synchronized List<long[]> snapshot() {
+            return new ArrayList<>(published);
+        }
+    }
+
+    private static final class Reader implements Runnable {
+        private final ConfigStressTest test;
+        private final CountDownLatch start;
+        private final AtomicBoolean stop;
+        private final Map<Long, Boolean> expectedEnabled;
+        private final OptimizelyUserContext dutchUser;
+        private final long[] latencies = new long[MAX_SAMPLES];
+        // read start and observed revision of every revision change this reader saw
+        private final List<long[]> observations = new ArrayList<>();
+        private final List<String> violations = new ArrayList<>();
+        private long operations;
+        private long lastRevision = -1;
+        private long lastSdkRevision = -1;
+
+        private Reader(ConfigStressTest test, CountDownLatch start, AtomicBoolean stop, Map<Long, Boolean> expectedEnabled,
+                       String userId) {
+            this.test = test;
+            this.start = start;
+            this.stop = stop;
+            this.expectedEnabled = expectedEnabled;
+            this.dutchUser = test.featureToggleService.userContext(userId, DUTCH);
+        }
+
+        @Override
+        public void run() {
+            try {
+                start.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            while (!stop.get()) {
+                long readStart = System.nanoTime();
+                long before = Long.parseLong(test.configManager.getConfig().getRevision());
+                boolean enabled = test.optimizelyFeatureToggle.checkFeatureToggle();
+                boolean targetedEnabled = test.featureToggleService.isEnabled(dutchUser, TARGETED_FLAG);
+                long after = Long.parseLong(test.configManager.getConfig().getRevision());
+                long latency = System.nanoTime() - readStart;
+                long sdkRevision = Long.parseLong(test.optimizely.getOptimizelyConfig().getRevision());
+
+                if (before < lastRevision || after < before) {
+                    violations.add("revision went back: " + lastRevision + " -> " + before + " -> " + after);
+                }
+                if (sdkRevision < lastSdkRevision) {
+                    violations.add("optimizely config went back: " + lastSdkRevision + " -> " + sdkRevision);
+                }
+                lastSdkRevision = sdkRevision;
+                // a decision between two reads of the same revision was made on that revision
+                Boolean expected = expectedEnabled.get(before);
+                if (before == after && expected != null && expected != enabled) {
+                    violations.add("revision " + before + " decided " + enabled);
+                }
+                // the targeted flag is enabled for the audience exactly when the everyone flag is not
+                if (before == after && expected != null && expected == targetedEnabled) {
+                    violations.add("revision " + before + " decided " + targetedEnabled + " for " + TARGETED_FLAG);
+                }
+                if (before != lastRevision) {
+                    observations.add(new long[]{readStart, before});
+                }
+                if (after != before) {
+                    observations.add(new long[]{readStart + latency, after});
+                }
+                lastRevision = after;
+                if (operations < MAX_SAMPLES) {
+                    latencies[(int) operations] = latency;
+                }
+                operations++;
+            }
+        }
+    }
+
+    @Test
+    void shouldNeverServeStaleOrOutOfOrderConfigs() throws Exception {
+        List<Long> notifiedRevisions = new ArrayList<>();
+        optimizely.getNotificationCenter().addNotificationHandler(UpdateConfigNotification.class, notification -> {
+            synchronized (notifiedRevisions) {
+                notifiedRevisions.add(Long.parseLong(optimizely.getOptimizelyConfig().getRevision()));
+            }
+        });
+        Map<Long, Boolean> expectedEnabled = stubFlippingRevisions();
+        // readers start on the stress datafile, the targeted flag doesn't exist before it
+        await()
+                .atMost(Duration.ofSeconds(10))
+                .until(() -> Long.parseLong(configManager.getConfig().getRevision()) >= FIRST_REVISION);
+        Duration maxStaleness = configuredMaxStaleness.isZero() ? pollInterval.multipliedBy(4) : configuredMaxStaleness;
+
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean stop = new AtomicBoolean(false);
+        List<Reader> readers = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < READERS; i++) {
+            Reader reader = new Reader(this, start, stop, expectedEnabled, "config-stress-user-" + i);
+            readers.add(reader);
+            Thread thread = new Thread(reader, "config-stress-" + i);
+            threads.add(thread);
+            thread.start();
+        }
+
+        long startNanos = System.nanoTime();
+        start.countDown();
+        long lastRevision = FIRST_REVISION + REVISIONS - 1;
+        await()
+                .atMost(Duration.ofSeconds(60))
+                .until(() -> Long.parseLong(configManager.getConfig().getRevision()) == lastRevision);
+        // let every reader observe the final revision
+        Thread.sleep(maxStaleness.toMillis() * 2);
+        stop.set(true);
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+
+        List<long[]> published = publishTimeline.snapshot();
+        assertNoLostUpdates(published, lastRevision);
+
+        List<String> violations = new ArrayList<>();
+        long maxStalenessNanos = 0;
+        for (Reader reader : readers) {
+            violations.addAll(reader.violations);
+            assertThat(reader.lastRevision).isEqualTo(lastRevision);
+            assertThat(reader.lastSdkRevision).isEqualTo(lastRevision);
+            maxStalenessNanos = Math.max(maxStalenessNanos, maxStaleness(reader.observations, published));
+        }
+        assertThat(violations).isEmpty();
+        synchronized (notifiedRevisions) {
+            assertThat(notifiedRevisions).isSorted().doesNotHaveDuplicates().endsWith(lastRevision);
+        }
+
+        report(readers, elapsedNanos, maxStalenessNanos);
+        assertThat(Duration.ofNanos(maxStalenessNanos)).isLessThanOrEqualTo(maxStaleness);
+    }
+
+    /**
+     * Every poll serves the next revision, alternating the flags between enabled and disabled, and the last
+     * revision is answered with 304 from then on. The stubs are registered last to first, so a poll never
+     * finds the chain incomplete.
+     *
+     * @return whether the everyone flag is enabled per revision, the targeted flag is the opposite
+     */
+    private Map<Long, Boolean> stubFlippingRevisions() throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        ObjectNode template;
+        try (InputStream in = new ClassPathResource("datafiles/config_stress.json").getInputStream()) {
+            template = (ObjectNode) objectMapper.readTree(in);
+        }
+        Map<Long, Boolean> expectedEnabled = new HashMap<>();
+
+        List<MappingBuilder> stubs = new ArrayList<>();
+        String state = Scenario.STARTED;
+        for (int i = 0; i < REVISIONS; i++) {
+            long revision = FIRST_REVISION + i;
+            boolean enabled = i % 2 == 0;
+            ObjectNode datafile = template.deepCopy();
+            datafile.put("revision", Long.toString(revision));
+            firstVariation(datafile, 0).put("featureEnabled", enabled);
+            firstVariation(datafile, 1).put("featureEnabled", !enabled);
+            expectedEnabled.put(revision, enabled);
+            String nextState = "revision " + (revision + 1);
+            stubs.add(WireMock.get(WireMock.urlPathEqualTo("/optimizely/FAKE_KEY.json"))
+                    .atPriority(1)
+                    .inScenario("Config stress")
+                    .whenScenarioStateIs(state)
+                    .willSetStateTo(nextState)
+                    .willReturn(WireMock.okJson(objectMapper.writeValueAsString(datafile))));
+            state = nextState;
+        }
+        stubs.add(WireMock.get(WireMock.urlPathEqualTo("/optimizely/FAKE_KEY.json"))
+                .atPriority(1)
+                .inScenario("Config stress")
+                .whenScenarioStateIs(state)
+                .willReturn(WireMock.aResponse().withStatus(304)));
+        for (int i = stubs.size() - 1; i >= 0; i--) {
+            wireMockServer.stubFor(stubs.get(i));
+        }
+        return expectedEnabled;
+    }
+
+    // the variation of the first rule of a rollout
+    private static ObjectNode firstVariation(ObjectNode datafile, int rollout) {
+        return (ObjectNode) datafile.path("rollouts").path(rollout).path("experiments").path(0).path("variations").path(0);
+    }
+
+    private static void assertNoLostUpdates(List<long[]> published, long lastRevision) {
+        List<Long> revisions = new ArrayList<>();
+        for (long[] publication : published) {
+            revisions.add(publication[1]);
+        }
+        assertThat(revisions).isSorted().doesNotHaveDuplicates();
+        for (long revision = FIRST_REVISION; revision <= lastRevision; revision++) {
+            assertThat(revisions).contains(revision);
+        }
+    }
+
+    /**
+     * @return the longest time a reader kept observing a revision after a newer one had been published
+     */
+    private static long maxStaleness(List<long[]> observations, List<long[]> published) {
+        long maxStaleness = 0;
+        for (int i = 0; i < observations.size(); i++) {
+            long revision = observations.get(i)[1];
+            // the reader moved on at its next observation, or is still on it at the end of the run
+            long movedOnAt = i + 1 < observations.size() ? observations.get(i + 1)[0] : Long.MAX_VALUE;
+            for (long[] publication : published) {
+                if (publication[1] > revision) {
+                    if (movedOnAt != Long.MAX_VALUE && movedOnAt > publication[0]) {
+                        maxStaleness = Math.max(maxStaleness, movedOnAt - publication[0]);
+                    }
+                    break;
+                }
+            }
+        }
+        return maxStaleness;
+    }
+
+    private static void report(List<Reader> readers, long elapsedNanos, long maxStalenessNanos) {
+        long operations = 0;
+        int samples = 0;
+        for (Reader reader : readers) {
+            operations += reader.operations;
+            samples += (int) Math.min(reader.operations, MAX_SAMPLES);
+        }
+        long[] latencies = new long[samples];
+        int offset = 0;
+        for (Reader reader : readers) {
+            int count = (int) Math.min(reader.operations, MAX_SAMPLES);
+            System.arraycopy(reader.latencies, 0, latencies, offset, count);
+            offset += count;
+        }
+        Arrays.sort(latencies);
+        LOG.info("config stress: {} readers, {} operations in {} ms, {} ops/s",
+                readers.size(), operations, TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+                Math.round(operations / (elapsedNanos / 1e9)));
+        LOG.info("read latency ns: p50={} p90={} p99={} p99.9={} max={}",
+                percentile(latencies, 0.5), percentile(latencies, 0.9), percentile(latencies, 0.99),
+                percentile(latencies, 0.999), latencies.length == 0 ? 0 : latencies[latencies.length - 1]);
+        LOG.info("max staleness: {} us", TimeUnit.NANOSECONDS.toMicros(maxStalenessNanos));
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1)];
+    }
+}
@@ -0,0 +1,180 @@
+package eu.phaf.optimizelybug;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EventRingBufferTest {
+
+    private record Signal(String name) {
+    }
+
+    private static final Signal FLUSH = new Signal("flush");
+    private static final Signal SHUTDOWN = new Signal("shutdown");
+
+    private static EventRingBuffer buffer(int capacity, EventRingBuffer.DropPolicy dropPolicy) {
+        return new EventRingBuffer(capacity, dropPolicy, Signal.class::isInstance);
+    }
+
+    private static List<Object> drain(EventRingBuffer buffer) {
+        List<Object> drained = new ArrayList<>();
+        buffer.drainTo(drained);
+        return drained;
+    }
+
+    @Test
+    void shouldRoundCapacityUpToAPowerOfTwo() {
+        assertThat(buffer(5, EventRingBuffer.DropPolicy.DROP_NEWEST).capacity()).isEqualTo(8);
+        assertThat(buffer(8, EventRingBuffer.DropPolicy.DROP_NEWEST).capacity()).isEqualTo(8);
+    }
+
+    @Test
+    void shouldKeepOrderAcrossWraparound() {
+        EventRingBuffer buffer = buffer(4, EventRingBuffer.DropPolicy.DROP_NEWEST);
+        List<Object> expected = new ArrayList<>();
+        List<Object> polled = new ArrayList<>();
+        for (int i = 0; i < 20; i += 3) {
+            for (int j = i; j < i + 3; j++) {
+                assertThat(buffer.offer(j)).isTrue();
+                expected.add(j);
+            }
+            polled.add(buffer.poll());
+            polled.addAll(drain(buffer));
+        }
+
+        assertThat(polled).isEqualTo(expected);
+        assertThat(buffer.isEmpty()).isTrue();
+        assertThat(buffer.getAccepted()).isEqualTo(21);
+        assertThat(buffer.getDropped()).isZero();
+    }
+
+    @Test
+    void shouldRejectNewestWhenFull() {
+        EventRingBuffer buffer = buffer(4, EventRingBuffer.DropPolicy.DROP_NEWEST);
+        for (int i = 0; i < 4; i++) {
+            assertThat(buffer.offer(i)).isTrue();
+        }
+
+        assertThat(buffer.offer(4)).isFalse();
+        assertThat(buffer.getDropped()).isEqualTo(1);
+        assertThat(drain(buffer)).containsExactly(0, 1, 2, 3);
+    }
+
+    @Test
+    void shouldTimeOutOfferWhenFull() throws InterruptedException {
+        EventRingBuffer buffer = buffer(2, EventRingBuffer.DropPolicy.DROP_NEWEST);
+        buffer.offer(0);
+        buffer.offer(1);
+
+        assertThat(buffer.offer(2, 10, TimeUnit.MILLISECONDS)).isFalse();
+        assertThat(buffer.getDropped()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldEvictOldestWhenFull() {
+        EventRingBuffer buffer = buffer(4, EventRingBuffer.DropPolicy.DROP_OLDEST);
+        for (int i = 0; i < 6; i++) {
+            assertThat(buffer.offer(i)).isTrue();
+        }
+
+        assertThat(buffer.getDropped()).isEqualTo(2);
+        assertThat(drain(buffer)).containsExactly(2, 3, 4, 5);
+    }
+
+    @Test
+    void shouldKeepEvictedSignalsAheadOfNewerEvents() {
+        EventRingBuffer buffer = buffer(4, EventRingBuffer.DropPolicy.DROP_OLDEST);
+        buffer.offer(FLUSH);
+        for (int i = 0; i < 8; i++) {
+            buffer.offer(i);
+        }
+
+        assertThat(buffer).contains(FLUSH);
+        assertThat(buffer.getDropped()).isEqualTo(4);
+        assertThat(drain(buffer)).containsExactly(FLUSH, 4, 5, 6, 7);
+    }
+
+    @Test
+    void shouldEvictEventsButNotSignalsForASignalWhenFull() throws InterruptedException {
+        EventRingBuffer buffer = buffer(4, EventRingBuffer.DropPolicy.DROP_OLDEST);
+        buffer.offer(FLUSH);
+        for (int i = 0; i < 3; i++) {
+            buffer.offer(i);
+        }
+
+        buffer.put(SHUTDOWN);
+
+        assertThat(buffer.getDropped()).isZero();
+        assertThat(drain(buffer)).containsExactly(FLUSH, 0, 1, 2, SHUTDOWN);
+    }
+
+    @Test
+    void shouldWaitForRoomForASignalWhenFull() throws Exception {
+        EventRingBuffer buffer = buffer(2, EventRingBuffer.DropPolicy.DROP_NEWEST);
+        buffer.offer(0);
+        buffer.offer(1);
+
+        CompletableFuture<Boolean> flush = CompletableFuture.supplyAsync(() -> buffer.add(FLUSH));
+        Thread.sleep(50);
+        assertThat(flush).isNotDone();
+
+        assertThat(buffer.poll(1, TimeUnit.SECONDS)).isEqualTo(0);
+        assertThat(flush.get(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(buffer.getDropped()).isZero();
+        assertThat(drain(buffer)).containsExactly(1, FLUSH);
+    }
+
+    @Test
+    void shouldWakeWaitingConsumer() throws Exception {
+        EventRingBuffer buffer = buffer(4, EventRingBuffer.DropPolicy.DROP_NEWEST);
+        CompletableFuture<Object> consumer = CompletableFuture.supplyAsync(() -> {
+            try {
+                return buffer.poll(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(50);
+        buffer.offer(SHUTDOWN);
+
+        assertThat(consumer.get(5, TimeUnit.SECONDS)).isEqualTo(SHUTDOWN);
+    }
+
+    @Test
+    void shouldIterateWithoutConsuming() {
+        EventRingBuffer buffer = buffer(4, EventRingBuffer.DropPolicy.DROP_NEWEST);
+        buffer.offer(0);
+        buffer.offer(1);
+        buffer.poll();
+        buffer.offer(2);
+        buffer.offer(FLUSH);
+
+        assertThat(buffer).containsExactly(1, 2, FLUSH);
+        assertThat(buffer.toArray()).containsExactly(1, 2, FLUSH);
+        assertThat(buffer.toString()).isEqualTo("[1, 2, Signal[name=flush]]");
+        assertThat(buffer.peek()).isEqualTo(1);
+        assertThat(buffer).hasSize(3);
+    }
+
+    @Test
+    void shouldRemoveThroughIterator() {
+        EventRingBuffer buffer = buffer(4, EventRingBuffer.DropPolicy.DROP_NEWEST);
+        buffer.offer(0);
+        buffer.offer(1);
+        buffer.offer(2);
+
+        assertThat(buffer.remove(1)).isTrue();
+        assertThat(buffer.remove(3)).isFalse();
+        Iterator<Object> iterator = buffer.iterator();
+        iterator.next();
+        iterator.remove();
+
+        assertThat(drain(buffer)).containsExactly(2);
+    }
+}
@@ -0,0 +1,145 @@
+package eu.phaf.optimizelybug;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.optimizely.ab.Optimizely;
+import com.optimizely.ab.OptimizelyDecisionContext;
+import com.optimizely.ab.OptimizelyForcedDecision;
+import com.optimizely.ab.OptimizelyUserContext;
+import com.optimizely.ab.config.BugFixHttpProjectConfigManager;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs the service against a real client on a manager that polls a local server, to change the datafile on demand.
+ */
+class FeatureToggleServiceTest {
+
+    private static final String EVERYONE_FLAG = "targetfilereceiver";
+    private static final String EVERYONE_RULE = "default-rollout-101942-23928970095";
+    private static final String TARGETED_FLAG = "dutchreceiver";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private ObjectNode datafile;
+    private volatile byte[] served;
+    private HttpServer server;
+    private BugFixHttpProjectConfigManager configManager;
+    private Optimizely optimizely;
+    private FeatureToggleService featureToggleService;
+
+    @BeforeEach
+    void start() throws IOException {
+        try (InputStream in = new ClassPathResource("datafiles/config_stress.json").getInputStream()) {
+            datafile = (ObjectNode) objectMapper.readTree(in);
+        }
+        // a second variation that no traffic goes to, to force decisions to
+        ((ArrayNode) everyoneRule().path("variations")).addObject()
+                .put("id", "324029").put("key", "off").put("featureEnabled", false).putArray("variables");
+        serve("1000");
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/FAKE_KEY.json", exchange -> {
+            byte[] body = served;
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+
+        configManager = BugFixHttpProjectConfigManager.builder()
+                .withUrl("http://localhost:" + server.getAddress().getPort() + "/FAKE_KEY.json")
+                .withPollingInterval(1L, TimeUnit.HOURS)
+                .build();
+        optimizely = Optimizely.builder()
+                .withConfigManager(configManager)
+                .withEventHandler(logEvent -> { })
+                .build();
+        featureToggleService = new FeatureToggleService(
+                new StaticListableBeanFactory(Map.of("optimizely", optimizely)).getBeanProvider(Optimizely.class),
+                new OptimizelyMetrics(),
+                false);
+    }
+
+    @AfterEach
+    void stop() {
+        optimizely.close();
+        server.stop(0);
+    }
+
+    @Test
+    void shouldDecideFlagsForTheirUsers() {
+        assertThat(featureToggleService.isEnabled(EVERYONE_FLAG)).isTrue();
+        assertThat(featureToggleService.isEnabled(TARGETED_FLAG, "user-42", Map.of("country", "NL"))).isTrue();
+        assertThat(featureToggleService.isEnabled(TARGETED_FLAG, "user-42", Map.of("country", "BE"))).isFalse();
+
+        OptimizelyUserContext dutchUser = featureToggleService.userContext("user-42", Map.of("country", "NL"));
+        assertThat(featureToggleService.decide(dutchUser, List.of(EVERYONE_FLAG, TARGETED_FLAG)))
+                .hasSize(2)
+                .allSatisfy((flagKey, decision) -> assertThat(decision.getEnabled()).isTrue());
+    }
+
+    @Test
+    void shouldServeTheNewRevisionAfterAConfigUpdate() throws IOException {
+        assertThat(featureToggleService.isEnabled(EVERYONE_FLAG)).isTrue();
+
+        ((ObjectNode) everyoneRule().path("variations").get(0)).put("featureEnabled", false);
+        serve("1001");
+        configManager.refresh();
+
+        assertThat(optimizely.getProjectConfig().getRevision()).isEqualTo("1001");
+        assertThat(featureToggleService.isEnabled(EVERYONE_FLAG)).isFalse();
+        assertThat(featureToggleService.decide(List.of(EVERYONE_FLAG)).get(EVERYONE_FLAG).getEnabled()).isFalse();
+    }
+
+    @Test
+    void shouldHonourAForcedDecisionForTheFlag() {
+        OptimizelyUserContext user = featureToggleService.userContext("user-42", Map.of());
+        assertThat(featureToggleService.isEnabled(user, EVERYONE_FLAG)).isTrue();
+
+        user.setForcedDecision(new OptimizelyDecisionContext(EVERYONE_FLAG, null), new OptimizelyForcedDecision("off"));
+
+        assertThat(featureToggleService.isEnabled(user, EVERYONE_FLAG)).isFalse();
+        assertThat(featureToggleService.decide(user, List.of(EVERYONE_FLAG)).get(EVERYONE_FLAG).getVariationKey())
+                .isEqualTo("off");
+        // users without it still get the decision for everyone
+        assertThat(featureToggleService.isEnabled(EVERYONE_FLAG)).isTrue();
+    }
+
+    @Test
+    void shouldHonourAForcedDecisionForTheRule() {
+        OptimizelyUserContext user = featureToggleService.userContext("user-42", Map.of());
+
+        user.setForcedDecision(new OptimizelyDecisionContext(EVERYONE_FLAG, EVERYONE_RULE), new OptimizelyForcedDecision("off"));
+
+        assertThat(featureToggleService.isEnabled(user, EVERYONE_FLAG)).isFalse();
+        assertThat(featureToggleService.decide(user, List.of(EVERYONE_FLAG)).get(EVERYONE_FLAG).getVariationKey())
+                .isEqualTo("off");
+    }
+
+    private ObjectNode everyoneRule() {
+        return (ObjectNode) datafile.path("rollouts").get(0).path("experiments").get(0);
+    }
+
+    private void serve(String revision) throws IOException {
+        datafile.put("revision", revision);
+        served = objectMapper.writeValueAsBytes(datafile);
+    }
+}
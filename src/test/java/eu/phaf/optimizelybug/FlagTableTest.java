@@ -0,0 +1,146 @@
+package eu.phaf.optimizelybug;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.optimizely.ab.Optimizely;
+import com.optimizely.ab.OptimizelyUserContext;
+import com.optimizely.ab.config.BugFixHttpProjectConfigManager;
+import com.optimizely.ab.config.DatafileProjectConfig;
+import com.optimizely.ab.config.LeanProjectConfig;
+import com.optimizely.ab.config.ProjectConfig;
+import com.optimizely.ab.optimizelydecision.OptimizelyDecision;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FlagTableTest {
+
+    private static final String EVERYONE_FLAG = "targetfilereceiver";
+    private static final String EVERYONE_RULE = "default-rollout-101942-23928970095";
+    private static final String TARGETED_FLAG = "dutchreceiver";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private ObjectNode datafile;
+    private Optimizely optimizely;
+
+    @BeforeEach
+    void readDatafile() throws IOException {
+        try (InputStream in = new ClassPathResource("datafiles/config_stress.json").getInputStream()) {
+            datafile = (ObjectNode) objectMapper.readTree(in);
+        }
+        // a variable on the flag that is the same for everyone, the rule overrides its default
+        ((ObjectNode) datafile.path("featureFlags").get(0)).putArray("variables").addObject()
+                .put("id", "501942").put("key", "limit").put("type", "integer").put("defaultValue", "10");
+        ((ObjectNode) everyoneRule().path("variations").get(0)).putArray("variables").addObject()
+                .put("id", "501942").put("value", "20");
+    }
+
+    @AfterEach
+    void close() {
+        if (optimizely != null) {
+            optimizely.close();
+        }
+    }
+
+    @Test
+    void shouldOnlyTreatFlagsDecidedAlikeForEveryoneAsUserIndependent() throws Exception {
+        ProjectConfig projectConfig = parse();
+
+        assertThat(FlagTable.isUserIndependent(projectConfig, EVERYONE_FLAG)).isTrue();
+        assertThat(FlagTable.isUserIndependent(projectConfig, TARGETED_FLAG)).isFalse();
+        assertThat(FlagTable.isUserIndependent(projectConfig, "unknown")).isFalse();
+    }
+
+    @Test
+    void shouldNotTreatPartialRolloutsAsUserIndependent() throws Exception {
+        ((ObjectNode) everyoneRule().path("trafficAllocation").get(0)).put("endOfRange", 5000);
+
+        assertThat(FlagTable.isUserIndependent(parse(), EVERYONE_FLAG)).isFalse();
+    }
+
+    @Test
+    void shouldNotTreatPausedRulesAsUserIndependent() throws Exception {
+        everyoneRule().put("status", "Paused");
+
+        assertThat(FlagTable.isUserIndependent(parse(), EVERYONE_FLAG)).isFalse();
+    }
+
+    @Test
+    void shouldDecideUserIndependentFlagsUpFront() throws Exception {
+        ProjectConfig projectConfig = optimizely(false).getProjectConfig();
+
+        FlagTable table = FlagTable.build(optimizely, projectConfig);
+
+        assertThat(table.isFor(projectConfig)).isTrue();
+        assertDecidedUpFront(table);
+    }
+
+    @Test
+    void shouldResolveFlagsOfALeanConfigOnFirstLookup() throws Exception {
+        ProjectConfig projectConfig = optimizely(true).getProjectConfig();
+        assertThat(LeanProjectConfig.isLean(projectConfig)).isTrue();
+
+        FlagTable table = FlagTable.build(optimizely, projectConfig);
+
+        assertThat(table.isFor(projectConfig)).isTrue();
+        assertDecidedUpFront(table);
+    }
+
+    private void assertDecidedUpFront(FlagTable table) {
+        assertThat(table.size()).isEqualTo(2);
+        assertThat(table.indexOf("unknown")).isNegative();
+
+        int targeted = table.indexOf(TARGETED_FLAG);
+        assertThat(table.isUserIndependent(targeted)).isFalse();
+
+        int everyone = table.indexOf(EVERYONE_FLAG);
+        assertThat(table.isUserIndependent(everyone)).isTrue();
+        assertThat(table.isEnabled(everyone)).isTrue();
+        assertThat(table.ruleKey(everyone)).isEqualTo(EVERYONE_RULE);
+        int limit = table.variableIndexOf(everyone, "limit");
+        assertThat(table.variableType(everyone, limit)).isEqualTo(FlagTable.TYPE_INTEGER);
+        assertThat(table.getInteger(everyone, limit)).isEqualTo(20);
+        assertThat(table.variableIndexOf(everyone, "unknown")).isNegative();
+
+        OptimizelyUserContext user = optimizely.createUserContext("user-42", Map.of());
+        OptimizelyDecision decision = table.decision(everyone, user);
+        assertThat(decision.getFlagKey()).isEqualTo(EVERYONE_FLAG);
+        assertThat(decision.getRuleKey()).isEqualTo(EVERYONE_RULE);
+        assertThat(decision.getEnabled()).isTrue();
+        assertThat(decision.getUserContext()).isSameAs(user);
+        assertThat(decision.getVariables().toMap()).containsEntry("limit", 20);
+        // callers get their own variables
+        assertThat(decision.getVariables()).isNotSameAs(table.decision(everyone, user).getVariables());
+    }
+
+    private ObjectNode everyoneRule() {
+        return (ObjectNode) datafile.path("rollouts").get(0).path("experiments").get(0);
+    }
+
+    private ProjectConfig parse() throws Exception {
+        return new DatafileProjectConfig.Builder().withDatafile(objectMapper.writeValueAsString(datafile)).build();
+    }
+
+    private Optimizely optimizely(boolean lean) throws Exception {
+        // nothing listens on the discard port, polls fail and keep the fallback datafile
+        BugFixHttpProjectConfigManager configManager = BugFixHttpProjectConfigManager.builder()
+                .withUrl("http://localhost:9/FAKE_KEY.json")
+                .withDatafile(objectMapper.writeValueAsString(datafile))
+                .withLeanConfig(lean)
+                .withPollingInterval(1L, TimeUnit.HOURS)
+                .build(true);
+        optimizely = Optimizely.builder()
+                .withConfigManager(configManager)
+                .withEventHandler(logEvent -> { })
+                .build();
+        return optimizely;
+    }
+}
@@ -0,0 +1,65 @@
+package eu.phaf.optimizelybug;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.optimizely.ab.config.BugFixHttpProjectConfigManager;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.contract.wiremock.AutoConfigureWireMock;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+@AutoConfigureWireMock(port = 0)
+@ActiveProfiles("working")
+class GzipFetchExampleTest {
+
+    @Autowired
+    private WireMockServer wireMockServer;
+    @Autowired
+    private BugFixHttpProjectConfigManager configManager;
+
+    @Test
+    void shouldCountCompressedBytes() throws IOException {
+        configManager.getConfig();
+        byte[] compressed = gzippedDatafile("77");
+        wireMockServer.stubFor(WireMock.get(WireMock.urlPathEqualTo("/optimizely/FAKE_KEY.json"))
+                .atPriority(1)
+                .withHeader("Accept-Encoding", WireMock.equalTo("gzip"))
+                .willReturn(WireMock.aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withHeader("Content-Encoding", "gzip")
+                        .withBody(compressed)));
+        long bytesBefore = configManager.getFetchStats().getBytesReceived();
+
+        configManager.refresh();
+
+        assertThat(configManager.getConfig().getRevision()).isEqualTo("77");
+        assertThat(configManager.getFetchStats().getBytesReceived() - bytesBefore).isEqualTo(compressed.length);
+    }
+
+    private static byte[] gzippedDatafile(String revision) throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        ObjectNode datafile;
+        try (InputStream in = new ClassPathResource("mappings/optimizely_enabled.json").getInputStream()) {
+            datafile = (ObjectNode) objectMapper.readTree(in).path("response").path("jsonBody");
+        }
+        datafile.put("revision", revision);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(objectMapper.writeValueAsBytes(datafile));
+        }
+        return compressed.toByteArray();
+    }
+}
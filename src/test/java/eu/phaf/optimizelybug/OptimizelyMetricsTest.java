@@ -0,0 +1,143 @@
+package eu.phaf.optimizelybug;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.optimizely.ab.config.DatafileProjectConfig;
+import com.optimizely.ab.config.ProjectConfig;
+import com.optimizely.ab.config.parser.ConfigParseException;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OptimizelyMetricsTest {
+
+    private static final String FLAG = "targetfilereceiver";
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final OptimizelyMetrics metrics = new OptimizelyMetrics();
+
+    @Test
+    void shouldIgnoreDecisionsBeforeBinding() {
+        metrics.recordDecide(FLAG, 1_000);
+        metrics.bindTo(registry);
+
+        assertThat(registry.find("optimizely.decide").timers()).isEmpty();
+    }
+
+    @Test
+    void shouldReuseOneTimerPerPublishedFlag() throws Exception {
+        metrics.bindTo(registry);
+        metrics.onPublish(config("10"));
+
+        metrics.recordDecide(FLAG, 1_000);
+        Timer timer = registry.get("optimizely.decide").tag("flag", FLAG).timer();
+        metrics.recordDecide(FLAG, 3_000);
+
+        assertThat(registry.get("optimizely.decide").tag("flag", FLAG).timer()).isSameAs(timer);
+        assertThat(timer.count()).isEqualTo(2);
+        assertThat(timer.totalTime(TimeUnit.NANOSECONDS)).isEqualTo(4_000);
+    }
+
+    @Test
+    void shouldShareTheUnknownTimerForKeysOutsideThePublishedConfig() throws Exception {
+        metrics.bindTo(registry);
+        metrics.recordDecide(FLAG, 1_000);
+        metrics.onPublish(config("10"));
+        metrics.recordDecide("no-such-flag", 1_000);
+        metrics.recordDecide("another-missing-flag", 1_000);
+
+        assertThat(registry.get("optimizely.decide").tag("flag", "unknown").timer().count()).isEqualTo(3);
+        assertThat(registry.find("optimizely.decide").tag("flag", "no-such-flag").timer()).isNull();
+
+        // a key that wasn't published yet gets its own timer once it is
+        metrics.recordDecide(FLAG, 1_000);
+
+        assertThat(registry.get("optimizely.decide").tag("flag", FLAG).timer().count()).isEqualTo(1);
+        assertThat(registry.find("optimizely.decide").timers()).hasSize(2);
+    }
+
+    @Test
+    void shouldOnlyResetStalenessOnCurrentDatafileResponses() throws Exception {
+        metrics.bindTo(registry);
+        assertThat(staleness()).isGreaterThanOrEqualTo(0).isLessThan(5_000);
+
+        Thread.sleep(50);
+        metrics.onResponse(500, 0, 1_000_000);
+        assertThat(staleness()).isGreaterThanOrEqualTo(50);
+
+        metrics.onResponse(304, 0, 1_000_000);
+        assertThat(staleness()).isLessThan(50);
+
+        Thread.sleep(50);
+        metrics.onResponse(200, 1_234, 1_000_000);
+        assertThat(staleness()).isLessThan(50);
+    }
+
+    @Test
+    void shouldCountStalenessFromStartupWithoutAnyResponse() throws Exception {
+        metrics.bindTo(registry);
+        Thread.sleep(50);
+
+        assertThat(staleness()).isGreaterThanOrEqualTo(50);
+        assertThat(registry.get("optimizely.config.age").timeGauge().value(TimeUnit.MILLISECONDS)).isNaN();
+        assertThat(registry.get("optimizely.config.revision").gauge().value()).isNaN();
+
+        metrics.onPublish(config("42"));
+
+        assertThat(registry.get("optimizely.config.age").timeGauge().value(TimeUnit.MILLISECONDS)).isLessThan(5_000);
+        assertThat(registry.get("optimizely.config.revision").gauge().value()).isEqualTo(42);
+    }
+
+    @Test
+    void shouldRecordFailuresWithTheirLatency() {
+        metrics.bindTo(registry);
+
+        metrics.onFailure(new SocketTimeoutException("read timed out"), TimeUnit.MILLISECONDS.toNanos(7));
+        metrics.onFailure(new SocketTimeoutException("read timed out"), TimeUnit.MILLISECONDS.toNanos(3));
+
+        assertThat(registry.get("optimizely.datafile.failures").tag("exception", "SocketTimeoutException").counter().count())
+                .isEqualTo(2);
+        Timer errors = registry.get("optimizely.datafile.fetch").tag("status", "error").timer();
+        assertThat(errors.count()).isEqualTo(2);
+        assertThat(errors.totalTime(TimeUnit.MILLISECONDS)).isEqualTo(10);
+        assertThat(errors.max(TimeUnit.MILLISECONDS)).isEqualTo(7);
+    }
+
+    @Test
+    void shouldRecordResponsesAndParsesByStatus() {
+        metrics.bindTo(registry);
+
+        metrics.onResponse(200, 1_234, TimeUnit.MILLISECONDS.toNanos(4));
+        metrics.onResponse(304, 0, TimeUnit.MILLISECONDS.toNanos(1));
+        metrics.onParse(TimeUnit.MILLISECONDS.toNanos(2));
+
+        assertThat(registry.get("optimizely.datafile.fetch").tag("status", "200").timer().count()).isEqualTo(1);
+        assertThat(registry.get("optimizely.datafile.fetch").tag("status", "304").timer().count()).isEqualTo(1);
+        // responses without a body don't count as a datafile size
+        assertThat(registry.get("optimizely.datafile.bytes").summary().count()).isEqualTo(1);
+        assertThat(registry.get("optimizely.datafile.bytes").summary().totalAmount()).isEqualTo(1_234);
+        assertThat(registry.get("optimizely.datafile.parse").timer().totalTime(TimeUnit.MILLISECONDS)).isEqualTo(2);
+    }
+
+    private double staleness() {
+        return registry.get("optimizely.datafile.staleness").timeGauge().value(TimeUnit.MILLISECONDS);
+    }
+
+    private static ProjectConfig config(String revision) throws IOException, ConfigParseException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        ObjectNode datafile;
+        try (InputStream in = new ClassPathResource("datafiles/config_stress.json").getInputStream()) {
+            datafile = (ObjectNode) objectMapper.readTree(in);
+        }
+        datafile.put("revision", revision);
+        return new DatafileProjectConfig.Builder().withDatafile(objectMapper.writeValueAsString(datafile)).build();
+    }
+}
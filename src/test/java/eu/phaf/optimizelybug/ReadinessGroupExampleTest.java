@@ -0,0 +1,30 @@
+package eu.phaf.optimizelybug;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.health.HealthEndpointGroup;
+import org.springframework.boot.actuate.health.HealthEndpointGroups;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.contract.wiremock.AutoConfigureWireMock;
+import org.springframework.test.context.ActiveProfiles;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+@AutoConfigureWireMock(port = 0)
+@ActiveProfiles("working")
+class ReadinessGroupExampleTest {
+
+    @Autowired
+    private HealthEndpointGroups healthEndpointGroups;
+
+    @Test
+    void shouldWaitForTheDatafileWhenReady() {
+        HealthEndpointGroup readiness = healthEndpointGroups.get("readiness");
+
+        assertThat(readiness).isNotNull();
+        assertThat(readiness.isMember("readinessState")).isTrue();
+        assertThat(readiness.isMember("optimizely")).isTrue();
+        assertThat(readiness.isMember("diskSpace")).isFalse();
+    }
+}
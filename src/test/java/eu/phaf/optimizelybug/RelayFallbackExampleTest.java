@@ -0,0 +1,76 @@
+package eu.phaf.optimizelybug;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.http.RequestMethod;
+import com.github.tomakehurst.wiremock.matching.RequestPatternBuilder;
+import com.optimizely.ab.config.BugFixHttpProjectConfigManager;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.contract.wiremock.AutoConfigureWireMock;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.HexFormat;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = "optimizely.relay.base-url=http://localhost:${wiremock.server.port}/relay/")
+@AutoConfigureWireMock(port = 0)
+@ActiveProfiles("working")
+class RelayFallbackExampleTest {
+
+    @Autowired
+    private WireMockServer wireMockServer;
+    @Autowired
+    private BugFixHttpProjectConfigManager configManager;
+    @Autowired
+    private OptimizelyFeatureToggle optimizelyFeatureToggle;
+
+    @Test
+    void shouldFallBackToUpstreamWhenRelayContentHashDoesNotMatch() {
+        // the relay mapping announces a content hash that doesn't match its revision 99 datafile
+        optimizelyFeatureToggle.checkFeatureToggle();
+        assertThat(optimizelyFeatureToggle.getIsEnabled()).isTrue();
+        assertThat(configManager.getConfig().getRevision()).isNotEqualTo("99");
+        assertThat(configManager.getFetchStats().getRelayFallbacks()).isGreaterThanOrEqualTo(1);
+        WireMock.verify(RequestPatternBuilder.newRequestPattern(RequestMethod.GET,
+                WireMock.urlPathEqualTo("/relay/FAKE_KEY.json")));
+        WireMock.verify(RequestPatternBuilder.newRequestPattern(RequestMethod.GET,
+                WireMock.urlPathEqualTo("/optimizely/FAKE_KEY.json")));
+    }
+
+    @Test
+    void shouldFallBackToUpstreamWhenRelayIsStale() throws Exception {
+        configManager.getConfig();
+        long fallbacks = configManager.getFetchStats().getRelayFallbacks();
+        // a correctly hashed datafile, but the relay last reached upstream an hour ago
+        byte[] datafile = "{\"accountId\":\"21023511730\",\"projectId\":\"23900040109\",\"revision\":\"98\",\"version\":\"4\"}"
+                .getBytes(StandardCharsets.UTF_8);
+        wireMockServer.stubFor(WireMock.get(WireMock.urlPathEqualTo("/relay/FAKE_KEY.json"))
+                .atPriority(1)
+                .willReturn(WireMock.aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withHeader(BugFixHttpProjectConfigManager.RELAY_CONTENT_HASH_HEADER,
+                                HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(datafile)))
+                        .withHeader(BugFixHttpProjectConfigManager.RELAY_FETCHED_AT_HEADER,
+                                Long.toString(System.currentTimeMillis() - Duration.ofHours(1).toMillis()))
+                        .withBody(datafile)));
+        int upstreamRequests = upstreamRequests();
+
+        configManager.refresh();
+
+        assertThat(configManager.getConfig().getRevision()).isNotEqualTo("98");
+        assertThat(configManager.getFetchStats().getRelayFallbacks()).isEqualTo(fallbacks + 1);
+        assertThat(upstreamRequests()).isEqualTo(upstreamRequests + 1);
+    }
+
+    private int upstreamRequests() {
+        return wireMockServer.countRequestsMatching(RequestPatternBuilder.newRequestPattern(RequestMethod.GET,
+                WireMock.urlPathEqualTo("/optimizely/FAKE_KEY.json")).build()).getCount();
+    }
+}
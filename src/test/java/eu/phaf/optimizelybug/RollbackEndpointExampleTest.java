@@ -0,0 +1,69 @@
+package eu.phaf.optimizelybug;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.optimizely.ab.config.BugFixHttpProjectConfigManager;
+import eu.phaf.optimizelybug.autoconfigure.OptimizelyConfigEndpoint;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.contract.wiremock.AutoConfigureWireMock;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = "management.endpoints.web.exposure.include=health,optimizely")
+@AutoConfigureWireMock(port = 0)
+@ActiveProfiles("working")
+class RollbackEndpointExampleTest {
+
+    @Autowired
+    private WireMockServer wireMockServer;
+    @Autowired
+    private BugFixHttpProjectConfigManager configManager;
+    @Autowired
+    private OptimizelyConfigEndpoint optimizelyConfigEndpoint;
+
+    @Test
+    void shouldRollBackToThePreviousRevision() throws IOException {
+        String startRevision = configManager.getConfig().getRevision();
+        wireMockServer.stubFor(WireMock.get(WireMock.urlPathEqualTo("/optimizely/FAKE_KEY.json"))
+                .atPriority(1)
+                .willReturn(WireMock.aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody(datafile("77"))));
+
+        configManager.refresh();
+
+        assertThat(optimizelyConfigEndpoint.revisions())
+                .containsEntry("revision", "77")
+                .containsEntry("previousRevision", startRevision);
+
+        assertThat(optimizelyConfigEndpoint.rollback())
+                .containsEntry("rolledBack", true)
+                .containsEntry("revision", startRevision)
+                .containsEntry("previousRevision", null);
+        assertThat(configManager.getConfig().getRevision()).isEqualTo(startRevision);
+
+        assertThat(optimizelyConfigEndpoint.rollback())
+                .containsEntry("rolledBack", false)
+                .containsEntry("revision", startRevision);
+    }
+
+    private static byte[] datafile(String revision) throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        ObjectNode datafile;
+        try (InputStream in = new ClassPathResource("mappings/optimizely_enabled.json").getInputStream()) {
+            datafile = (ObjectNode) objectMapper.readTree(in).path("response").path("jsonBody");
+        }
+        datafile.put("revision", revision);
+        return objectMapper.writeValueAsBytes(datafile);
+    }
+}
@@ -0,0 +1,144 @@
+package eu.phaf.optimizelybug;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.optimizely.ab.config.BugFixHttpProjectConfigManager;
+import eu.phaf.optimizelybug.sidecar.DecisionSidecar;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.contract.wiremock.AutoConfigureWireMock;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// incrementally rebuilt configs can't serialize themselves, the sidecar has to serve the fetched datafile
+@SpringBootTest(properties = {"optimizely.sidecar.enabled=true", "optimizely.sidecar.port=0",
+        "optimizely.sidecar.relay-enabled=true", "optimizely.sidecar.relay-port=0",
+        "optimizely.fetch.incremental-rebuild=true"})
+@AutoConfigureWireMock(port = 0)
+@ActiveProfiles("working")
+class SidecarExampleTest {
+
+    private final HttpClient httpClient = HttpClient.newHttpClient();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Autowired
+    private DecisionSidecar decisionSidecar;
+    @Autowired
+    private BugFixHttpProjectConfigManager configManager;
+    @Value("${wiremock.server.port}")
+    private int wireMockPort;
+
+    @Test
+    void shouldDecideForABatchOfUsers() throws Exception {
+        HttpResponse<String> response = httpClient.send(HttpRequest.newBuilder(uri("/v1/decide"))
+                        .POST(HttpRequest.BodyPublishers.ofString("{\"users\":["
+                                + "{\"userId\":\"user-1\",\"flagKeys\":[\"targetfilereceiver\"]},"
+                                + "{\"userId\":\"user-2\",\"options\":[\"DISABLE_DECISION_EVENT\"]}]}"))
+                        .build(),
+                HttpResponse.BodyHandlers.ofString());
+
+        assertThat(response.statusCode()).isEqualTo(200);
+        JsonNode body = objectMapper.readTree(response.body());
+        assertThat(body.path("revision").asText()).isNotEmpty();
+        assertThat(body.path("results")).hasSize(2);
+        assertThat(body.path("results").get(0).path("decisions").has("targetfilereceiver")).isTrue();
+        assertThat(body.path("results").get(1).path("decisions").has("targetfilereceiver")).isTrue();
+    }
+
+    @Test
+    void shouldServeTheFetchedDatafile() throws Exception {
+        HttpResponse<byte[]> response = httpClient.send(HttpRequest.newBuilder(uri("/v1/datafile")).build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+
+        assertThat(response.statusCode()).isEqualTo(200);
+        JsonNode datafile = objectMapper.readTree(response.body());
+        assertThat(datafile.path("revision").asText())
+                .isEqualTo(response.headers().firstValue("X-Optimizely-Revision").orElseThrow());
+        assertThat(response.headers().firstValue(BugFixHttpProjectConfigManager.RELAY_CONTENT_HASH_HEADER))
+                .hasValue(HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(response.body())));
+    }
+
+    @Test
+    void shouldRevalidateDatafileWithETag() throws Exception {
+        HttpResponse<String> first = httpClient.send(HttpRequest.newBuilder(uri("/v1/datafile")).build(),
+                HttpResponse.BodyHandlers.ofString());
+        assertThat(first.statusCode()).isEqualTo(200);
+        String etag = first.headers().firstValue("ETag").orElseThrow();
+
+        HttpResponse<String> second = httpClient.send(HttpRequest.newBuilder(uri("/v1/datafile"))
+                        .header("If-None-Match", etag)
+                        .build(),
+                HttpResponse.BodyHandlers.ofString());
+        assertThat(second.statusCode()).isEqualTo(304);
+    }
+
+    @Test
+    void shouldRelayTheDatafileToAPeer() throws Exception {
+        // upstream is not reachable for the peer, it can only get the datafile from the sidecar
+        BugFixHttpProjectConfigManager peer = BugFixHttpProjectConfigManager.builder()
+                .withUrl("http://localhost:" + wireMockPort + "/unreachable/FAKE_KEY.json")
+                .withRelay(uri(decisionSidecar.getRelayAddress(), "/datafiles/FAKE_KEY.json").toString(), Duration.ofMinutes(3))
+                .withETagRevalidation(true)
+                .withPollingInterval(1L, TimeUnit.HOURS)
+                .build();
+        try {
+            assertThat(peer.getConfig().getRevision()).isEqualTo(configManager.getPublishedConfig().getRevision());
+            assertThat(peer.getFetchStats().getRelayFallbacks()).isZero();
+            assertThat(peer.getLastFetchedAtMillis()).isPositive();
+
+            peer.refresh();
+
+            // the relay's ETag is only sent back to the relay
+            assertThat(peer.getFetchStats().getNotModifiedResponses()).isEqualTo(1);
+            assertThat(peer.getFetchStats().getRelayFallbacks()).isZero();
+            assertThat(peer.getETag()).isNull();
+        } finally {
+            peer.close();
+        }
+    }
+
+    @Test
+    void shouldServeTheRelayApartFromDecisions() throws Exception {
+        assertThat(decisionSidecar.getRelayAddress().getPort()).isNotEqualTo(decisionSidecar.getAddress().getPort());
+
+        HttpResponse<String> relayed = httpClient.send(HttpRequest.newBuilder(
+                        uri(decisionSidecar.getRelayAddress(), "/datafiles/FAKE_KEY.json")).build(),
+                HttpResponse.BodyHandlers.ofString());
+        assertThat(relayed.statusCode()).isEqualTo(200);
+        assertThat(httpClient.send(HttpRequest.newBuilder(uri(decisionSidecar.getRelayAddress(), "/v1/datafile")).build(),
+                HttpResponse.BodyHandlers.ofString()).statusCode()).isEqualTo(404);
+        assertThat(httpClient.send(HttpRequest.newBuilder(uri("/datafiles/FAKE_KEY.json")).build(),
+                HttpResponse.BodyHandlers.ofString()).statusCode()).isEqualTo(404);
+    }
+
+    @Test
+    void shouldRejectInvalidRequests() throws Exception {
+        HttpResponse<String> response = httpClient.send(HttpRequest.newBuilder(uri("/v1/decide"))
+                        .POST(HttpRequest.BodyPublishers.ofString("{\"users\":[{}]}"))
+                        .build(),
+                HttpResponse.BodyHandlers.ofString());
+        assertThat(response.statusCode()).isEqualTo(400);
+    }
+
+    private URI uri(String path) throws URISyntaxException {
+        return uri(decisionSidecar.getAddress(), path);
+    }
+
+    private static URI uri(InetSocketAddress address, String path) throws URISyntaxException {
+        return new URI("http", null, address.getAddress().getHostAddress(), address.getPort(), path, null, null);
+    }
+}
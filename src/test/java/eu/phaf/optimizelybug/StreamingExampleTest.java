@@ -0,0 +1,38 @@
+package eu.phaf.optimizelybug;
+
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.http.RequestMethod;
+import com.github.tomakehurst.wiremock.matching.RequestPatternBuilder;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.contract.wiremock.AutoConfigureWireMock;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+@SpringBootTest(properties = "optimizely.stream-url=http://localhost:${wiremock.server.port}/optimizely/FAKE_KEY/stream")
+@AutoConfigureWireMock(port = 0)
+@ActiveProfiles("working")
+class StreamingExampleTest {
+
+    @Autowired
+    private OptimizelyFeatureToggle optimizelyFeatureToggle;
+
+    @Test
+    void shouldFetchAnnouncedRevisionBeforeNextPoll() {
+        // Polling runs every minute, the announced revision 34 (disabled) has to arrive through the stream
+        await()
+                .atMost(Duration.ofSeconds(30))
+                .untilAsserted(() -> {
+                    optimizelyFeatureToggle.checkFeatureToggle();
+                    assertThat(optimizelyFeatureToggle.getIsEnabled()).isFalse();
+                });
+        WireMock.verify(RequestPatternBuilder.newRequestPattern(RequestMethod.GET,
+                        WireMock.urlPathEqualTo("/optimizely/FAKE_KEY/stream"))
+                .withHeader("Accept", WireMock.equalTo("text/event-stream")));
+    }
+}